@@ -0,0 +1,67 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.controller.EvaluationMode;
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * The factorial, gcd and range functions of test.lsp, in every evaluation
+ * mode.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EvalBenchmark
+{
+	@Param({ "TREE", "COMPILED", "STACK" })
+	private EvaluationMode mode;
+
+	private Interpreter    interpreter;
+	private Symbol         factorial;
+	private Symbol         gcd;
+	private Symbol         range;
+
+	@Setup
+	public void setUp()
+	{
+		interpreter = Workloads.loadTestFunctions(mode);
+		factorial = Workloads.parse("(factorial 100)");
+		gcd = Workloads.parse("(gcd 832040 514229)");
+		range = Workloads.parse("(range 1 1000)");
+	}
+
+	@Benchmark
+	public Symbol factorial()
+	{
+		return interpreter.evaluate(factorial);
+	}
+
+	@Benchmark
+	public Symbol gcd()
+	{
+		return interpreter.evaluate(gcd);
+	}
+
+	@Benchmark
+	public Symbol range()
+	{
+		return interpreter.evaluate(range);
+	}
+}
@@ -0,0 +1,76 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.controller.EvaluationMode;
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.model.Symbol;
+
+import jdk.jfr.Recording;
+
+/**
+ * What the function call events cost: a recursive function with no
+ * recording, with one that leaves the calls under the default threshold
+ * out, and with one that records every call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FlightRecorderBenchmark
+{
+	private static final String PROGRAM = "(defun fib (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2)))))";
+
+	@Param({ "TREE", "COMPILED" })
+	private EvaluationMode      mode;
+
+	@Param({ "OFF", "THRESHOLD", "ALL" })
+	private String              recording;
+
+	private Interpreter         interpreter;
+	private Symbol              fib;
+	private Recording           flight;
+
+	@Setup
+	public void setUp()
+	{
+		interpreter = Workloads.load(PROGRAM, mode);
+		fib = Workloads.parse("(fib 15)");
+		if (recording.equals("OFF"))
+			return;
+		flight = new Recording();
+		flight.setToDisk(false);
+		flight.enable("com.ochavoya.languages.Call")
+		        .withThreshold(recording.equals("ALL") ? Duration.ZERO : Duration.ofMillis(1));
+		flight.start();
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		if (flight != null)
+			flight.close();
+	}
+
+	@Benchmark
+	public Symbol fib()
+	{
+		return interpreter.evaluate(fib);
+	}
+}
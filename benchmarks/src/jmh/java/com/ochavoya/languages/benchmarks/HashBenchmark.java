@@ -0,0 +1,73 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.controller.EvaluationMode;
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * Counting which of a list of keys have been seen, as deduplicating scripts
+ * do: HASH_CONTAINS on a hash set against MEMBERP on a list of the same keys.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HashBenchmark
+{
+	private static final String PROGRAM = "(defun hseen (k) (if (hash_contains s k) 1 0))"
+	        + " (defun lseen (k) (if (memberp k l) 1 0))"
+	        + " (defun total (l) (if (atomp l) 0 (+ (car l) (total (cdr l)))))";
+
+	@Param({ "TREE", "COMPILED", "STACK" })
+	private EvaluationMode      mode;
+
+	@Param({ "100", "1000" })
+	private int                 size;
+
+	private Interpreter         interpreter;
+	private Symbol              hash;
+	private Symbol              list;
+
+	@Setup
+	public void setUp()
+	{
+		StringBuilder keys = new StringBuilder();
+		StringBuilder adds = new StringBuilder();
+		for (int i = 0; i < size; ++i) {
+			keys.append(' ').append(i);
+			adds.append(" (hash_add s ").append(i * 2).append(')');
+		}
+		interpreter = Workloads.load(PROGRAM + " (setq s (hash_set " + size + "))" + adds + " (setq l (hash_keys s))"
+		        + " (setq keys '(" + keys + "))", mode);
+		hash = Workloads.parse("(total (for_list keys hseen))");
+		list = Workloads.parse("(total (for_list keys lseen))");
+	}
+
+	@Benchmark
+	public Symbol hashSet()
+	{
+		return interpreter.evaluate(hash);
+	}
+
+	@Benchmark
+	public Symbol list()
+	{
+		return interpreter.evaluate(list);
+	}
+}
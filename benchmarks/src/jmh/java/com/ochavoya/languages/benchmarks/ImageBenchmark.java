@@ -0,0 +1,78 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * A fresh interpreter with a library of generated functions, made by LOAD of
+ * the source and by RESTORE of an image saved from it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImageBenchmark
+{
+	@Param({ "1000", "50000" })
+	private int    definitions;
+
+	private Path   source;
+	private Path   image;
+	private Symbol load;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		source = Files.createTempFile("library", ".lsp");
+		image = Files.createTempFile("library", ".img");
+		Files.write(source, Workloads.generateSource(definitions).getBytes(StandardCharsets.UTF_8));
+		load = Workloads.parse("(load \"" + source + "\")");
+		Interpreter interpreter = new Interpreter(Workloads.stream(""));
+		interpreter.evaluate(load);
+		interpreter.save(image);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException
+	{
+		Files.delete(source);
+		Files.delete(image);
+	}
+
+	@Benchmark
+	public Interpreter load()
+	{
+		Interpreter interpreter = new Interpreter(Workloads.stream(""));
+		interpreter.evaluate(load);
+		return interpreter;
+	}
+
+	@Benchmark
+	public Interpreter restore() throws IOException
+	{
+		Interpreter interpreter = new Interpreter(Workloads.stream(""));
+		interpreter.restore(image);
+		return interpreter;
+	}
+}
@@ -0,0 +1,66 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.controller.EvaluationMode;
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * Taking the first ten squares of a range, as pipelines that only need a
+ * prefix do: a lazy sequence against building the whole range and mapping it
+ * with FOR_LIST.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LazyBenchmark
+{
+	private static final String PROGRAM = "(defun sq (x) (* x x))"
+	        + " (defun range (n) (let ((l nil)) ((while (> n 0) ((setq n (- n 1)) (setq l (push n l)))) l)))";
+
+	@Param({ "TREE", "COMPILED", "STACK" })
+	private EvaluationMode mode;
+
+	@Param({ "1000", "100000" })
+	private int            size;
+
+	private Interpreter    interpreter;
+	private Symbol         lazy;
+	private Symbol         eager;
+
+	@Setup
+	public void setUp()
+	{
+		interpreter = Workloads.load(PROGRAM, mode);
+		lazy = Workloads.parse("(count (take 10 (lazy_map (lazy_range 0 " + size + ") sq)))");
+		eager = Workloads.parse("(count (for_list (range " + size + ") sq))");
+	}
+
+	@Benchmark
+	public Symbol lazy()
+	{
+		return interpreter.evaluate(lazy);
+	}
+
+	@Benchmark
+	public Symbol eager()
+	{
+		return interpreter.evaluate(eager);
+	}
+}
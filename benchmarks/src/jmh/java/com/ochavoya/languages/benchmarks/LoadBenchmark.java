@@ -0,0 +1,64 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * LOAD of a generated file of function definitions, from mapping the file to
+ * evaluating its last form. Files over a megabyte are parsed in pieces.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoadBenchmark
+{
+	@Param({ "1000", "50000" })
+	private int         definitions;
+
+	private Path        file;
+	private Interpreter interpreter;
+	private Symbol      load;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		file = Files.createTempFile("load", ".lsp");
+		Files.write(file, Workloads.generateSource(definitions).getBytes(StandardCharsets.UTF_8));
+		interpreter = new Interpreter(Workloads.stream(""));
+		load = Workloads.parse("(load \"" + file + "\")");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException
+	{
+		Files.delete(file);
+	}
+
+	@Benchmark
+	public Symbol load()
+	{
+		return interpreter.evaluate(load);
+	}
+}
@@ -0,0 +1,65 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.controller.EvaluationMode;
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * Naive fibonacci with and without MEMOIZE. The memoized runs start from an
+ * empty cache every time, so they measure the first call and not a lookup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MemoBenchmark
+{
+	private static final String PROGRAM = "(defun fib (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2)))))"
+	        + " (defun mfib (n) (if (< n 2) n (+ (mfib (- n 1)) (mfib (- n 2)))))";
+
+	@Param({ "TREE", "COMPILED", "STACK" })
+	private EvaluationMode      mode;
+
+	private Interpreter         interpreter;
+	private Symbol              fib;
+	private Symbol              memoize;
+	private Symbol              mfib;
+
+	@Setup
+	public void setUp()
+	{
+		interpreter = Workloads.load(PROGRAM, mode);
+		fib = Workloads.parse("(fib 20)");
+		memoize = Workloads.parse("(memoize mfib 100)");
+		mfib = Workloads.parse("(mfib 20)");
+	}
+
+	@Benchmark
+	public Symbol plain()
+	{
+		return interpreter.evaluate(fib);
+	}
+
+	@Benchmark
+	public Symbol memoized()
+	{
+		interpreter.evaluate(memoize);
+		return interpreter.evaluate(mfib);
+	}
+}
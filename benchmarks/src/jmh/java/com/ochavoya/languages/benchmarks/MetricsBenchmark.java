@@ -0,0 +1,66 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.controller.EvaluationMode;
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.controller.Metrics;
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * What the metrics cost: the smallest top level forms, where counting them
+ * weighs the most, a form that fails, and taking a snapshot.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsBenchmark
+{
+	private Interpreter interpreter;
+	private Symbol      sum;
+	private Symbol      error;
+
+	@Setup
+	public void setUp()
+	{
+		interpreter = Workloads.load("(defun f (x) x)", EvaluationMode.TREE);
+		sum = Workloads.parse("(+ 1 2)");
+		error = Workloads.parse("(car 5)");
+	}
+
+	@Benchmark
+	public Symbol form()
+	{
+		return interpreter.evaluate(sum);
+	}
+
+	@Benchmark
+	public String failingForm()
+	{
+		try {
+			return interpreter.evaluate(error).toString();
+		} catch (RuntimeException e) {
+			return e.toString();
+		}
+	}
+
+	@Benchmark
+	public Metrics.Snapshot snapshot()
+	{
+		return interpreter.getMetrics();
+	}
+}
@@ -0,0 +1,82 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.controller.EvaluationMode;
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * FOR_LIST against PFOR_LIST, and a sequential against a parallel PREDUCE,
+ * over a list of 20000 numbers. The parallel forms only split on more than
+ * one core.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelListBenchmark
+{
+	private static final String PROGRAM = "(defun fib (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2)))))"
+	        + " (defun work (x) (fib (% x 12)))"
+	        + " (defun add (a b) (+ a b))"
+	        + " (setq numbers (let ((i 0) (l nil)) ((while (< i 20000) ((setq i (+ i 1)) (setq l (push i l)))) l)))";
+
+	@Param({ "TREE", "COMPILED" })
+	private EvaluationMode      mode;
+
+	private Interpreter         interpreter;
+	private Symbol              forList;
+	private Symbol              pforList;
+	private Symbol              reduce;
+
+	@Setup
+	public void setUp()
+	{
+		interpreter = Workloads.load(PROGRAM, mode);
+		forList = Workloads.parse("(for_list numbers work)");
+		pforList = Workloads.parse("(pfor_list numbers work)");
+		reduce = Workloads.parse("(preduce (pfor_list numbers work) add 0)");
+	}
+
+	@Benchmark
+	public Symbol forList()
+	{
+		return interpreter.evaluate(forList);
+	}
+
+	@Benchmark
+	public Symbol pforList()
+	{
+		interpreter.setParallelThreshold(1000);
+		return interpreter.evaluate(pforList);
+	}
+
+	@Benchmark
+	public Symbol sequentialReduce()
+	{
+		interpreter.setParallelThreshold(-1);
+		return interpreter.evaluate(reduce);
+	}
+
+	@Benchmark
+	public Symbol parallelReduce()
+	{
+		interpreter.setParallelThreshold(1000);
+		return interpreter.evaluate(reduce);
+	}
+}
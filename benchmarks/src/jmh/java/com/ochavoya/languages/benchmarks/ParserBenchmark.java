@@ -0,0 +1,59 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ochavoya.languages.controller.Parser;
+import com.ochavoya.languages.model.Symbol;
+import com.ochavoya.languages.model.Token;
+
+/**
+ * Time to read every expression of a large generated source with
+ * {@link Parser#getExpression()}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParserBenchmark
+{
+	@Param({ "100", "10000" })
+	private int    definitions;
+
+	private byte[] source;
+
+	@Setup
+	public void setUp()
+	{
+		source = Workloads.generateSource(definitions).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public int getExpression(Blackhole blackhole)
+	{
+		Parser parser = new Parser(new ByteArrayInputStream(source));
+		int count = 0;
+		Symbol expression;
+		while ((expression = parser.getExpression()).getType() != Token.END) {
+			blackhole.consume(expression);
+			++count;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,106 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.model.Printer;
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * Printing a flat list and a list nested as deep as it is long, as a string
+ * and streamed to a writer that drops what it is given, in full and cut to
+ * ten elements and ten levels.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrintBenchmark
+{
+	@Param({ "1000", "100000" })
+	private int    size;
+
+	private Symbol flat;
+	private Symbol nested;
+
+	private static final Writer NOWHERE = new Writer()
+	{
+		@Override
+		public void write(char[] buffer, int offset, int length)
+		{
+		}
+
+		@Override
+		public void flush()
+		{
+		}
+
+		@Override
+		public void close()
+		{
+		}
+	};
+
+	@Setup
+	public void setUp()
+	{
+		flat = Symbol.NIL;
+		for (int i = 0; i < size; ++i)
+			flat = Symbol.push(Symbol.number(i), flat);
+		// deep enough to show the cost of nesting without overflowing the stack
+		nested = Symbol.NIL;
+		for (int i = 0; i < Math.min(size, 1000); ++i)
+			nested = Symbol.push(Symbol.number(i), Symbol.push(nested, Symbol.NIL));
+	}
+
+	@Benchmark
+	public int flatString()
+	{
+		return flat.toString().length();
+	}
+
+	@Benchmark
+	public Printer flatStreamed() throws IOException
+	{
+		Printer printer = new Printer(NOWHERE);
+		printer.print(flat);
+		return printer;
+	}
+
+	@Benchmark
+	public Printer flatLimited() throws IOException
+	{
+		Printer printer = new Printer(NOWHERE, 10, 10);
+		printer.print(flat);
+		return printer;
+	}
+
+	@Benchmark
+	public int nestedString()
+	{
+		return nested.toString().length();
+	}
+
+	@Benchmark
+	public Printer nestedLimited() throws IOException
+	{
+		Printer printer = new Printer(NOWHERE, 10, 10);
+		printer.print(nested);
+		return printer;
+	}
+}
@@ -0,0 +1,63 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * Time to print large lists with {@link Symbol#toString()}: a flat list of
+ * numbers and a list of ten element sublists of strings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PrinterBenchmark
+{
+	@Param({ "1000", "100000" })
+	private int    size;
+
+	private Symbol flat;
+	private Symbol nested;
+
+	@Setup
+	public void setUp()
+	{
+		flat = Symbol.NIL;
+		for (int i = size; i > 0; --i)
+			flat = Symbol.push(Symbol.number(i), flat);
+		nested = Symbol.NIL;
+		for (int i = size / 10; i > 0; --i) {
+			Symbol row = Symbol.NIL;
+			for (int j = 10; j > 0; --j)
+				row = Symbol.push(Workloads.parse("\"s" + i + "_" + j + "\""), row);
+			nested = Symbol.push(row, nested);
+		}
+	}
+
+	@Benchmark
+	public String flat()
+	{
+		return flat.toString();
+	}
+
+	@Benchmark
+	public String nested()
+	{
+		return nested.toString();
+	}
+}
@@ -0,0 +1,65 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.controller.EvaluationMode;
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.controller.Profiler;
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * What profiling costs: a recursive function walked as a tree, with and
+ * without a profiler recording it, and with its builtins counted or put on
+ * the stack. Tiering is off, since the profiler only sees what the
+ * tree-walker evaluates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProfileBenchmark
+{
+	private static final String PROGRAM = "(defun fib (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2)))))";
+
+	private Interpreter         interpreter;
+	private Symbol              fib;
+
+	@Setup
+	public void setUp()
+	{
+		interpreter = Workloads.load(PROGRAM, EvaluationMode.TREE);
+		interpreter.setTierThreshold(-1);
+		fib = Workloads.parse("(fib 18)");
+	}
+
+	@Benchmark
+	public Symbol plain()
+	{
+		return interpreter.evaluate(fib);
+	}
+
+	@Benchmark
+	public Symbol profiled()
+	{
+		return interpreter.profile(fib, new Profiler(1000, false));
+	}
+
+	@Benchmark
+	public Symbol profiledWithBuiltinFrames()
+	{
+		return interpreter.profile(fib, new Profiler(1000, true));
+	}
+}
@@ -0,0 +1,88 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.controller.EvaluationMode;
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * The left recursive transitive closure of a chain of parents. Adding a fact
+ * throws the tables away, so <code>closure</code> and <code>first</code>
+ * start from nothing, while <code>tabled</code> reads a complete table.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProveBenchmark
+{
+	@Param({ "50", "200" })
+	private int         length;
+
+	private Interpreter interpreter;
+	private Symbol      reset;
+	private Symbol      all;
+	private Symbol      descendants;
+	private Symbol      template;
+
+	@Setup
+	public void setUp()
+	{
+		StringBuilder program = new StringBuilder();
+		for (int i = 0; i < length; ++i)
+			program.append("(. (parent n").append(i).append(" n").append(i + 1).append("))\n");
+		program.append("(. (anc ?x ?y) (parent ?x ?y))\n");
+		program.append("(. (anc ?x ?y) (anc ?x ?z) (parent ?z ?y))\n");
+		interpreter = Workloads.load(program.toString(), EvaluationMode.TREE);
+		reset = Workloads.parse("(. (reset))");
+		all = Workloads.parse("(anc ?x ?y)");
+		descendants = Workloads.parse("(anc n0 ?y)");
+		template = Workloads.parse("?y");
+	}
+
+	private static int count(Iterator<Symbol> proofs, int limit)
+	{
+		int count = 0;
+		while (count < limit && proofs.hasNext()) {
+			proofs.next();
+			++count;
+		}
+		return count;
+	}
+
+	@Benchmark
+	public int closure()
+	{
+		interpreter.evaluate(reset);
+		return count(interpreter.prove(all, template), Integer.MAX_VALUE);
+	}
+
+	@Benchmark
+	public int first()
+	{
+		interpreter.evaluate(reset);
+		return count(interpreter.prove(descendants, template), 10);
+	}
+
+	@Benchmark
+	public int tabled()
+	{
+		return count(interpreter.prove(all, template), Integer.MAX_VALUE);
+	}
+}
@@ -0,0 +1,84 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.model.FactBase;
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * Lookups in a store of random <code>(edge from to)</code> facts, by the
+ * first argument and by the second, against the full scan the store replaces.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class QueryBenchmark
+{
+	@Param({ "10000", "1000000" })
+	private int      facts;
+
+	private FactBase store;
+	private Symbol   byFrom;
+	private Symbol   byTo;
+
+	@Setup
+	public void setUp()
+	{
+		Random random = new Random(42);
+		int nodes = Math.max(facts / 10, 1);
+		store = new FactBase();
+		for (int i = 0; i < facts; ++i)
+			store.add(Workloads.parse("(edge n" + random.nextInt(nodes) + " n" + random.nextInt(nodes) + ")"));
+		byFrom = Workloads.parse("(edge n7 ?to)");
+		byTo = Workloads.parse("(edge ?from n7)");
+	}
+
+	private int count(Iterator<Symbol> candidates, Symbol pattern)
+	{
+		Map<Symbol, Symbol> bindings = new HashMap<Symbol, Symbol>();
+		int matches = 0;
+		while (candidates.hasNext()) {
+			bindings.clear();
+			if (FactBase.match(pattern, candidates.next(), bindings))
+				++matches;
+		}
+		return matches;
+	}
+
+	@Benchmark
+	public int firstArgument()
+	{
+		return count(store.candidates(byFrom), byFrom);
+	}
+
+	@Benchmark
+	public int secondArgument()
+	{
+		return count(store.candidates(byTo), byTo);
+	}
+
+	@Benchmark
+	public int scan()
+	{
+		return count(store.iterator(), byTo);
+	}
+}
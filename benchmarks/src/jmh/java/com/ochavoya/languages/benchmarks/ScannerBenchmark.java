@@ -0,0 +1,58 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ochavoya.languages.controller.Scanner;
+import com.ochavoya.languages.model.Token;
+
+/**
+ * Time to tokenize a generated source with {@link Scanner#next()}. Run with the
+ * gc profiler to see the allocation rate, which should be little more than
+ * the symbols for numbers and strings.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScannerBenchmark
+{
+	@Param({ "100", "10000" })
+	private int    definitions;
+
+	private byte[] source;
+
+	@Setup
+	public void setUp()
+	{
+		source = Workloads.generateSource(definitions).getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public int next(Blackhole blackhole)
+	{
+		Scanner scanner = new Scanner(new ByteArrayInputStream(source));
+		int count = 0;
+		while (scanner.next() != Token.END) {
+			blackhole.consume(scanner.getSymbol());
+			++count;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,125 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.view.LispServer;
+
+/**
+ * Round trips to a loopback server, one expression at a time against a whole
+ * batch written before reading any reply. Scores are per expression.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ServerBenchmark
+{
+	private static final int BATCH = 100;
+
+	@State(Scope.Benchmark)
+	public static class Server
+	{
+		LispServer server;
+
+		@Setup
+		public void setUp() throws IOException
+		{
+			server = LispServer.tcp(0);
+			Thread thread = new Thread(() -> {
+				try {
+					server.serve();
+				} catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		@TearDown
+		public void tearDown() throws IOException
+		{
+			server.close();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Session
+	{
+		private SocketChannel  channel;
+		private OutputStream   requests;
+		private BufferedReader replies;
+		private byte[]         expression;
+		private byte[]         batch;
+
+		@Setup
+		public void setUp(Server server) throws IOException
+		{
+			channel = SocketChannel.open(server.server.getAddress());
+			requests = Channels.newOutputStream(channel);
+			replies = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+			expression = "(+ 1 2)\n".getBytes(StandardCharsets.UTF_8);
+			batch = "(+ 1 2)\n".repeat(BATCH).getBytes(StandardCharsets.UTF_8);
+		}
+
+		@TearDown
+		public void tearDown() throws IOException
+		{
+			channel.close();
+		}
+
+		String reply() throws IOException
+		{
+			String line = replies.readLine();
+			if (!"= 3".equals(line))
+				throw new IllegalStateException("unexpected reply " + line);
+			return line;
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public String lockstep(Session session) throws IOException
+	{
+		String line = null;
+		for (int i = 0; i < BATCH; i++) {
+			session.requests.write(session.expression);
+			line = session.reply();
+		}
+		return line;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public String pipelined(Session session) throws IOException
+	{
+		session.requests.write(session.batch);
+		String line = null;
+		for (int i = 0; i < BATCH; i++)
+			line = session.reply();
+		return line;
+	}
+}
@@ -0,0 +1,98 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.controller.EvaluationMode;
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * Compares the recursive tree-walker with the explicit-stack evaluator on non
+ * tail recursive functions, on a 1 MB thread stack. The tree-walker overflows
+ * that stack a few thousand calls deep, so {@link #deepRange()} only runs with
+ * the explicit stack.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xss1m")
+public class StackEvaluatorBenchmark
+{
+	private static final String PROGRAM = "(defun factorial (n) (if (= n 0) 1 (* n (factorial (- n 1)))))"
+	        + " (defun range (n) (if (= n 0) nil (push n (range (- n 1)))))"
+	        + " (defun gcd (a b) (cond (((= b 0) a) (true (gcd b (% a b))))))";
+	private static final int    DEEP    = 200000;
+
+	@State(Scope.Benchmark)
+	public static class Shallow
+	{
+		@Param({ "TREE", "STACK" })
+		private EvaluationMode mode;
+
+		private Interpreter    interpreter;
+		private Symbol         factorial;
+		private Symbol         range;
+		private Symbol         gcd;
+
+		@Setup
+		public void setUp()
+		{
+			interpreter = Workloads.load(PROGRAM, mode);
+			factorial = Workloads.parse("(factorial 200)");
+			range = Workloads.parse("(count (range 1000))");
+			gcd = Workloads.parse("(gcd 832040 514229)");
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class Deep
+	{
+		private Interpreter interpreter;
+		private Symbol      range;
+
+		@Setup
+		public void setUp()
+		{
+			interpreter = Workloads.load(PROGRAM, EvaluationMode.STACK);
+			range = Workloads.parse("(count (range " + DEEP + "))");
+		}
+	}
+
+	@Benchmark
+	public Symbol factorial(Shallow state)
+	{
+		return state.interpreter.evaluate(state.factorial);
+	}
+
+	@Benchmark
+	public Symbol range(Shallow state)
+	{
+		return state.interpreter.evaluate(state.range);
+	}
+
+	@Benchmark
+	public Symbol gcd(Shallow state)
+	{
+		return state.interpreter.evaluate(state.gcd);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public Symbol deepRange(Deep state)
+	{
+		return state.interpreter.evaluate(state.range);
+	}
+}
@@ -0,0 +1,58 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.controller.EvaluationMode;
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * Regression benchmark for tail calls: a million-iteration tail-recursive loop
+ * on a 256 KB thread stack, which overflows unless tail calls run in constant
+ * Java stack.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xss256k")
+@State(Scope.Benchmark)
+public class TailCallBenchmark
+{
+	private static final String PROGRAM    = "(defun countdown (n acc) (cond (((= n 0) acc) (true (countdown (- n 1) (+ acc 1))))))";
+	private static final int    ITERATIONS = 1000000;
+
+	@Param({ "TREE", "COMPILED", "STACK" })
+	private EvaluationMode      mode;
+
+	private Interpreter         interpreter;
+	private Symbol              countdown;
+
+	@Setup
+	public void setUp()
+	{
+		interpreter = Workloads.load(PROGRAM, mode);
+		countdown = Workloads.parse("(countdown " + ITERATIONS + " 0)");
+	}
+
+	@Benchmark
+	public Symbol countdown()
+	{
+		Symbol value = interpreter.evaluate(countdown);
+		if (!value.equals(Symbol.number(ITERATIONS)))
+			throw new IllegalStateException("countdown returned " + value);
+		return value;
+	}
+}
@@ -0,0 +1,82 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.model.Symbol;
+import com.ochavoya.languages.model.Token;
+
+/**
+ * Independent scripts, each on a fresh interpreter, run on one thread and on
+ * as many threads as there are cores. Interpreters share nothing mutable, so
+ * the scores should differ by close to the number of cores.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThroughputBenchmark
+{
+	private static final String SCRIPT = "(defun fib (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2)))))"
+	        + " (setq x 17) (write \"fib\" x) (fib x)";
+
+	@State(Scope.Thread)
+	public static class Script
+	{
+		private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		private PrintStream                 out;
+		private byte[]                      source;
+
+		@Setup
+		public void setUp()
+		{
+			out = new PrintStream(output);
+			source = SCRIPT.getBytes(StandardCharsets.UTF_8);
+		}
+
+		Symbol run()
+		{
+			output.reset();
+			Interpreter interpreter = new Interpreter(new ByteArrayInputStream(source), out);
+			Symbol value = Symbol.NIL;
+			Symbol expression;
+			while ((expression = interpreter.getParser().getExpression()).getType() != Token.END) {
+				value = interpreter.evaluate(expression);
+			}
+			if (!value.equals(Symbol.number(1597)))
+				throw new IllegalStateException("fib returned " + value);
+			return value;
+		}
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Symbol oneThread(Script script)
+	{
+		return script.run();
+	}
+
+	@Benchmark
+	@Threads(Threads.MAX)
+	public Symbol allCores(Script script)
+	{
+		return script.run();
+	}
+}
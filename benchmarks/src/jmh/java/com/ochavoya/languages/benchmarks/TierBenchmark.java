@@ -0,0 +1,75 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.controller.EvaluationMode;
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * Hot user functions with and without the bytecode tier; a threshold of -1
+ * turns it off.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TierBenchmark
+{
+	private static final String PROGRAM = "(defun fib (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2)))))"
+	        + " (defun gcd (a b) (cond (((= b 0) a) (true (gcd b (% a b))))))"
+	        + " (defun sum (n) (let ((i 0) (s 0)) ((while (< i n) ((setq i (+ i 1)) (setq s (+ s i)))) s)))";
+
+	@Param({ "TREE", "COMPILED" })
+	private EvaluationMode      mode;
+
+	@Param({ "-1", "100" })
+	private int                 threshold;
+
+	private Interpreter         interpreter;
+	private Symbol              fib;
+	private Symbol              gcd;
+	private Symbol              sum;
+
+	@Setup
+	public void setUp()
+	{
+		interpreter = Workloads.load(PROGRAM, mode);
+		interpreter.setTierThreshold(threshold);
+		fib = Workloads.parse("(fib 20)");
+		gcd = Workloads.parse("(gcd 832040 514229)");
+		sum = Workloads.parse("(sum 1000)");
+	}
+
+	@Benchmark
+	public Symbol fib()
+	{
+		return interpreter.evaluate(fib);
+	}
+
+	@Benchmark
+	public Symbol gcd()
+	{
+		return interpreter.evaluate(gcd);
+	}
+
+	@Benchmark
+	public Symbol sum()
+	{
+		return interpreter.evaluate(sum);
+	}
+}
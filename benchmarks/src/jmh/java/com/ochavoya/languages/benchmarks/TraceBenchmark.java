@@ -0,0 +1,77 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.controller.EvaluationMode;
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.controller.Tracer;
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * What tracing costs: a recursive function walked as a tree, untraced,
+ * printed by (TRACE T) to a stream that throws it away, and recorded to a
+ * file by the binary tracer, every call or one in a hundred.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TraceBenchmark
+{
+	private static final String PROGRAM = "(defun fib (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2)))))";
+
+	@Param({ "OFF", "PRINTED", "RECORDED", "SAMPLED" })
+	private String              trace;
+
+	private Interpreter         interpreter;
+	private Symbol              fib;
+	private Path                file;
+
+	@Setup
+	public void setUp() throws IOException
+	{
+		interpreter = Workloads.load(PROGRAM, EvaluationMode.TREE);
+		interpreter.setTierThreshold(-1);
+		interpreter.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		fib = Workloads.parse("(fib 15)");
+		file = Files.createTempFile("trace", ".trc");
+		if (trace.equals("PRINTED"))
+			interpreter.evaluate(Workloads.parse("(TRACE T)"));
+		else if (!trace.equals("OFF"))
+			interpreter.setTracer(new Tracer(file, trace.equals("SAMPLED") ? 100 : 1, Collections.emptyList()));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException
+	{
+		interpreter.setTracer(null);
+		Files.deleteIfExists(file);
+	}
+
+	@Benchmark
+	public Symbol fib()
+	{
+		return interpreter.evaluate(fib);
+	}
+}
@@ -0,0 +1,71 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ochavoya.languages.controller.EvaluationMode;
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * Summing a sequence by index, as table-processing scripts do: VREF on a
+ * vector against walking a list to each index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VectorBenchmark
+{
+	private static final String PROGRAM = "(defun nth (l i) (if (= i 0) (car l) (nth (cdr l) (- i 1))))"
+	        + " (defun vsum (v) (let ((i 0) (s 0)) ((while (< i (vlength v)) ((setq s (+ s (vref v i)))"
+	        + " (setq i (+ i 1)))) s)))"
+	        + " (defun lsum (l) (let ((i 0) (s 0) (n (count l))) ((while (< i n) ((setq s (+ s (nth l i)))"
+	        + " (setq i (+ i 1)))) s)))";
+
+	@Param({ "TREE", "COMPILED", "STACK" })
+	private EvaluationMode      mode;
+
+	@Param({ "100", "1000" })
+	private int                 size;
+
+	private Interpreter         interpreter;
+	private Symbol              vsum;
+	private Symbol              lsum;
+
+	@Setup
+	public void setUp()
+	{
+		StringBuilder elements = new StringBuilder();
+		for (int i = 0; i < size; ++i)
+			elements.append(' ').append(i);
+		interpreter = Workloads.load(PROGRAM + " (setq v #(" + elements + ")) (setq l '(" + elements + "))", mode);
+		vsum = Workloads.parse("(vsum v)");
+		lsum = Workloads.parse("(lsum l)");
+	}
+
+	@Benchmark
+	public Symbol vector()
+	{
+		return interpreter.evaluate(vsum);
+	}
+
+	@Benchmark
+	public Symbol list()
+	{
+		return interpreter.evaluate(lsum);
+	}
+}
@@ -0,0 +1,90 @@
+package com.ochavoya.languages.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import com.ochavoya.languages.controller.EvaluationMode;
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.controller.Parser;
+import com.ochavoya.languages.model.Symbol;
+import com.ochavoya.languages.model.Token;
+
+/**
+ * Sources and interpreters shared by the benchmarks.
+ */
+final class Workloads
+{
+	private Workloads()
+	{
+	}
+
+	static InputStream stream(String source)
+	{
+		return new ByteArrayInputStream(source.getBytes(StandardCharsets.UTF_8));
+	}
+
+	static Symbol parse(String source)
+	{
+		return new Parser(stream(source)).getExpression();
+	}
+
+	/**
+	 * @return an interpreter in <code>mode</code> that has evaluated every
+	 *         expression of <code>program</code>
+	 */
+	static Interpreter load(String program, EvaluationMode mode)
+	{
+		Interpreter interpreter = new Interpreter(stream(program));
+		interpreter.setMode(mode);
+		Symbol expression;
+		while ((expression = interpreter.getParser().getExpression()).getType() != Token.END) {
+			interpreter.evaluate(expression);
+		}
+		return interpreter;
+	}
+
+	/**
+	 * @return an interpreter in <code>mode</code> with the functions defined
+	 *         in test.lsp, which the build passes as <code>lisp.source</code>
+	 */
+	static Interpreter loadTestFunctions(EvaluationMode mode)
+	{
+		String source;
+		try {
+			source = new String(Files.readAllBytes(Paths.get(System.getProperty("lisp.source", "test.lsp"))),
+			        StandardCharsets.UTF_8);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		Interpreter interpreter = new Interpreter(stream(source));
+		interpreter.setMode(mode);
+		Symbol expression;
+		while ((expression = interpreter.getParser().getExpression()).getType() != Token.END) {
+			if (expression.isList() && expression.getCar().getType() == Token.DEFUN)
+				interpreter.evaluate(expression);
+		}
+		return interpreter;
+	}
+
+	/**
+	 * @return a deterministic program of <code>definitions</code> function
+	 *         definitions that uses every kind of token
+	 */
+	static String generateSource(int definitions)
+	{
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < definitions; ++i) {
+			builder.append("(defun f").append(i).append(" (a b)\n")
+			        .append("    (cond (((< a ").append(i).append(") (write \"small\" a))\n")
+			        .append("           ((>= b ").append(i * 31 % 1000).append(") (push 'b (reverse (cdr '(x y z)))))\n")
+			        .append("           (true (let ((c (- (+ a b) ").append(i % 17).append(")))\n")
+			        .append("                   ((setq a (* c (% b 7))) (f").append(i / 2).append(" a c)))))))\n");
+		}
+		return builder.toString();
+	}
+}
@@ -0,0 +1,1035 @@
+package com.ochavoya.languages.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ochavoya.languages.controller.Compiler.Scope;
+import com.ochavoya.languages.model.Environment;
+import com.ochavoya.languages.model.Lambda;
+import com.ochavoya.languages.model.Node;
+import com.ochavoya.languages.model.Symbol;
+import com.ochavoya.languages.model.Token;
+
+/**
+ * Second tier of the {@link Compiler}: turns the body of a hot user function
+ * into a hidden class whose {@link Node#execute(Environment)} is JVM bytecode,
+ * so that the JIT sees one method instead of a tree of nodes.
+ *
+ * Constants, local variables, arithmetic, comparisons, conditionals, LET,
+ * SETQ, WHILE and calls of the function to itself are generated directly. A
+ * self call in tail position becomes a jump back to the start of the method.
+ * Every other subexpression is compiled to a {@link Node} by the first tier
+ * and called from the generated code, so the hidden class never needs to
+ * know more of the language than it does.
+ *
+ * A self call first checks that the function has not been redefined; if it
+ * has, the call goes through the first tier, which finds the new definition.
+ * The class files are version 49, which the JVM verifies by type inference,
+ * so no stack map frames need to be generated.
+ */
+class BytecodeCompiler
+{
+	private static final String NODE        = "com/ochavoya/languages/model/Node";
+	private static final String SYMBOL      = "com/ochavoya/languages/model/Symbol";
+	private static final String ENVIRONMENT = "com/ochavoya/languages/model/Environment";
+	private static final String TIER        = "com/ochavoya/languages/controller/BytecodeCompiler$Tier";
+	private static final String HELPERS     = "com/ochavoya/languages/controller/BytecodeCompiler";
+	private static final String NUMBERS     = "com/ochavoya/languages/controller/Numbers";
+	private static final String INTERPRETER = "com/ochavoya/languages/controller/Interpreter";
+	private static final String ERROR       = "com/ochavoya/languages/controller/EvaluationError";
+	private static final String CLASS_NAME  = "com/ochavoya/languages/controller/Tiered";
+
+	private static final String S           = "L" + SYMBOL + ";";
+	private static final String E           = "L" + ENVIRONMENT + ";";
+	private static final String UNARY       = "(" + S + ")" + S;
+	private static final String BINARY      = "(" + S + S + ")" + S;
+
+	private static final int    ICONST_0    = 0x03;
+	private static final int    BIPUSH      = 0x10;
+	private static final int    SIPUSH      = 0x11;
+	private static final int    LDC         = 0x12;
+	private static final int    LDC_W       = 0x13;
+	private static final int    ALOAD       = 0x19;
+	private static final int    ALOAD_0     = 0x2a;
+	private static final int    AALOAD      = 0x32;
+	private static final int    ASTORE      = 0x3a;
+	private static final int    AASTORE     = 0x53;
+	private static final int    POP         = 0x57;
+	private static final int    DUP         = 0x59;
+	private static final int    SWAP        = 0x5f;
+	private static final int    IFEQ        = 0x99;
+	private static final int    IFNE        = 0x9a;
+	private static final int    IFLT        = 0x9b;
+	private static final int    IFGE        = 0x9c;
+	private static final int    IFGT        = 0x9d;
+	private static final int    IFLE        = 0x9e;
+	private static final int    GOTO        = 0xa7;
+	private static final int    ARETURN     = 0xb0;
+	private static final int    RETURN      = 0xb1;
+	private static final int    GETSTATIC   = 0xb2;
+	private static final int    GETFIELD    = 0xb4;
+	private static final int    PUTFIELD    = 0xb5;
+	private static final int    INVOKEVIRT  = 0xb6;
+	private static final int    INVOKESPEC  = 0xb7;
+	private static final int    INVOKESTAT  = 0xb8;
+	private static final int    NEW         = 0xbb;
+	private static final int    ANEWARRAY   = 0xbd;
+	private static final int    ATHROW      = 0xbf;
+
+	private final Interpreter   interpreter;
+	private final Compiler      compiler;
+
+	BytecodeCompiler(Interpreter interpreter, Compiler compiler)
+	{
+		this.interpreter = interpreter;
+		this.compiler = compiler;
+	}
+
+	/**
+	 * @param scope
+	 *            the scope the body of <code>lambda</code> runs in
+	 * @return the compiled body, or null when it cannot be compiled; the
+	 *         caller keeps running the first tier then
+	 */
+	Node compile(Lambda lambda, Scope scope)
+	{
+		Generator generator = new Generator(lambda);
+		try {
+			byte[] bytes = generator.generate(scope);
+			Tier tier = new Tier(interpreter, compiler, lambda, generator.constants.toArray(new Symbol[0]),
+			        generator.nodes.toArray(new Node[0]), generator.names.toArray(new Symbol[0][]));
+			Class<?> tiered = MethodHandles.lookup().defineHiddenClass(bytes, true).lookupClass();
+			return (Node) tiered.getDeclaredConstructor(Symbol.class, Tier.class).newInstance(lambda.getCode(), tier);
+		} catch (CodeTooLarge | LinkageError | ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * What the generated code needs at run time besides its frame.
+	 */
+	static final class Tier
+	{
+		final Symbol[]            constants;
+		final Node[]              nodes;
+		final Symbol[][]          names;
+		private final Interpreter interpreter;
+		private final Compiler    compiler;
+		private final Lambda      lambda;
+		private final Symbol      name;
+		private int               version;
+
+		Tier(Interpreter interpreter, Compiler compiler, Lambda lambda, Symbol[] constants, Node[] nodes, Symbol[][] names)
+		{
+			this.interpreter = interpreter;
+			this.compiler = compiler;
+			this.lambda = lambda;
+			this.name = lambda.getName();
+			this.constants = constants;
+			this.nodes = nodes;
+			this.names = names;
+			this.version = interpreter.getDefinitions();
+		}
+
+		/**
+		 * @return whether the name of the function still refers to it
+		 */
+		boolean isCurrent()
+		{
+			int definitions = interpreter.getDefinitions();
+			if (definitions == version)
+				return true;
+			if (interpreter.getFunction(name.getCode()) != lambda)
+				return false;
+			version = definitions;
+			return true;
+		}
+
+		Environment bind(Symbol[] values)
+		{
+			return interpreter.bind(name, lambda, values);
+		}
+
+		Symbol call(Symbol[] values)
+		{
+			if (!Events.Call.enabled())
+				return compiler.execute(lambda, bind(values));
+			Events.Call event = Events.Call.start(name, values.length);
+			try {
+				return compiler.execute(lambda, bind(values));
+			} finally {
+				event.finish();
+			}
+		}
+
+		void setGlobal(Symbol value, String name)
+		{
+			interpreter.setGlobal(name, value);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static final class CodeTooLarge extends RuntimeException
+	{
+	}
+
+	private static final class Label
+	{
+		int           position = -1;
+		int           stack    = -1;
+		List<Integer> jumps    = new ArrayList<Integer>();
+	}
+
+	private static final class ConstantPool
+	{
+		private final ByteArrayOutputStream bytes   = new ByteArrayOutputStream();
+		private final DataOutputStream      out     = new DataOutputStream(bytes);
+		private final Map<String, Integer>  indexes = new HashMap<String, Integer>();
+		private int                         count   = 1;
+
+		private int entry(String key, int tag, int first, int second, String utf8)
+		{
+			Integer index = indexes.get(key);
+			if (index != null)
+				return index;
+			try {
+				out.writeByte(tag);
+				if (utf8 != null) {
+					out.writeUTF(utf8);
+				} else if (tag == 3) {
+					out.writeInt(first);
+				} else {
+					out.writeShort(first);
+					if (second >= 0)
+						out.writeShort(second);
+				}
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			indexes.put(key, count);
+			return count++;
+		}
+
+		int utf8(String value)
+		{
+			return entry("U" + value, 1, 0, -1, value);
+		}
+
+		int integer(int value)
+		{
+			return entry("I" + value, 3, value, -1, null);
+		}
+
+		int classRef(String name)
+		{
+			return entry("C" + name, 7, utf8(name), -1, null);
+		}
+
+		int string(String value)
+		{
+			return entry("S" + value, 8, utf8(value), -1, null);
+		}
+
+		private int nameAndType(String name, String descriptor)
+		{
+			return entry("N" + name + " " + descriptor, 12, utf8(name), utf8(descriptor), null);
+		}
+
+		int field(String owner, String name, String descriptor)
+		{
+			return entry("F" + owner + "." + name + " " + descriptor, 9, classRef(owner), nameAndType(name, descriptor), null);
+		}
+
+		int method(String owner, String name, String descriptor)
+		{
+			return entry("M" + owner + "." + name + descriptor, 10, classRef(owner), nameAndType(name, descriptor), null);
+		}
+	}
+
+	/**
+	 * Generates the class for one function body, collecting the constants and
+	 * first tier nodes it refers to.
+	 */
+	private final class Generator
+	{
+		private final Lambda        lambda;
+		private final ConstantPool  pool       = new ConstantPool();
+		private final List<Symbol>  constants  = new ArrayList<Symbol>();
+		private final List<Node>    nodes      = new ArrayList<Node>();
+		private final List<Symbol[]> names     = new ArrayList<Symbol[]>();
+		private final List<int[]>   exceptions = new ArrayList<int[]>();
+		private byte[]              code       = new byte[256];
+		private int                 pc;
+		private int                 stack;
+		private int                 maxStack;
+		private int                 locals;
+		private Label               start;
+
+		Generator(Lambda lambda)
+		{
+			this.lambda = lambda;
+		}
+
+		byte[] generate(Scope scope)
+		{
+			locals = 2;
+			start = new Label();
+			mark(start);
+			expression(lambda.getCode(), scope, 1, true);
+			op(ARETURN, -1);
+			byte[] execute = method(0x0001, "execute", "(" + E + ")" + S, maxStack, locals);
+
+			pc = 0;
+			stack = maxStack = 0;
+			exceptions.clear();
+			op(ALOAD_0, 1);
+			op(ALOAD_0 + 1, 1);
+			invoke(INVOKESPEC, NODE, "<init>", "(" + S + ")V", -2);
+			for (String[] field : new String[][] { { "constants", "[" + S }, { "nodes", "[L" + NODE + ";" } }) {
+				op(ALOAD_0, 1);
+				op(ALOAD_0 + 2, 1);
+				op2(GETFIELD, pool.field(TIER, field[0], field[1]), 0);
+				op2(PUTFIELD, pool.field(CLASS_NAME, field[0], field[1]), -2);
+			}
+			op(ALOAD_0, 1);
+			op(ALOAD_0 + 2, 1);
+			op2(PUTFIELD, pool.field(CLASS_NAME, "tier", "L" + TIER + ";"), -2);
+			op(RETURN, 0);
+			byte[] init = method(0x0000, "<init>", "(" + S + "L" + TIER + ";)V", maxStack, 3);
+
+			int thisClass = pool.classRef(CLASS_NAME);
+			int superClass = pool.classRef(NODE);
+			String[][] fields = { { "tier", "L" + TIER + ";" }, { "constants", "[" + S }, { "nodes", "[L" + NODE + ";" } };
+			int[][] fieldEntries = new int[fields.length][];
+			for (int i = 0; i < fields.length; ++i)
+				fieldEntries[i] = new int[] { pool.utf8(fields[i][0]), pool.utf8(fields[i][1]) };
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (DataOutputStream out = new DataOutputStream(bytes)) {
+				out.writeInt(0xCAFEBABE);
+				out.writeShort(0);
+				out.writeShort(49);
+				out.writeShort(pool.count);
+				pool.bytes.writeTo(out);
+				out.writeShort(0x0030);
+				out.writeShort(thisClass);
+				out.writeShort(superClass);
+				out.writeShort(0);
+				out.writeShort(fields.length);
+				for (int[] field : fieldEntries) {
+					out.writeShort(0x0012);
+					out.writeShort(field[0]);
+					out.writeShort(field[1]);
+					out.writeShort(0);
+				}
+				out.writeShort(2);
+				out.write(init);
+				out.write(execute);
+				out.writeShort(0);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return bytes.toByteArray();
+		}
+
+		private byte[] method(int access, String name, String descriptor, int maxStack, int maxLocals)
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (DataOutputStream out = new DataOutputStream(bytes)) {
+				out.writeShort(access);
+				out.writeShort(pool.utf8(name));
+				out.writeShort(pool.utf8(descriptor));
+				out.writeShort(1);
+				out.writeShort(pool.utf8("Code"));
+				out.writeInt(12 + pc + 8 * exceptions.size());
+				out.writeShort(maxStack);
+				out.writeShort(maxLocals);
+				out.writeInt(pc);
+				out.write(code, 0, pc);
+				out.writeShort(exceptions.size());
+				for (int[] entry : exceptions) {
+					for (int value : entry)
+						out.writeShort(value);
+				}
+				out.writeShort(0);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			return bytes.toByteArray();
+		}
+
+		// ******************************************************
+		// Emitting
+
+		private void put(int value)
+		{
+			if (pc == code.length) {
+				if (pc >= 65535)
+					throw new CodeTooLarge();
+				byte[] grown = new byte[code.length * 2];
+				System.arraycopy(code, 0, grown, 0, pc);
+				code = grown;
+			}
+			code[pc++] = (byte) value;
+		}
+
+		private void adjust(int delta)
+		{
+			stack += delta;
+			if (stack > maxStack)
+				maxStack = stack;
+		}
+
+		private void op(int opcode, int delta)
+		{
+			put(opcode);
+			adjust(delta);
+		}
+
+		private void op1(int opcode, int operand, int delta)
+		{
+			put(opcode);
+			put(operand);
+			adjust(delta);
+		}
+
+		private void op2(int opcode, int operand, int delta)
+		{
+			put(opcode);
+			put(operand >> 8);
+			put(operand);
+			adjust(delta);
+		}
+
+		private void invoke(int opcode, String owner, String name, String descriptor, int delta)
+		{
+			op2(opcode, pool.method(owner, name, descriptor), delta);
+		}
+
+		private void pushInt(int value)
+		{
+			if (value >= -1 && value <= 5)
+				op(ICONST_0 + value, 1);
+			else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+				op1(BIPUSH, value, 1);
+			else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+				op2(SIPUSH, value, 1);
+			else
+				ldc(pool.integer(value));
+		}
+
+		private void ldc(int index)
+		{
+			if (index < 256)
+				op1(LDC, index, 1);
+			else
+				op2(LDC_W, index, 1);
+		}
+
+		private void load(int local)
+		{
+			if (local < 4)
+				op(ALOAD_0 + local, 1);
+			else
+				op1(ALOAD, local, 1);
+		}
+
+		private void store(int local)
+		{
+			if (local > 255)
+				throw new CodeTooLarge();
+			op1(ASTORE, local, -1);
+		}
+
+		private int newLocal()
+		{
+			return locals++;
+		}
+
+		private void jump(int opcode, Label label)
+		{
+			adjust(opcode == GOTO ? 0 : -1);
+			if (label.position >= 0) {
+				int offset = label.position - pc;
+				if (offset < Short.MIN_VALUE)
+					throw new CodeTooLarge();
+				op2(opcode, offset, 0);
+			} else {
+				label.jumps.add(pc);
+				op2(opcode, 0, 0);
+				label.stack = stack;
+			}
+		}
+
+		private void mark(Label label)
+		{
+			label.position = pc;
+			if (label.stack >= 0)
+				stack = label.stack;
+			label.stack = stack;
+			for (int jump : label.jumps) {
+				int offset = pc - jump;
+				if (offset > Short.MAX_VALUE)
+					throw new CodeTooLarge();
+				code[jump + 1] = (byte) (offset >> 8);
+				code[jump + 2] = (byte) offset;
+			}
+		}
+
+		private void getStatic(String owner, String name, String descriptor)
+		{
+			op2(GETSTATIC, pool.field(owner, name, descriptor), 1);
+		}
+
+		private void thisField(String name, String descriptor)
+		{
+			op(ALOAD_0, 1);
+			op2(GETFIELD, pool.field(CLASS_NAME, name, descriptor), 0);
+		}
+
+		private void tier()
+		{
+			thisField("tier", "L" + TIER + ";");
+		}
+
+		private void constant(Symbol value)
+		{
+			if (value == Symbol.NIL || value == Symbol.TRUE) {
+				getStatic(SYMBOL, value == Symbol.NIL ? "NIL" : "TRUE", S);
+				return;
+			}
+			thisField("constants", "[" + S);
+			pushInt(constants.size());
+			constants.add(value);
+			op(AALOAD, -1);
+		}
+
+		/**
+		 * Pushes TRUE when <code>opcode</code> jumps, NIL otherwise.
+		 */
+		private void bool(int opcode)
+		{
+			Label yes = new Label();
+			Label end = new Label();
+			jump(opcode, yes);
+			constant(Symbol.NIL);
+			jump(GOTO, end);
+			mark(yes);
+			constant(Symbol.TRUE);
+			mark(end);
+		}
+
+		private void isNil()
+		{
+			invoke(INVOKEVIRT, SYMBOL, "isNil", "()Z", 0);
+		}
+
+		private void helper(String name, int arity)
+		{
+			invoke(INVOKESTAT, HELPERS, name, arity == 1 ? UNARY : BINARY, 1 - arity);
+		}
+
+		/**
+		 * Runs what <code>body</code> emits under a handler that turns any
+		 * exception into an {@link EvaluationError} with <code>message</code>,
+		 * as the arithmetic builtins do.
+		 */
+		private void guarded(String message, Runnable body)
+		{
+			int from = pc;
+			body.run();
+			int to = pc;
+			Label after = new Label();
+			jump(GOTO, after);
+			int handler = pc;
+			stack = 1;
+			adjust(0);
+			op(POP, -1);
+			op2(NEW, pool.classRef(ERROR), 1);
+			op(DUP, 1);
+			ldc(pool.string(message));
+			invoke(INVOKESPEC, ERROR, "<init>", "(Ljava/lang/String;)V", -2);
+			op(ATHROW, -1);
+			exceptions.add(new int[] { from, to, handler, pool.classRef("java/lang/Exception") });
+			mark(after);
+		}
+
+		private void frame(int environment, int depth)
+		{
+			load(environment);
+			for (int i = 0; i < depth; ++i)
+				invoke(INVOKEVIRT, ENVIRONMENT, "getParent", "()" + E, 0);
+		}
+
+		/**
+		 * Leaves the value of a first tier node for <code>symbol</code> on the
+		 * stack. In tail position the node may return the tail call marker,
+		 * which the generated code returns as is.
+		 */
+		private void delegate(Symbol symbol, Scope scope, int environment, boolean tail)
+		{
+			thisField("nodes", "[L" + NODE + ";");
+			pushInt(nodes.size());
+			nodes.add(compiler.compile(symbol, scope, tail));
+			op(AALOAD, -1);
+			load(environment);
+			invoke(INVOKEVIRT, NODE, "execute", "(" + E + ")" + S, -1);
+		}
+
+		private void array(List<Symbol> elements, Scope scope, int environment)
+		{
+			pushInt(elements.size());
+			op2(ANEWARRAY, pool.classRef(SYMBOL), 0);
+			for (int i = 0; i < elements.size(); ++i) {
+				op(DUP, 1);
+				pushInt(i);
+				expression(elements.get(i), scope, environment, false);
+				op(AASTORE, -3);
+			}
+		}
+
+		private void sequence(List<Symbol> forms, Scope scope, int environment, boolean tail)
+		{
+			if (forms.isEmpty()) {
+				constant(Symbol.NIL);
+				return;
+			}
+			for (int i = 0; i < forms.size(); ++i) {
+				if (i > 0)
+					op(POP, -1);
+				expression(forms.get(i), scope, environment, tail && i == forms.size() - 1);
+			}
+		}
+
+		// ******************************************************
+		// Expressions
+
+		private void expression(Symbol symbol, Scope scope, int environment, boolean tail)
+		{
+			if (symbol.isAtom()) {
+				atom(symbol, scope, environment);
+				return;
+			}
+			Symbol function = symbol.getCar();
+			if (function.isList()) {
+				delegate(symbol, scope, environment, tail);
+				return;
+			}
+			List<Symbol> args = symbol.getCdr().getSymbolList();
+			int size = args.size();
+			int type = function.getType();
+			switch (type) {
+			case Token.QUOTE:
+				if (size != 1)
+					break;
+				constant(args.get(0));
+				return;
+			case Token.LISTP:
+				if (size != 1)
+					break;
+				constant(args.get(0).isList() ? Symbol.TRUE : Symbol.NIL);
+				return;
+			case Token.EVAL:
+				if (size != 1)
+					break;
+				expression(args.get(0), scope, environment, tail);
+				return;
+			case Token.BLOCK:
+				sequence(args, scope, environment, tail);
+				return;
+			case Token.IF: {
+				if (size != 3)
+					break;
+				Label ifFalse = new Label();
+				Label end = new Label();
+				expression(args.get(0), scope, environment, false);
+				isNil();
+				jump(IFNE, ifFalse);
+				expression(args.get(1), scope, environment, tail);
+				jump(GOTO, end);
+				mark(ifFalse);
+				expression(args.get(2), scope, environment, tail);
+				mark(end);
+				return;
+			}
+			case Token.COND:
+				if (!cond(symbol, args, scope, environment, tail))
+					break;
+				return;
+			case Token.AND: {
+				Label end = new Label();
+				for (Symbol arg : args) {
+					expression(arg, scope, environment, false);
+					op(DUP, 1);
+					isNil();
+					jump(IFNE, end);
+					op(POP, -1);
+				}
+				constant(Symbol.TRUE);
+				mark(end);
+				return;
+			}
+			case Token.OR: {
+				Label yes = new Label();
+				Label end = new Label();
+				for (Symbol arg : args) {
+					expression(arg, scope, environment, false);
+					isNil();
+					jump(IFEQ, yes);
+				}
+				constant(Symbol.NIL);
+				jump(GOTO, end);
+				mark(yes);
+				constant(Symbol.TRUE);
+				mark(end);
+				return;
+			}
+			case Token.NOT:
+				if (size != 1)
+					break;
+				expression(args.get(0), scope, environment, false);
+				isNil();
+				bool(IFNE);
+				return;
+			case Token.PLUS:
+			case Token.TIMES:
+				guarded(type == Token.PLUS ? "Invalid expression " + symbol : "processTimes(): " + symbol, () -> {
+					getStatic(NUMBERS, type == Token.PLUS ? "ZERO" : "ONE", S);
+					for (Symbol arg : args) {
+						expression(arg, scope, environment, false);
+						invoke(INVOKESTAT, NUMBERS, type == Token.PLUS ? "add" : "multiply", BINARY, -1);
+					}
+				});
+				return;
+			case Token.MINUS:
+				if (size != 1 && size != 2)
+					break;
+				guarded("processMinus(): " + symbol, () -> {
+					for (Symbol arg : args)
+						expression(arg, scope, environment, false);
+					invoke(INVOKESTAT, NUMBERS, size == 1 ? "negate" : "subtract", size == 1 ? UNARY : BINARY, 1 - size);
+				});
+				return;
+			case Token.DIV:
+				if (size != 2)
+					break;
+				guarded("processDiv() error: " + symbol, () -> {
+					expression(args.get(0), scope, environment, false);
+					expression(args.get(1), scope, environment, false);
+					invoke(INVOKESTAT, NUMBERS, "divide", BINARY, -1);
+				});
+				return;
+			case Token.MOD:
+				if (size != 2)
+					break;
+				expression(args.get(0), scope, environment, false);
+				expression(args.get(1), scope, environment, false);
+				guarded("processModule(): " + symbol, () -> invoke(INVOKESTAT, NUMBERS, "mod", BINARY, -1));
+				return;
+			case Token.LT:
+			case Token.GT:
+			case Token.LE:
+			case Token.GE:
+				if (size != 2)
+					break;
+				expression(args.get(0), scope, environment, false);
+				expression(args.get(1), scope, environment, false);
+				invoke(INVOKESTAT, INTERPRETER, "compare", "(" + S + S + ")I", -1);
+				bool(type == Token.LT ? IFLT : type == Token.GT ? IFGT : type == Token.LE ? IFLE : IFGE);
+				return;
+			case Token.EQUAL:
+				if (size != 2)
+					break;
+				expression(args.get(0), scope, environment, false);
+				expression(args.get(1), scope, environment, false);
+				invoke(INVOKEVIRT, SYMBOL, "equals", "(Ljava/lang/Object;)Z", -1);
+				bool(IFNE);
+				return;
+			case Token.CAR:
+			case Token.CDR:
+			case Token.CADR:
+			case Token.CADDR:
+			case Token.COUNT:
+			case Token.REVERSE:
+			case Token.ATOMP:
+			case Token.NUMBERP:
+			case Token.STRINGP:
+				if (size != 1)
+					break;
+				expression(args.get(0), scope, environment, false);
+				helper(unaryHelper(type), 1);
+				return;
+			case Token.PUSH:
+			case Token.MEMBERP:
+				if (size != 2)
+					break;
+				expression(args.get(0), scope, environment, false);
+				expression(args.get(1), scope, environment, false);
+				helper(type == Token.PUSH ? "push" : "memberp", 2);
+				return;
+			case Token.LET:
+				if (!let(args, scope, environment, tail))
+					break;
+				return;
+			case Token.SETQ:
+				if (size != 2 || !args.get(0).isId())
+					break;
+				setq(args.get(0), args.get(1), scope, environment);
+				return;
+			case Token.WHILE:
+				if (size != 2 || !args.get(1).isList())
+					break;
+				loop(args.get(0), args.get(1).getSymbolList(), scope, environment);
+				return;
+			case Token.ID:
+				Symbol name = lambda.getName();
+				if (name == null || !Symbol.sameName(function, name) || size != lambda.getVariables().length)
+					break;
+				selfCall(symbol, args, scope, environment, tail && stack == 0);
+				return;
+			}
+			delegate(symbol, scope, environment, tail);
+		}
+
+		private String unaryHelper(int type)
+		{
+			switch (type) {
+			case Token.CAR:
+				return "car";
+			case Token.COUNT:
+				return "count";
+			case Token.REVERSE:
+				return "reverse";
+			case Token.ATOMP:
+				return "atomp";
+			case Token.NUMBERP:
+				return "numberp";
+			case Token.STRINGP:
+				return "stringp";
+			default:
+				return "cdr";
+			}
+		}
+
+		private void atom(Symbol symbol, Scope scope, int environment)
+		{
+			switch (symbol.getType()) {
+			case Token.FALSE:
+				constant(Symbol.NIL);
+				return;
+			case Token.ID:
+				int[] local = scope == null ? null : scope.lookup(symbol);
+				if (local == null) {
+					delegate(symbol, scope, environment, false);
+					return;
+				}
+				frame(environment, local[0]);
+				pushInt(local[1]);
+				invoke(INVOKEVIRT, ENVIRONMENT, "get", "(I)" + S, -1);
+				return;
+			case Token.EXIT:
+			case Token.QUIT:
+				delegate(symbol, scope, environment, false);
+				return;
+			default:
+				constant(symbol);
+			}
+		}
+
+		private boolean cond(Symbol symbol, List<Symbol> args, Scope scope, int environment, boolean tail)
+		{
+			if (args.size() != 1 || !args.get(0).isList())
+				return false;
+			List<Symbol> cases = args.get(0).getSymbolList();
+			for (Symbol condCase : cases) {
+				if (!condCase.isList() || condCase.getLength() != 2)
+					return false;
+			}
+			Label end = new Label();
+			for (Symbol condCase : cases) {
+				Label next = new Label();
+				expression(condCase.getCar(), scope, environment, false);
+				isNil();
+				jump(IFNE, next);
+				expression(condCase.getCdr().getCar(), scope, environment, tail);
+				jump(GOTO, end);
+				mark(next);
+			}
+			constant(Symbol.NIL);
+			mark(end);
+			return true;
+		}
+
+		private boolean let(List<Symbol> args, Scope scope, int environment, boolean tail)
+		{
+			if (args.size() != 2 || !args.get(0).isList() || !args.get(1).isList())
+				return false;
+			List<Symbol> assoc = args.get(0).getSymbolList();
+			Symbol code = args.get(1);
+			if (assoc.isEmpty()) {
+				expression(code, scope, environment, tail);
+				return true;
+			}
+			Symbol[] variables = new Symbol[assoc.size()];
+			List<Symbol> values = new ArrayList<Symbol>();
+			for (int i = 0; i < variables.length; ++i) {
+				Symbol pair = assoc.get(i);
+				if (!pair.isList() || pair.getLength() != 2 || !pair.getCar().isId())
+					return false;
+				variables[i] = pair.getCar();
+				values.add(pair.getCdr().getCar());
+			}
+			array(values, scope, environment);
+			int array = newLocal();
+			store(array);
+			op2(NEW, pool.classRef(ENVIRONMENT), 1);
+			op(DUP, 1);
+			thisField("tier", "L" + TIER + ";");
+			op2(GETFIELD, pool.field(TIER, "names", "[[" + S), 0);
+			pushInt(names.size());
+			names.add(variables);
+			op(AALOAD, -1);
+			load(array);
+			load(environment);
+			invoke(INVOKESPEC, ENVIRONMENT, "<init>", "([" + S + "[" + S + E + ")V", -4);
+			int frame = newLocal();
+			store(frame);
+			sequence(code.getSymbolList(), new Scope(variables, scope), frame, tail);
+			return true;
+		}
+
+		private void setq(Symbol id, Symbol value, Scope scope, int environment)
+		{
+			expression(value, scope, environment, false);
+			op(DUP, 1);
+			int[] local = scope == null ? null : scope.lookup(id);
+			if (local == null) {
+				tier();
+				op(SWAP, 0);
+				ldc(pool.string(id.getCode()));
+				invoke(INVOKEVIRT, TIER, "setGlobal", "(" + S + "Ljava/lang/String;)V", -3);
+				return;
+			}
+			int temporary = newLocal();
+			store(temporary);
+			frame(environment, local[0]);
+			pushInt(local[1]);
+			load(temporary);
+			invoke(INVOKEVIRT, ENVIRONMENT, "set", "(I" + S + ")V", -3);
+		}
+
+		private void loop(Symbol condition, List<Symbol> body, Scope scope, int environment)
+		{
+			int last = newLocal();
+			constant(Symbol.NIL);
+			store(last);
+			Label top = new Label();
+			Label exit = new Label();
+			mark(top);
+			expression(condition, scope, environment, false);
+			isNil();
+			jump(IFNE, exit);
+			for (Symbol form : body) {
+				expression(form, scope, environment, false);
+				store(last);
+			}
+			jump(GOTO, top);
+			mark(exit);
+			load(last);
+		}
+
+		private void selfCall(Symbol symbol, List<Symbol> args, Scope scope, int environment, boolean tail)
+		{
+			Label slow = new Label();
+			Label end = new Label();
+			tier();
+			invoke(INVOKEVIRT, TIER, "isCurrent", "()Z", 0);
+			jump(IFEQ, slow);
+			tier();
+			array(args, scope, environment);
+			if (tail) {
+				invoke(INVOKEVIRT, TIER, "bind", "([" + S + ")" + E, -1);
+				store(1);
+				jump(GOTO, start);
+			} else {
+				invoke(INVOKEVIRT, TIER, "call", "([" + S + ")" + S, -1);
+				jump(GOTO, end);
+			}
+			mark(slow);
+			delegate(symbol, scope, environment, tail);
+			mark(end);
+		}
+	}
+
+	// ******************************************************
+	// Builtins called by the generated code
+
+	private static void checkList(Symbol list)
+	{
+		if (!list.isList())
+			throw new EvaluationError(list + " is not a list");
+	}
+
+	static Symbol car(Symbol list)
+	{
+		list = list.realize();
+		checkList(list);
+		return list.getCar();
+	}
+
+	static Symbol cdr(Symbol list)
+	{
+		list = list.realize();
+		checkList(list);
+		return list.getCdr();
+	}
+
+	static Symbol count(Symbol list)
+	{
+		list = list.realize();
+		if (list.isVector() || list.isTable())
+			return Symbol.number(list.getSize());
+		checkList(list);
+		return Symbol.number(list.getLength());
+	}
+
+	static Symbol reverse(Symbol list)
+	{
+		checkList(list);
+		return Symbol.reverse(list);
+	}
+
+	static Symbol push(Symbol element, Symbol list)
+	{
+		checkList(list);
+		return Symbol.push(element, list);
+	}
+
+	static Symbol memberp(Symbol element, Symbol list)
+	{
+		checkList(list);
+		return Symbol.memberP(element, list);
+	}
+
+	static Symbol atomp(Symbol symbol)
+	{
+		return symbol.isAtom() ? Symbol.TRUE : Symbol.NIL;
+	}
+
+	static Symbol numberp(Symbol symbol)
+	{
+		return symbol.isNumber() ? Symbol.TRUE : Symbol.NIL;
+	}
+
+	static Symbol stringp(Symbol symbol)
+	{
+		return symbol.getType() == Token.STRING ? Symbol.TRUE : Symbol.NIL;
+	}
+}
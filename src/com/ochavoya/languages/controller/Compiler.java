@@ -0,0 +1,1055 @@
+package com.ochavoya.languages.controller;
+
+import java.io.PrintStream;
+import java.util.List;
+
+import com.ochavoya.languages.model.Environment;
+import com.ochavoya.languages.model.Lambda;
+import com.ochavoya.languages.model.Node;
+import com.ochavoya.languages.model.Symbol;
+import com.ochavoya.languages.model.Token;
+
+/**
+ * Turns a parsed {@link Symbol} tree into a tree of {@link Node}s once, so that
+ * re-running it does not go through the <code>predefined</code> dispatch table
+ * or rebuild argument lists. Forms the compiler does not know, or whose shape
+ * does not match what the builtin expects, are left to the tree-walker, which
+ * sees the same {@link Environment} frames, so that both modes report the same
+ * errors.
+ */
+class Compiler
+{
+	private final Interpreter      interpreter;
+	private final BytecodeCompiler bytecode;
+
+	Compiler(Interpreter interpreter)
+	{
+		this.interpreter = interpreter;
+		this.bytecode = new BytecodeCompiler(interpreter, this);
+	}
+
+	/**
+	 * Compile-time view of an {@link Environment}: the names bound by a frame
+	 * and the frame that encloses it.
+	 */
+	static final class Scope
+	{
+		private final Symbol[] names;
+		private final Scope    parent;
+
+		Scope(Symbol[] names, Scope parent)
+		{
+			this.names = names;
+			this.parent = parent;
+		}
+
+		/**
+		 * @return the depth of the frame that binds <code>name</code> and its
+		 *         index in that frame, or null when <code>name</code> is global
+		 */
+		int[] lookup(Symbol name)
+		{
+			int depth = 0;
+			for (Scope s = this; s != null; s = s.parent, ++depth) {
+				for (int i = 0; i < s.names.length; ++i) {
+					if (Symbol.sameName(s.names[i], name))
+						return new int[] { depth, i };
+				}
+			}
+			return null;
+		}
+	}
+
+	private Lambda      tailLambda;
+	private Environment tailFrame;
+
+	/**
+	 * Returned by a call in tail position after it has bound its arguments;
+	 * {@link #execute(Lambda, Environment)} then runs the callee in place of
+	 * the caller, so tail calls run in constant Java stack.
+	 */
+	private static final Symbol TAIL_CALL = new Symbol();
+
+	public Node compile(Symbol symbol, Scope scope)
+	{
+		return compile(symbol, scope, false);
+	}
+
+	/**
+	 * @param tail
+	 *            true when the value of <code>symbol</code> is the value of the
+	 *            function body being compiled
+	 */
+	Node compile(Symbol symbol, Scope scope, boolean tail)
+	{
+		if (symbol.isAtom())
+			return compileAtom(symbol, scope);
+
+		Symbol function = symbol.getCar();
+		if (function.isList())
+			return new Fallback(symbol);
+
+		List<Symbol> args = symbol.getCdr().getSymbolList();
+		int size = args.size();
+
+		switch (function.getType()) {
+		case Token.AND:
+			return new And(symbol, compileAll(args, scope));
+		case Token.ATOMP:
+			if (size != 1)
+				break;
+			return new TypeTest(symbol, compile(args.get(0), scope), Token.ATOMP);
+		case Token.BLOCK:
+			return new Block(symbol, compileSequence(args, scope, tail));
+		case Token.CADDR:
+		case Token.CADR:
+		case Token.CDR:
+			if (size != 1)
+				break;
+			return new Cdr(symbol, compile(args.get(0), scope));
+		case Token.CAR:
+			if (size != 1)
+				break;
+			return new Car(symbol, compile(args.get(0), scope));
+		case Token.COND:
+			return compileCond(symbol, args, scope, tail);
+		case Token.COUNT:
+			if (size != 1)
+				break;
+			return new Count(symbol, compile(args.get(0), scope));
+		case Token.DIV:
+		case Token.MOD:
+			if (size != 2)
+				break;
+			return new Arithmetic(symbol, compileAll(args, scope), function.getType());
+		case Token.DO:
+			if (size != 2 || !args.get(0).isList())
+				break;
+			return new Do(symbol, compileAll(args.get(0).getSymbolList(), scope), compile(args.get(1), scope));
+		case Token.EQUAL:
+			if (size != 2)
+				break;
+			return new Equal(symbol, compile(args.get(0), scope), compile(args.get(1), scope));
+		case Token.EVAL:
+			if (size != 1)
+				break;
+			return compile(args.get(0), scope, tail);
+		case Token.FOR:
+			return compileFor(symbol, args, scope);
+		case Token.GE:
+		case Token.GT:
+		case Token.LE:
+		case Token.LT:
+			if (size != 2)
+				break;
+			return new Compare(symbol, compile(args.get(0), scope), compile(args.get(1), scope), function.getType());
+		case Token.ID:
+			return new Call(symbol, function.getCode(), compileAll(args, scope), tail);
+		case Token.IF:
+			if (size != 3)
+				break;
+			return new If(symbol, compile(args.get(0), scope), compile(args.get(1), scope, tail), compile(args.get(2), scope, tail));
+		case Token.LET:
+			return compileLet(symbol, args, scope, tail);
+		case Token.LISTP:
+			if (size != 1)
+				break;
+			return new Constant(symbol, args.get(0).isList() ? Symbol.TRUE : Symbol.NIL);
+		case Token.MEMBERP:
+			if (size != 2)
+				break;
+			return new Memberp(symbol, compile(args.get(0), scope), compile(args.get(1), scope));
+		case Token.MINUS:
+			if (size != 1 && size != 2)
+				break;
+			return new Arithmetic(symbol, compileAll(args, scope), Token.MINUS);
+		case Token.NOT:
+			if (size != 1)
+				break;
+			return new Not(symbol, compile(args.get(0), scope));
+		case Token.NUMBER:
+		case Token.STRING:
+		case Token.VECTOR_VALUE:
+		case Token.TABLE_VALUE:
+		case Token.SET_VALUE:
+			return new ListOf(symbol, compileAll(symbol.getSymbolList(), scope));
+		case Token.NUMBERP:
+			if (size != 1)
+				break;
+			return new TypeTest(symbol, compile(args.get(0), scope), Token.NUMBERP);
+		case Token.OR:
+			return new Or(symbol, compileAll(args, scope));
+		case Token.PLUS:
+		case Token.TIMES:
+			return new Arithmetic(symbol, compileAll(args, scope), function.getType());
+		case Token.PUSH:
+			if (size != 2)
+				break;
+			return new Push(symbol, compile(args.get(0), scope), compile(args.get(1), scope));
+		case Token.QUOTE:
+			if (size != 1)
+				break;
+			return new Constant(symbol, args.get(0));
+		case Token.REVERSE:
+			if (size != 1)
+				break;
+			return new Reverse(symbol, compile(args.get(0), scope));
+		case Token.SETQ:
+			return compileSetq(symbol, args, scope);
+		case Token.STRINGP:
+			if (size != 1)
+				break;
+			return new TypeTest(symbol, compile(args.get(0), scope), Token.STRINGP);
+		case Token.WHILE:
+			if (size != 2 || !args.get(1).isList())
+				break;
+			return new While(symbol, compile(args.get(0), scope), compileAll(args.get(1).getSymbolList(), scope));
+		case Token.WRITE:
+			return new Write(symbol, compileAll(args, scope));
+		}
+		return new Fallback(symbol);
+	}
+
+	private Node[] compileAll(List<Symbol> symbols, Scope scope)
+	{
+		Node[] nodes = new Node[symbols.size()];
+		for (int i = 0; i < nodes.length; ++i)
+			nodes[i] = compile(symbols.get(i), scope);
+		return nodes;
+	}
+
+	private Node[] compileSequence(List<Symbol> symbols, Scope scope, boolean tail)
+	{
+		Node[] nodes = new Node[symbols.size()];
+		for (int i = 0; i < nodes.length; ++i)
+			nodes[i] = compile(symbols.get(i), scope, tail && i == nodes.length - 1);
+		return nodes;
+	}
+
+	private Node compileAtom(Symbol symbol, Scope scope)
+	{
+		switch (symbol.getType()) {
+		case Token.NUMBER:
+		case Token.STRING:
+			return new Constant(symbol, symbol);
+		case Token.FALSE:
+			return new Constant(symbol, Symbol.NIL);
+		case Token.ID:
+			int[] local = scope == null ? null : scope.lookup(symbol);
+			if (local != null)
+				return new Local(symbol, local[0], local[1]);
+			return new Global(symbol);
+		case Token.EXIT:
+		case Token.QUIT:
+			return new Fallback(symbol);
+		default:
+			return new Constant(symbol, symbol);
+		}
+	}
+
+	private Node compileCond(Symbol symbol, List<Symbol> args, Scope scope, boolean tail)
+	{
+		if (args.size() != 1 || !args.get(0).isList())
+			return new Fallback(symbol);
+		List<Symbol> cases = args.get(0).getSymbolList();
+		Node[] tests = new Node[cases.size()];
+		Node[] branches = new Node[cases.size()];
+		for (int i = 0; i < tests.length; ++i) {
+			Symbol condCase = cases.get(i);
+			if (!condCase.isList() || condCase.getLength() != 2)
+				return new Fallback(symbol);
+			tests[i] = compile(condCase.getCar(), scope);
+			branches[i] = compile(condCase.getCdr().getCar(), scope, tail);
+		}
+		return new Cond(symbol, tests, branches);
+	}
+
+	private Node compileFor(Symbol symbol, List<Symbol> args, Scope scope)
+	{
+		if (args.size() != 2)
+			return new Fallback(symbol);
+		Symbol first = args.get(0);
+		Symbol second = args.get(1);
+		if (!(first.isList() && first.getLength() == 3) || !second.isList())
+			return new Fallback(symbol);
+		Node[] header = compileAll(first.getSymbolList(), scope);
+		return new For(symbol, header[0], header[1], header[2], compileAll(second.getSymbolList(), scope));
+	}
+
+	private Node compileLet(Symbol symbol, List<Symbol> args, Scope scope, boolean tail)
+	{
+		if (args.size() != 2 || !args.get(0).isList() || !args.get(1).isList())
+			return new Fallback(symbol);
+		List<Symbol> assoc = args.get(0).getSymbolList();
+		Symbol code = args.get(1);
+		if (assoc.size() == 0)
+			return compile(code, scope, tail);
+		Symbol[] names = new Symbol[assoc.size()];
+		Node[] values = new Node[assoc.size()];
+		for (int i = 0; i < names.length; ++i) {
+			Symbol pair = assoc.get(i);
+			if (!pair.isList() || pair.getLength() != 2 || !pair.getCar().isId())
+				return new Fallback(symbol);
+			names[i] = pair.getCar();
+			values[i] = compile(pair.getCdr().getCar(), scope);
+		}
+		return new Let(symbol, names, values, compileSequence(code.getSymbolList(), new Scope(names, scope), tail));
+	}
+
+	private Node compileSetq(Symbol symbol, List<Symbol> args, Scope scope)
+	{
+		if (args.size() != 2 || !args.get(0).isId())
+			return new Fallback(symbol);
+		Node target = compileAtom(args.get(0), scope);
+		Node value = compile(args.get(1), scope);
+		if (target instanceof Local) {
+			Local local = (Local) target;
+			return new SetLocal(symbol, local.depth, local.index, value);
+		}
+		return new SetGlobal(symbol, args.get(0).getCode(), value);
+	}
+
+	/**
+	 * Runs the body of <code>lambda</code> in <code>frame</code>, compiling it
+	 * the first time it is needed, and again to bytecode once the function is
+	 * hot. The frame's parents are the function's closure, so they give the
+	 * shape of the scope the body is compiled in.
+	 */
+	Symbol execute(Lambda lambda, Environment frame)
+	{
+		while (true) {
+			Node body = lambda.getBody();
+			if (body == null) {
+				body = compile(lambda.getCode(), scopeOf(frame), true);
+				lambda.setBody(body);
+			}
+			if (!lambda.isTiered() && interpreter.isHot(lambda) && lambda.getMemo() == null && !body.getSource().isNil()) {
+				lambda.setTiered(true);
+				Node tiered = bytecode.compile(lambda, scopeOf(frame));
+				if (tiered != null)
+					lambda.setBody(body = tiered);
+			}
+			if (body.getSource().isNil())
+				return Symbol.NIL;
+			Symbol value = body.execute(frame);
+			if (value != TAIL_CALL)
+				return value;
+			lambda = tailLambda;
+			frame = tailFrame;
+		}
+	}
+
+	static Scope scopeOf(Environment environment)
+	{
+		if (environment == null)
+			return null;
+		return new Scope(environment.getNames(), scopeOf(environment.getParent()));
+	}
+
+	private static Symbol bool(boolean value)
+	{
+		return value ? Symbol.TRUE : Symbol.NIL;
+	}
+
+	private static Symbol[] executeAll(Node[] nodes, Environment environment)
+	{
+		Symbol[] values = new Symbol[nodes.length];
+		for (int i = 0; i < nodes.length; ++i)
+			values[i] = nodes[i].execute(environment);
+		return values;
+	}
+
+	private static Symbol executeSequence(Node[] nodes, Environment environment)
+	{
+		Symbol value = Symbol.NIL;
+		for (Node node : nodes)
+			value = node.execute(environment);
+		return value;
+	}
+
+	private static void checkList(Symbol list)
+	{
+		if (!list.isList())
+			throw new EvaluationError(list + " is not a list");
+	}
+
+	// ******************************************************
+
+	private static final class Constant extends Node
+	{
+		private final Symbol value;
+
+		Constant(Symbol source, Symbol value)
+		{
+			super(source);
+			this.value = value;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			return value;
+		}
+	}
+
+	private static final class Local extends Node
+	{
+		private final int depth;
+		private final int index;
+
+		Local(Symbol source, int depth, int index)
+		{
+			super(source);
+			this.depth = depth;
+			this.index = index;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			return environment.up(depth).get(index);
+		}
+	}
+
+	private final class Global extends Node
+	{
+		Global(Symbol source)
+		{
+			super(source);
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			return interpreter.evalAtom(source);
+		}
+	}
+
+	private static final class SetLocal extends Node
+	{
+		private final int  depth;
+		private final int  index;
+		private final Node value;
+
+		SetLocal(Symbol source, int depth, int index, Node value)
+		{
+			super(source);
+			this.depth = depth;
+			this.index = index;
+			this.value = value;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			Symbol result = value.execute(environment);
+			environment.up(depth).set(index, result);
+			return result;
+		}
+	}
+
+	private final class SetGlobal extends Node
+	{
+		private final String name;
+		private final Node   value;
+
+		SetGlobal(Symbol source, String name, Node value)
+		{
+			super(source);
+			this.name = name;
+			this.value = value;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			Symbol result = value.execute(environment);
+			interpreter.setGlobal(name, result);
+			return result;
+		}
+	}
+
+	private static final class Let extends Node
+	{
+		private final Symbol[] names;
+		private final Node[]   values;
+		private final Node[]   body;
+
+		Let(Symbol source, Symbol[] names, Node[] values, Node[] body)
+		{
+			super(source);
+			this.names = names;
+			this.values = values;
+			this.body = body;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			Environment frame = new Environment(names, executeAll(values, environment), environment);
+			return executeSequence(body, frame);
+		}
+	}
+
+	private final class Call extends Node
+	{
+		private final String  name;
+		private final Node[]  args;
+		private final boolean tail;
+		private Lambda        lambda;
+		private int           version = -1;
+
+		Call(Symbol source, String name, Node[] args, boolean tail)
+		{
+			super(source);
+			this.name = name;
+			this.args = args;
+			this.tail = tail;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			int definitions = interpreter.getDefinitions();
+			if (version != definitions) {
+				lambda = interpreter.getFunction(name);
+				version = definitions;
+			}
+			if (lambda == null) {
+				throw new EvaluationError(source.getCar() + " is not defined");
+			}
+			Symbol[] values = executeAll(args, environment);
+			if (tail && lambda.getMemo() == null) {
+				tailFrame = interpreter.bind(source.getCar(), lambda, values);
+				tailLambda = lambda;
+				return TAIL_CALL;
+			}
+			return interpreter.invoke(source.getCar(), lambda, values);
+		}
+	}
+
+	private final class Fallback extends Node
+	{
+		Fallback(Symbol source)
+		{
+			super(source);
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			return interpreter.eval(source, environment);
+		}
+	}
+
+	private static final class Block extends Node
+	{
+		private final Node[] body;
+
+		Block(Symbol source, Node[] body)
+		{
+			super(source);
+			this.body = body;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			return executeSequence(body, environment);
+		}
+	}
+
+	private static final class Cond extends Node
+	{
+		private final Node[] tests;
+		private final Node[] branches;
+
+		Cond(Symbol source, Node[] tests, Node[] branches)
+		{
+			super(source);
+			this.tests = tests;
+			this.branches = branches;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			for (int i = 0; i < tests.length; ++i) {
+				if (!tests[i].execute(environment).isNil())
+					return branches[i].execute(environment);
+			}
+			return Symbol.NIL;
+		}
+	}
+
+	private static final class If extends Node
+	{
+		private final Node condition;
+		private final Node ifTrue;
+		private final Node ifFalse;
+
+		If(Symbol source, Node condition, Node ifTrue, Node ifFalse)
+		{
+			super(source);
+			this.condition = condition;
+			this.ifTrue = ifTrue;
+			this.ifFalse = ifFalse;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			if (condition.execute(environment).isNil())
+				return ifFalse.execute(environment);
+			return ifTrue.execute(environment);
+		}
+	}
+
+	private static final class While extends Node
+	{
+		private final Node   condition;
+		private final Node[] body;
+
+		While(Symbol source, Node condition, Node[] body)
+		{
+			super(source);
+			this.condition = condition;
+			this.body = body;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			Symbol value = Symbol.NIL;
+			while (!condition.execute(environment).isNil()) {
+				for (Node node : body)
+					value = node.execute(environment);
+			}
+			return value;
+		}
+	}
+
+	private static final class For extends Node
+	{
+		private final Node   prepare;
+		private final Node   condition;
+		private final Node   update;
+		private final Node[] body;
+
+		For(Symbol source, Node prepare, Node condition, Node update, Node[] body)
+		{
+			super(source);
+			this.prepare = prepare;
+			this.condition = condition;
+			this.update = update;
+			this.body = body;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			prepare.execute(environment);
+			Symbol value = Symbol.NIL;
+			while (!condition.execute(environment).isNil()) {
+				for (Node node : body)
+					value = node.execute(environment);
+				update.execute(environment);
+			}
+			return value;
+		}
+	}
+
+	private static final class Do extends Node
+	{
+		private final Node[] body;
+		private final Node   condition;
+
+		Do(Symbol source, Node[] body, Node condition)
+		{
+			super(source);
+			this.body = body;
+			this.condition = condition;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			Symbol value = Symbol.NIL;
+			do {
+				for (Node node : body)
+					value = node.execute(environment);
+			} while (!condition.execute(environment).isNil());
+			return value;
+		}
+	}
+
+	private static final class And extends Node
+	{
+		private final Node[] args;
+
+		And(Symbol source, Node[] args)
+		{
+			super(source);
+			this.args = args;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			for (Node node : args) {
+				Symbol value = node.execute(environment);
+				if (value.isNil())
+					return value;
+			}
+			return Symbol.TRUE;
+		}
+	}
+
+	private static final class Or extends Node
+	{
+		private final Node[] args;
+
+		Or(Symbol source, Node[] args)
+		{
+			super(source);
+			this.args = args;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			for (Node node : args) {
+				if (!node.execute(environment).isNil())
+					return Symbol.TRUE;
+			}
+			return Symbol.NIL;
+		}
+	}
+
+	private static final class Not extends Node
+	{
+		private final Node arg;
+
+		Not(Symbol source, Node arg)
+		{
+			super(source);
+			this.arg = arg;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			return bool(arg.execute(environment).isNil());
+		}
+	}
+
+	private static final class Arithmetic extends Node
+	{
+		private final Node[] args;
+		private final int    operation;
+
+		Arithmetic(Symbol source, Node[] args, int operation)
+		{
+			super(source);
+			this.args = args;
+			this.operation = operation;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			if (operation == Token.MOD) {
+				// MOD evaluates its arguments before guarding its own failure
+				Symbol first = args[0].execute(environment);
+				Symbol second = args[1].execute(environment);
+				try {
+					return Numbers.mod(first, second);
+				} catch (Exception e) {
+					throw new EvaluationError(errorMessage());
+				}
+			}
+			try {
+				switch (operation) {
+				case Token.PLUS: {
+					Symbol value = Numbers.ZERO;
+					for (Node node : args)
+						value = Numbers.add(value, node.execute(environment));
+					return value;
+				}
+				case Token.TIMES: {
+					Symbol value = Numbers.ONE;
+					for (Node node : args)
+						value = Numbers.multiply(value, node.execute(environment));
+					return value;
+				}
+				case Token.MINUS:
+					if (args.length == 1)
+						return Numbers.negate(args[0].execute(environment));
+					return Numbers.subtract(args[0].execute(environment), args[1].execute(environment));
+				default:
+					return Numbers.divide(args[0].execute(environment), args[1].execute(environment));
+				}
+			} catch (Exception e) {
+				throw new EvaluationError(errorMessage());
+			}
+		}
+
+		private String errorMessage()
+		{
+			switch (operation) {
+			case Token.PLUS:
+				return "Invalid expression " + source;
+			case Token.TIMES:
+				return "processTimes(): " + source;
+			case Token.MINUS:
+				return "processMinus(): " + source;
+			case Token.DIV:
+				return "processDiv() error: " + source;
+			default:
+				return "processModule(): " + source;
+			}
+		}
+	}
+
+	private static final class Compare extends Node
+	{
+		private final Node first;
+		private final Node second;
+		private final int  operation;
+
+		Compare(Symbol source, Node first, Node second, int operation)
+		{
+			super(source);
+			this.first = first;
+			this.second = second;
+			this.operation = operation;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			int comparatorValue = Interpreter.compare(first.execute(environment), second.execute(environment));
+			switch (operation) {
+			case Token.LT:
+				return bool(comparatorValue < 0);
+			case Token.GT:
+				return bool(comparatorValue > 0);
+			case Token.LE:
+				return bool(comparatorValue <= 0);
+			default:
+				return bool(comparatorValue >= 0);
+			}
+		}
+	}
+
+	private static final class Equal extends Node
+	{
+		private final Node first;
+		private final Node second;
+
+		Equal(Symbol source, Node first, Node second)
+		{
+			super(source);
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			return bool(first.execute(environment).equals(second.execute(environment)));
+		}
+	}
+
+	private static final class TypeTest extends Node
+	{
+		private final Node arg;
+		private final int  test;
+
+		TypeTest(Symbol source, Node arg, int test)
+		{
+			super(source);
+			this.arg = arg;
+			this.test = test;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			Symbol value = arg.execute(environment);
+			switch (test) {
+			case Token.ATOMP:
+				return bool(value.isAtom());
+			case Token.NUMBERP:
+				return bool(value.isNumber());
+			default:
+				return bool(value.isString());
+			}
+		}
+	}
+
+	private static final class Car extends Node
+	{
+		private final Node arg;
+
+		Car(Symbol source, Node arg)
+		{
+			super(source);
+			this.arg = arg;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			Symbol value = arg.execute(environment).realize();
+			checkList(value);
+			return value.getCar();
+		}
+	}
+
+	private static final class Cdr extends Node
+	{
+		private final Node arg;
+
+		Cdr(Symbol source, Node arg)
+		{
+			super(source);
+			this.arg = arg;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			Symbol value = arg.execute(environment).realize();
+			checkList(value);
+			return value.getCdr();
+		}
+	}
+
+	private static final class Count extends Node
+	{
+		private final Node arg;
+
+		Count(Symbol source, Node arg)
+		{
+			super(source);
+			this.arg = arg;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			Symbol value = arg.execute(environment).realize();
+			if (value.isVector() || value.isTable())
+				return Symbol.number(value.getSize());
+			checkList(value);
+			return Symbol.number(value.getLength());
+		}
+	}
+
+	private static final class Reverse extends Node
+	{
+		private final Node arg;
+
+		Reverse(Symbol source, Node arg)
+		{
+			super(source);
+			this.arg = arg;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			Symbol value = arg.execute(environment);
+			checkList(value);
+			return Symbol.reverse(value);
+		}
+	}
+
+	private static final class Push extends Node
+	{
+		private final Node first;
+		private final Node second;
+
+		Push(Symbol source, Node first, Node second)
+		{
+			super(source);
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			Symbol car = first.execute(environment);
+			Symbol cdr = second.execute(environment);
+			checkList(cdr);
+			return Symbol.push(car, cdr);
+		}
+	}
+
+	private static final class Memberp extends Node
+	{
+		private final Node first;
+		private final Node second;
+
+		Memberp(Symbol source, Node first, Node second)
+		{
+			super(source);
+			this.first = first;
+			this.second = second;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			Symbol symbol = first.execute(environment);
+			Symbol list = second.execute(environment);
+			checkList(list);
+			return Symbol.memberP(symbol, list);
+		}
+	}
+
+	private static final class ListOf extends Node
+	{
+		private final Node[] elements;
+
+		ListOf(Symbol source, Node[] elements)
+		{
+			super(source);
+			this.elements = elements;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			Symbol result = Symbol.NIL;
+			for (Node node : elements)
+				result = Symbol.push(node.execute(environment), result);
+			return Symbol.reverse(result);
+		}
+	}
+
+	private final class Write extends Node
+	{
+		private final Node[] args;
+
+		Write(Symbol source, Node[] args)
+		{
+			super(source);
+			this.args = args;
+		}
+
+		@Override
+		public Symbol execute(Environment environment)
+		{
+			PrintStream out = interpreter.getOut();
+			for (Node node : args) {
+				interpreter.print(node.execute(environment));
+				out.print(' ');
+			}
+			out.println();
+			return Symbol.TRUE;
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package com.ochavoya.languages.controller;
+
+/**
+ * The evaluators an {@link Interpreter} can run expressions with.
+ */
+public enum EvaluationMode
+{
+	/**
+	 * The recursive tree-walker, {@link Interpreter#eval}. It is the only mode
+	 * that traces and profiles.
+	 */
+	TREE,
+	/**
+	 * Expressions are compiled to pre-resolved nodes by {@link Compiler}.
+	 */
+	COMPILED,
+	/**
+	 * The tree is walked by {@link StackEvaluator}, which keeps its
+	 * continuation on the heap, so recursion depth is bounded by the heap
+	 * instead of the thread stack.
+	 */
+	STACK;
+
+	/**
+	 * @return the mode named by the <code>lisp.mode</code> system property, or
+	 *         COMPILED if <code>lisp.compiled</code> is set, or TREE
+	 */
+	static EvaluationMode fromSystemProperties()
+	{
+		String name = System.getProperty("lisp.mode");
+		if (name != null)
+			return valueOf(name.toUpperCase());
+		return Boolean.getBoolean("lisp.compiled") ? COMPILED : TREE;
+	}
+}
@@ -0,0 +1,143 @@
+package com.ochavoya.languages.controller;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+
+import com.ochavoya.languages.model.Printer;
+import com.ochavoya.languages.model.Symbol;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The events the interpreter writes to a Flight Recorder recording, under the
+ * Lisp category, to be read next to the garbage collector and compiler events
+ * of the same recording.
+ * <p>
+ * When no recording is on, the event classes are not instrumented and
+ * checking whether one is enabled comes down to reading a static field; the
+ * event object is never allocated, since it does not escape the check. The
+ * thresholds and whether each event is recorded are set like those of the
+ * JDK's own events, in the settings file of the recording, e.g.
+ * <code>&lt;event name="com.ochavoya.languages.Call"&gt;&lt;setting
+ * name="threshold"&gt;20 ms&lt;/setting&gt;&lt;/event&gt;</code>. The stack
+ * evaluator has no frame for a call to return to, so it records no calls.
+ */
+final class Events
+{
+	private Events()
+	{
+	}
+
+	@Name("com.ochavoya.languages.Evaluation")
+	@Label("Evaluation")
+	@Category("Lisp")
+	@Description("A top level form read and evaluated by the interpreter")
+	@StackTrace(false)
+	static final class Evaluation extends Event
+	{
+		@Label("Form")
+		String form;
+
+		@Label("Mode")
+		String mode;
+
+		@Label("Error")
+		String error;
+	}
+
+	@Name("com.ochavoya.languages.Load")
+	@Label("Load")
+	@Category("Lisp")
+	@Description("A source file evaluated by LOAD")
+	@StackTrace(false)
+	static final class Load extends Event
+	{
+		@Label("Path")
+		String path;
+
+		@Label("Forms")
+		int    forms;
+	}
+
+	@Name("com.ochavoya.languages.Redefinition")
+	@Label("Redefinition")
+	@Category("Lisp")
+	@Description("A function defined again by DEFUN, which throws away the code compiled for it and its memo")
+	@StackTrace(false)
+	static final class Redefinition extends Event
+	{
+		@Label("Function")
+		String  function;
+
+		@Label("Tiered")
+		@Description("Whether the old definition had been hot enough to be compiled to bytecode")
+		boolean tiered;
+
+		@Label("Memoized")
+		boolean memoized;
+	}
+
+	@Name("com.ochavoya.languages.Call")
+	@Label("Function Call")
+	@Category("Lisp")
+	@Description("A call to a user function that took longer than the threshold")
+	@StackTrace(false)
+	@Threshold("1 ms")
+	static final class Call extends Event
+	{
+		@Label("Function")
+		String function;
+
+		@Label("Arguments")
+		int    arguments;
+
+		static boolean enabled()
+		{
+			return new Call().isEnabled();
+		}
+
+		/**
+		 * @return the event of a call of <code>name</code> starting now
+		 */
+		static Call start(Symbol name, int arguments)
+		{
+			Call call = new Call();
+			call.function = name == null ? "LAMBDA" : name.getCode();
+			call.arguments = arguments;
+			call.begin();
+			return call;
+		}
+
+		/**
+		 * Commits the call if it took longer than the threshold.
+		 */
+		void finish()
+		{
+			end();
+			if (shouldCommit())
+				commit();
+		}
+	}
+
+	/**
+	 * @return <code>symbol</code> printed at most six lists deep and twelve
+	 *         elements long
+	 */
+	static String text(Symbol symbol)
+	{
+		StringWriter text = new StringWriter();
+		try {
+			new Printer(text, 6, 12).print(symbol);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return text.toString();
+	}
+}
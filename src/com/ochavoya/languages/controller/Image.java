@@ -0,0 +1,637 @@
+package com.ochavoya.languages.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.ochavoya.languages.model.Environment;
+import com.ochavoya.languages.model.FactBase;
+import com.ochavoya.languages.model.Lambda;
+import com.ochavoya.languages.model.Memo;
+import com.ochavoya.languages.model.Symbol;
+import com.ochavoya.languages.model.Token;
+
+/**
+ * The globals, functions, facts and rules of an interpreter, as written by
+ * SAVE and read back by RESTORE.
+ * <p>
+ * An image holds a table of strings, an index of roots, the tables that refer
+ * to those roots and last the roots themselves: one encoded expression for
+ * each global value, function body, fact and rule. Integers are written in
+ * seven bit groups. A run of list cells is written as its length, its
+ * elements and its tail. A cell reachable more than once is numbered, written
+ * the first time and referred to by its number after that, so structure
+ * shared in the workspace is shared again after a restore. Identifiers are
+ * written as their name and interned when read. Vectors are written as their
+ * length and their elements, hash tables as their size and their keys and
+ * values in order, and both are numbered like cells when shared.
+ * <p>
+ * RESTORE maps the file and reads everything but the function bodies, which
+ * are read from the mapped file the first time they are needed. SAVE writes
+ * a new file that then replaces the old one, so an interpreter still reading
+ * bodies from the old one is not affected. Compiled bodies, call counts and
+ * memoized results are not saved.
+ */
+final class Image
+{
+	private static final int  MAGIC    = 0x4C495350;
+	private static final int  VERSION  = 2;
+
+	private static final byte NULL     = 0;
+	private static final byte INTERNED = 1;
+	private static final byte ATOM     = 2;
+	private static final byte FIXNUM   = 3;
+	private static final byte BIGNUM   = 4;
+	private static final byte LIST     = 5;
+	private static final byte CELL     = 6;
+	private static final byte SHARED   = 7;
+	private static final byte VECTOR   = 8;
+	private static final byte HASH     = 9;
+
+	final Map<String, Symbol> symbolTable;
+	final Map<String, Lambda> functionTable;
+	final FactBase            knowledgeBase;
+	final Set<Symbol>         ruleBase;
+
+	private Image(Map<String, Symbol> symbolTable, Map<String, Lambda> functionTable, FactBase knowledgeBase,
+	        Set<Symbol> ruleBase)
+	{
+		this.symbolTable = symbolTable;
+		this.functionTable = functionTable;
+		this.knowledgeBase = knowledgeBase;
+		this.ruleBase = ruleBase;
+	}
+
+	static void save(Path path, Map<String, Symbol> symbolTable, Map<String, Lambda> functionTable,
+	        FactBase knowledgeBase, Set<Symbol> ruleBase) throws IOException
+	{
+		Writer writer = new Writer();
+		for (Symbol value : symbolTable.values())
+			writer.count(value);
+		for (Lambda lambda : functionTable.values()) {
+			writer.count(lambda.getCode());
+			for (Environment frame = lambda.getClosure(); frame != null; frame = frame.getParent()) {
+				for (int i = 0; i < frame.getNames().length; ++i)
+					writer.count(frame.get(i));
+			}
+		}
+		for (Symbol fact : knowledgeBase)
+			writer.count(fact);
+		for (Symbol rule : ruleBase)
+			writer.count(rule);
+		Output tables = new Output();
+		tables.varint(symbolTable.size());
+		for (Map.Entry<String, Symbol> entry : symbolTable.entrySet()) {
+			tables.varint(writer.string(entry.getKey()));
+			tables.varint(writer.root(entry.getValue()));
+		}
+		tables.varint(functionTable.size());
+		for (Map.Entry<String, Lambda> entry : functionTable.entrySet()) {
+			Lambda lambda = entry.getValue();
+			tables.varint(writer.string(entry.getKey()));
+			tables.varint(writer.root(lambda.getName()));
+			tables.varint(lambda.getVariables().length);
+			for (Symbol variable : lambda.getVariables())
+				tables.varint(writer.root(variable));
+			tables.varint(writer.environment(lambda.getClosure()) + 1);
+			tables.varint(lambda.getMemo() == null ? 0 : lambda.getMemo().getCapacity());
+			tables.varint(writer.root(lambda.getCode()));
+		}
+		tables.varint(knowledgeBase.size());
+		for (Symbol fact : knowledgeBase)
+			tables.varint(writer.root(fact));
+		tables.varint(ruleBase.size());
+		for (Symbol rule : ruleBase)
+			tables.varint(writer.root(rule));
+
+		Output head = new Output();
+		head.varint(writer.strings.size());
+		for (String string : writer.strings) {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			head.varint(bytes.length);
+			head.write(bytes, 0, bytes.length);
+		}
+		head.varint(writer.numbers.size());
+		head.varint(writer.roots.size() / 2);
+		for (int i = 0; i < writer.roots.size(); ++i)
+			head.varint(writer.roots.get(i));
+		head.varint(writer.environments.size());
+		writer.frames.writeTo(head);
+		tables.writeTo(head);
+		head.varint(writer.nodes.size());
+
+		Path temporary = Files.createTempFile(path.toAbsolutePath().getParent(), ".image", null);
+		try {
+			try (OutputStream out = Files.newOutputStream(temporary)) {
+				out.write(ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION).array());
+				head.writeTo(out);
+				writer.nodes.writeTo(out);
+			}
+			Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temporary);
+		}
+	}
+
+	/**
+	 * @throws StreamCorruptedException
+	 *             if the file is not an image written by this version
+	 */
+	static Image restore(Path path) throws IOException
+	{
+		ByteBuffer in;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		try {
+			if (in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != VERSION)
+				throw new StreamCorruptedException(path + " is not a saved image");
+			String[] strings = new String[varint(in)];
+			byte[] bytes = new byte[64];
+			for (int i = 0; i < strings.length; ++i) {
+				int length = varint(in);
+				if (length > bytes.length)
+					bytes = new byte[Math.max(length, bytes.length * 2)];
+				in.get(bytes, 0, length);
+				strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+			}
+			int cells = varint(in);
+			int[] offsets = new int[varint(in)];
+			int[] firstCells = new int[offsets.length];
+			for (int i = 0; i < offsets.length; ++i) {
+				offsets[i] = varint(in);
+				firstCells[i] = varint(in);
+			}
+			// the roots come after the tables that refer to them
+			int frames = varint(in);
+			int tables = in.position();
+			skipTables(in, frames);
+			int length = varint(in);
+			Reader reader = new Reader(path, in.slice().limit(length), strings, cells, offsets, firstCells);
+			in.position(tables);
+
+			Environment[] environments = new Environment[frames];
+			for (int i = 0; i < environments.length; ++i) {
+				int parent = varint(in);
+				Symbol[] names = new Symbol[varint(in)];
+				Symbol[] values = new Symbol[names.length];
+				for (int j = 0; j < names.length; ++j) {
+					names[j] = reader.root(varint(in));
+					values[j] = reader.root(varint(in));
+				}
+				environments[i] = new Environment(names, values, parent == 0 ? null : environments[parent - 1]);
+			}
+			Map<String, Symbol> symbolTable = new HashMap<String, Symbol>();
+			for (int i = varint(in); i > 0; --i) {
+				String name = strings[varint(in)];
+				symbolTable.put(name, reader.root(varint(in)));
+			}
+			Map<String, Lambda> functionTable = new HashMap<String, Lambda>();
+			for (int i = varint(in); i > 0; --i) {
+				String key = strings[varint(in)];
+				Symbol name = reader.root(varint(in));
+				Symbol[] variables = new Symbol[varint(in)];
+				for (int j = 0; j < variables.length; ++j)
+					variables[j] = reader.root(varint(in));
+				int closure = varint(in);
+				Lambda lambda = new Lambda(name, null, Arrays.asList(variables),
+				                           closure == 0 ? null : environments[closure - 1]);
+				int capacity = varint(in);
+				if (capacity > 0)
+					lambda.setMemo(new Memo(capacity));
+				int code = varint(in);
+				lambda.setCode(() -> reader.root(code));
+				functionTable.put(key, lambda);
+			}
+			FactBase knowledgeBase = new FactBase();
+			for (int i = varint(in); i > 0; --i)
+				knowledgeBase.add(reader.root(varint(in)));
+			Set<Symbol> ruleBase = new LinkedHashSet<Symbol>();
+			for (int i = varint(in); i > 0; --i)
+				ruleBase.add(reader.root(varint(in)));
+			return new Image(symbolTable, functionTable, knowledgeBase, ruleBase);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+		        | NegativeArraySizeException | EvaluationError e) {
+			throw new StreamCorruptedException(path + " is not a saved image");
+		}
+	}
+
+	private static void skipTables(ByteBuffer in, int frames)
+	{
+		for (int i = 0; i < frames; ++i) {
+			varint(in);
+			for (int j = 2 * varint(in); j > 0; --j)
+				varint(in);
+		}
+		for (int i = 2 * varint(in); i > 0; --i)
+			varint(in);
+		for (int i = varint(in); i > 0; --i) {
+			varint(in);
+			varint(in);
+			for (int j = varint(in); j > 0; --j)
+				varint(in);
+			varint(in);
+			varint(in);
+			varint(in);
+		}
+		for (int i = varint(in); i > 0; --i)
+			varint(in);
+		for (int i = varint(in); i > 0; --i)
+			varint(in);
+	}
+
+	private static int varint(ByteBuffer in)
+	{
+		long value = varlong(in);
+		if (value > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("not an int: " + value);
+		return (int) value;
+	}
+
+	private static long varlong(ByteBuffer in)
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IllegalArgumentException("integer too long");
+	}
+
+	/**
+	 * Bytes with the integers of an image: seven bits a byte, low bits first,
+	 * and the high bit set on every byte but the last.
+	 */
+	private static final class Output extends ByteArrayOutputStream
+	{
+		void varlong(long value)
+		{
+			while ((value & ~0x7FL) != 0) {
+				write((int) (value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			write((int) value);
+		}
+
+		void varint(int value)
+		{
+			varlong(value);
+		}
+	}
+
+	/**
+	 * Numbers the strings, the shared list cells and the environments reachable
+	 * from the workspace, and encodes each root as it is added.
+	 */
+	private static final class Writer
+	{
+		final List<String>              strings      = new ArrayList<String>();
+		final Map<String, Integer>      stringIndex  = new HashMap<String, Integer>();
+		// true for the cells reached more than once
+		final Map<Symbol, Boolean>      shared       = new IdentityHashMap<Symbol, Boolean>();
+		final Map<Symbol, Integer>      numbers      = new IdentityHashMap<Symbol, Integer>();
+		// the offset and the first cell number of each root
+		final List<Integer>             roots        = new ArrayList<Integer>();
+		final Map<Environment, Integer> environments = new IdentityHashMap<Environment, Integer>();
+		final Output                    frames       = new Output();
+		final Output                    nodes        = new Output();
+
+		int string(String string)
+		{
+			Integer index = stringIndex.get(string);
+			if (index == null) {
+				index = strings.size();
+				strings.add(string);
+				stringIndex.put(string, index);
+			}
+			return index;
+		}
+
+		/**
+		 * Finds the cells of <code>symbol</code> that are reachable more than
+		 * once. Frames that are counted more than once are harmless, because
+		 * only cells in lists are counted.
+		 */
+		void count(Symbol symbol)
+		{
+			if (symbol != null && symbol.isLazy())
+				throw new EvaluationError("a lazy sequence cannot be saved");
+			if (symbol != null && symbol.isVector()) {
+				if (shared.containsKey(symbol)) {
+					shared.put(symbol, Boolean.TRUE);
+					return;
+				}
+				shared.put(symbol, Boolean.FALSE);
+				for (Symbol element : symbol.getElements())
+					count(element);
+				return;
+			}
+			if (symbol != null && symbol.isTable()) {
+				if (shared.containsKey(symbol)) {
+					shared.put(symbol, Boolean.TRUE);
+					return;
+				}
+				shared.put(symbol, Boolean.FALSE);
+				for (Map.Entry<Symbol, Symbol> entry : symbol.getTable().entrySet()) {
+					count(entry.getKey());
+					if (symbol.getType() == Token.TABLE_VALUE)
+						count(entry.getValue());
+				}
+				return;
+			}
+			while (symbol != null && !symbol.isAtom()) {
+				if (shared.containsKey(symbol)) {
+					shared.put(symbol, Boolean.TRUE);
+					return;
+				}
+				shared.put(symbol, Boolean.FALSE);
+				count(symbol.getCar());
+				symbol = symbol.getCdr();
+			}
+			if (symbol != null && symbol.isLazy())
+				throw new EvaluationError("a lazy sequence cannot be saved");
+		}
+
+		/**
+		 * @return the number of the root <code>symbol</code> is written as
+		 */
+		int root(Symbol symbol)
+		{
+			roots.add(nodes.size());
+			roots.add(numbers.size());
+			node(symbol);
+			return roots.size() / 2 - 1;
+		}
+
+		private void node(Symbol symbol)
+		{
+			if (symbol == null) {
+				nodes.write(NULL);
+			} else if (symbol.isInterned()) {
+				nodes.write(INTERNED);
+				nodes.varint(string(symbol.getCode()));
+			} else if (symbol.isFixnum()) {
+				long value = symbol.getFixnum();
+				nodes.write(FIXNUM);
+				nodes.varlong(value << 1 ^ value >> 63);
+			} else if (symbol.isNumber()) {
+				nodes.write(BIGNUM);
+				nodes.varint(string(symbol.getCode()));
+			} else if (symbol.isVector()) {
+				if (numbers.containsKey(symbol)) {
+					nodes.write(SHARED);
+					nodes.varint(numbers.get(symbol));
+					return;
+				}
+				nodes.write(VECTOR);
+				if (shared.get(symbol) == Boolean.TRUE) {
+					nodes.varint(numbers.size() + 1);
+					numbers.put(symbol, numbers.size());
+				} else
+					nodes.varint(0);
+				nodes.varint(symbol.getElements().length);
+				for (Symbol element : symbol.getElements())
+					node(element);
+			} else if (symbol.isTable()) {
+				if (numbers.containsKey(symbol)) {
+					nodes.write(SHARED);
+					nodes.varint(numbers.get(symbol));
+					return;
+				}
+				nodes.write(HASH);
+				if (shared.get(symbol) == Boolean.TRUE) {
+					nodes.varint(numbers.size() + 1);
+					numbers.put(symbol, numbers.size());
+				} else
+					nodes.varint(0);
+				nodes.varint(symbol.getType());
+				nodes.varint(symbol.getSize());
+				for (Map.Entry<Symbol, Symbol> entry : symbol.getTable().entrySet()) {
+					node(entry.getKey());
+					if (symbol.getType() == Token.TABLE_VALUE)
+						node(entry.getValue());
+				}
+			} else if (symbol.isAtom()) {
+				nodes.write(ATOM);
+				nodes.varint(symbol.getType());
+				nodes.varint(symbol.getCode() == null ? 0 : string(symbol.getCode()) + 1);
+			} else if (numbers.containsKey(symbol)) {
+				nodes.write(SHARED);
+				nodes.varint(numbers.get(symbol));
+			} else if (shared.get(symbol) == Boolean.TRUE) {
+				nodes.write(CELL);
+				nodes.varint(numbers.size());
+				numbers.put(symbol, numbers.size());
+				node(symbol.getCar());
+				node(symbol.getCdr());
+			} else {
+				List<Symbol> run = new ArrayList<Symbol>();
+				Symbol tail = symbol;
+				do {
+					run.add(tail);
+					tail = tail.getCdr();
+				} while (tail != null && !tail.isAtom() && shared.get(tail) != Boolean.TRUE);
+				nodes.write(LIST);
+				nodes.varint(run.size());
+				for (Symbol cell : run)
+					node(cell.getCar());
+				node(tail);
+			}
+		}
+
+		/**
+		 * Numbers the frames outermost first, so a frame is read after its
+		 * parent.
+		 *
+		 * @return the number of the frame, or -1 for none
+		 */
+		int environment(Environment environment)
+		{
+			if (environment == null)
+				return -1;
+			Integer index = environments.get(environment);
+			if (index != null)
+				return index;
+			int parent = environment(environment.getParent());
+			Symbol[] names = environment.getNames();
+			frames.varint(parent + 1);
+			frames.varint(names.length);
+			for (int i = 0; i < names.length; ++i) {
+				frames.varint(root(names[i]));
+				frames.varint(root(environment.get(i)));
+			}
+			index = environments.size();
+			environments.put(environment, index);
+			return index;
+		}
+	}
+
+	/**
+	 * Reads roots from the mapped file when they are first asked for. A
+	 * reference to a cell of a root that has not been read yet reads that root
+	 * first; references only ever point back to roots written earlier.
+	 */
+	private static final class Reader
+	{
+		private final Path       path;
+		private final ByteBuffer nodes;
+		private final String[]   strings;
+		private final Symbol[]   interned;
+		private final Symbol[]   cells;
+		private final int[]      offsets;
+		private final int[]      firstCells;
+		private final Symbol[]   values;
+		private final boolean[]  read;
+
+		Reader(Path path, ByteBuffer nodes, String[] strings, int cells, int[] offsets, int[] firstCells)
+		{
+			this.path = path;
+			this.nodes = nodes;
+			this.strings = strings;
+			this.interned = new Symbol[strings.length];
+			this.cells = new Symbol[cells];
+			this.offsets = offsets;
+			this.firstCells = firstCells;
+			this.values = new Symbol[offsets.length];
+			this.read = new boolean[offsets.length];
+		}
+
+		synchronized Symbol root(int index)
+		{
+			if (!read[index]) {
+				try {
+					values[index] = node(nodes.duplicate().position(offsets[index]));
+				} catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+				        | NegativeArraySizeException e) {
+					throw new EvaluationError(path + " is damaged");
+				}
+				read[index] = true;
+			}
+			return values[index];
+		}
+
+		/**
+		 * @return the last root whose cells start at or before
+		 *         <code>cell</code>, which is the one that holds it
+		 */
+		private int rootOf(int cell)
+		{
+			int low = 0;
+			int high = firstCells.length - 1;
+			while (low < high) {
+				int middle = (low + high + 1) >>> 1;
+				if (firstCells[middle] <= cell)
+					low = middle;
+				else
+					high = middle - 1;
+			}
+			return low;
+		}
+
+		private Symbol node(ByteBuffer in)
+		{
+			byte tag = in.get();
+			switch (tag) {
+			case NULL:
+				return null;
+			case INTERNED: {
+				int string = varint(in);
+				if (interned[string] == null)
+					interned[string] = Symbol.intern(strings[string]);
+				return interned[string];
+			}
+			case ATOM: {
+				int type = varint(in);
+				int code = varint(in);
+				return new Symbol(type, code == 0 ? null : strings[code - 1]);
+			}
+			case FIXNUM: {
+				long value = varlong(in);
+				return Symbol.number(value >>> 1 ^ -(value & 1));
+			}
+			case BIGNUM:
+				return Symbol.number(new BigInteger(strings[varint(in)]));
+			case SHARED: {
+				int cell = varint(in);
+				if (cells[cell] == null)
+					root(rootOf(cell));
+				if (cells[cell] == null)
+					throw new IllegalArgumentException("cell " + cell);
+				return cells[cell];
+			}
+			case LIST: {
+				int length = varint(in);
+				if (length == 0)
+					throw new IllegalArgumentException("empty run");
+				Symbol first = new Symbol();
+				Symbol last = first;
+				last.setCar(node(in));
+				for (int i = 1; i < length; ++i) {
+					Symbol cell = new Symbol();
+					cell.setCar(node(in));
+					last.setCdr(cell);
+					last = cell;
+				}
+				last.setCdr(node(in));
+				return first;
+			}
+			case VECTOR: {
+				int number = varint(in);
+				Symbol vector = Symbol.vector(new Symbol[varint(in)]);
+				if (number > 0)
+					cells[number - 1] = vector;
+				Symbol[] elements = vector.getElements();
+				for (int i = 0; i < elements.length; ++i)
+					elements[i] = node(in);
+				return vector;
+			}
+			case HASH: {
+				int number = varint(in);
+				int type = varint(in);
+				if (type != Token.TABLE_VALUE && type != Token.SET_VALUE)
+					throw new IllegalArgumentException("hash type " + type);
+				int size = varint(in);
+				Symbol table = Symbol.table(type, size);
+				if (number > 0)
+					cells[number - 1] = table;
+				Map<Symbol, Symbol> entries = table.getTable();
+				for (int i = 0; i < size; ++i) {
+					Symbol key = node(in);
+					entries.put(key, type == Token.TABLE_VALUE ? node(in) : key);
+				}
+				return table;
+			}
+			case CELL: {
+				int number = varint(in);
+				Symbol cell = new Symbol();
+				cells[number] = cell;
+				cell.setCar(node(in));
+				cell.setCdr(node(in));
+				return cell;
+			}
+			default:
+				throw new IllegalArgumentException("tag " + tag);
+			}
+		}
+	}
+}
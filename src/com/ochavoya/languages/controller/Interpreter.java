@@ -1,23 +1,53 @@
 package com.ochavoya.languages.controller;
 
+import java.io.BufferedWriter;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.PrintStream;
 import java.io.Serializable;
-import java.math.BigInteger;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.function.Function;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import com.ochavoya.languages.model.Environment;
+import com.ochavoya.languages.model.FactBase;
 import com.ochavoya.languages.model.Lambda;
+import com.ochavoya.languages.model.Memo;
+import com.ochavoya.languages.model.Printer;
 import com.ochavoya.languages.model.Symbol;
 import com.ochavoya.languages.model.Token;
 
+/**
+ * An interpreter owns all of its state: definitions, globals, builtins, the
+ * gensym counter, the trace flag and the stream it prints to. Instances do not
+ * share anything mutable, so independent scripts can run on several threads
+ * at once with one interpreter per thread; a single instance is not meant to
+ * be used by two threads at the same time.
+ */
 public class Interpreter implements Serializable
 {
 	/**
@@ -25,14 +55,289 @@ public class Interpreter implements Serializable
 	 */
 	private static final long serialVersionUID = 1L;
 	private Parser            parser;
+	private transient PrintStream out          = System.out;
+	private transient Printer printer          = null;
+	private transient Runnable onExit          = () -> System.exit(0);
 	private long              id               = 0;
 	private boolean           trace            = false;
+	private transient Profiler profiler        = null;
+	// the depth of the profiled stack the running eval loop started at
+	private int               profileBase      = 0;
+	private transient Tracer  tracer           = null;
+	// the call the running eval loop traces, and when it started
+	private String            traceCall        = null;
+	private long              traceStart       = 0;
+	// and the Flight Recorder event of that call, when they are recorded
+	private transient Events.Call callEvent    = null;
+	private final transient Metrics metrics    = new Metrics();
+	private transient ObjectName mbean         = null;
+	// whether a top level form is being evaluated, so LOAD counts as one form
+	private boolean           evaluating       = false;
+	private EvaluationMode    mode             = EvaluationMode.fromSystemProperties();
+	private int               definitions      = 0;
+	// and one that changes every time the globals, the facts or the rules do
+	private int               changes          = 0;
+	private int               tierThreshold    = Integer.getInteger("lisp.tier.threshold", 1000);
+	private int               parallelThreshold = Integer.getInteger("lisp.parallel.threshold", 1000);
+	private int               printDepth       = Integer.getInteger("lisp.print.depth", -1);
+	private int               printLength      = Integer.getInteger("lisp.print.length", -1);
+	private final Compiler    compiler         = new Compiler(this);
+	private final StackEvaluator stackEvaluator = new StackEvaluator(this);
+	private Environment       environment      = null;
+	private Symbol            tailExpression   = null;
+	private Environment       tailEnvironment  = null;
+	// the last call of PFOR_LIST or PREDUCE made, and in a worker the one it
+	// runs for and the counters of the interpreter it was copied from
+	private int               tasks            = 0;
+	private int               task             = 0;
+	private int               copiedDefinitions = 0;
+	private int               copiedChanges    = 0;
+
+	/**
+	 * The workers of each thread of the fork-join pool, by the interpreter
+	 * they were copied from, kept until it is gone.
+	 */
+	private static final ThreadLocal<Map<Interpreter, Interpreter>> WORKERS = ThreadLocal
+	        .withInitial(WeakHashMap::new);
+
+	/**
+	 * Returned by builtins that end by evaluating one more expression, see
+	 * {@link #tailCall(Symbol, Environment)}.
+	 */
+	private static final Symbol TAIL_CALL = new Symbol();
 
 	public Interpreter(InputStream in)
 	{
 		parser = new Parser(in);
 	}
 
+	public Interpreter(InputStream in, PrintStream out)
+	{
+		this(in);
+		this.out = out;
+	}
+
+	/**
+	 * A context for evaluating on another thread. It starts from copies of the
+	 * globals, the facts and the function definitions, so nothing it defines
+	 * or sets is seen by this interpreter or by the other workers.
+	 */
+	private Interpreter(Interpreter parent)
+	{
+		inherit(parent);
+		copiedDefinitions = parent.definitions;
+		copiedChanges = parent.changes;
+		symbolTable = new HashMap<String, Symbol>(parent.symbolTable);
+		knowledgeBase = new FactBase(parent.knowledgeBase);
+		ruleBase = new LinkedHashSet<Symbol>(parent.ruleBase);
+		for (Map.Entry<String, Lambda> entry : parent.functionTable.entrySet()) {
+			Lambda lambda = entry.getValue();
+			Lambda copy = new Lambda(lambda.getName(), lambda.getCode(), lambda.getVarsList(), lambda.getClosure());
+			if (lambda.getMemo() != null)
+				copy.setMemo(new Memo(lambda.getMemo().getCapacity()));
+			functionTable.put(entry.getKey(), copy);
+		}
+		memoized = new HashSet<String>(parent.memoized);
+	}
+
+	private void inherit(Interpreter parent)
+	{
+		parser = parent.parser;
+		out = parent.out;
+		onExit = parent.onExit;
+		mode = parent.mode;
+		tierThreshold = parent.tierThreshold;
+		parallelThreshold = parent.parallelThreshold;
+		printDepth = parent.printDepth;
+		printLength = parent.printLength;
+	}
+
+	/**
+	 * @return a number for a call of PFOR_LIST or PREDUCE, to pass to
+	 *         {@link #worker(int)}
+	 */
+	int newTask()
+	{
+		return ++tasks;
+	}
+
+	/**
+	 * @return the context the current thread evaluates in for
+	 *         <code>task</code>: the same one for the whole task, and the one
+	 *         of an earlier task as long as neither this interpreter nor the
+	 *         worker have changed their globals, functions, facts or rules
+	 *         since it was copied, so that a call does not pay for copying the
+	 *         workspace
+	 */
+	Interpreter worker(int task)
+	{
+		Map<Interpreter, Interpreter> workers = WORKERS.get();
+		Interpreter worker = workers.get(this);
+		if (worker != null && worker.task == task)
+			return worker;
+		if (worker == null || worker.definitions != 0 || worker.changes != 0
+		        || worker.copiedDefinitions != definitions || worker.copiedChanges != changes) {
+			worker = new Interpreter(this);
+			workers.put(this, worker);
+		} else {
+			worker.inherit(this);
+		}
+		worker.task = task;
+		return worker;
+	}
+
+	public PrintStream getOut()
+	{
+		return out;
+	}
+
+	/**
+	 * Sets the stream that WRITE, READ, the trace and the prompt print to.
+	 */
+	public void setOut(PrintStream out)
+	{
+		this.out = out;
+		this.printer = null;
+	}
+
+	/**
+	 * Limits how much of a value the prompt, WRITE, READ and the trace print:
+	 * lists nested more than <code>depth</code> deep print as <code>#</code>
+	 * and only the first <code>length</code> elements of a list are printed.
+	 * Negative values, the default, print everything. The system properties
+	 * <code>lisp.print.depth</code> and <code>lisp.print.length</code> set the
+	 * initial limits.
+	 */
+	public void setPrintLimits(int depth, int length)
+	{
+		this.printDepth = depth;
+		this.printLength = length;
+		this.printer = null;
+	}
+
+	/**
+	 * Prints <code>symbol</code> to the output stream within the print
+	 * limits, without building its text first.
+	 */
+	void print(Symbol symbol)
+	{
+		if (printer == null)
+			printer = new Printer(new BufferedWriter(new StreamWriter(out)), printDepth, printLength);
+		try {
+			printer.print(symbol);
+			printer.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Hands characters to a print stream, which encodes them with its own
+	 * charset.
+	 */
+	private static final class StreamWriter extends Writer
+	{
+		private final PrintStream out;
+
+		StreamWriter(PrintStream out)
+		{
+			this.out = out;
+		}
+
+		@Override
+		public void write(char[] buffer, int offset, int length)
+		{
+			out.print(offset == 0 && length == buffer.length ? buffer : Arrays.copyOfRange(buffer, offset, offset + length));
+		}
+
+		@Override
+		public void flush()
+		{
+			out.flush();
+		}
+
+		@Override
+		public void close()
+		{
+			flush();
+		}
+	}
+
+	/**
+	 * Sets what EXIT and QUIT do. By default they end the JVM; an embedding
+	 * that hosts several sessions can instead end just the one that asked.
+	 */
+	public void setOnExit(Runnable onExit)
+	{
+		this.onExit = onExit;
+	}
+
+	public boolean isCompiled()
+	{
+		return mode == EvaluationMode.COMPILED;
+	}
+
+	/**
+	 * Switches between the tree-walking evaluator and the compiled one.
+	 */
+	public void setCompiled(boolean compiled)
+	{
+		mode = compiled ? EvaluationMode.COMPILED : EvaluationMode.TREE;
+	}
+
+	public int getTierThreshold()
+	{
+		return tierThreshold;
+	}
+
+	/**
+	 * Sets how many calls make a user function hot, after which it runs as
+	 * bytecode. A negative threshold turns the bytecode tier off. The initial
+	 * value is taken from the <code>lisp.tier.threshold</code> system property
+	 * and defaults to 1000.
+	 */
+	public void setTierThreshold(int tierThreshold)
+	{
+		this.tierThreshold = tierThreshold;
+	}
+
+	public int getParallelThreshold()
+	{
+		return parallelThreshold;
+	}
+
+	/**
+	 * Sets the shortest list that PFOR_LIST and PREDUCE split across the
+	 * fork-join pool; shorter lists are walked on the calling thread, and a
+	 * negative threshold never splits. The initial value is taken from the
+	 * <code>lisp.parallel.threshold</code> system property and defaults to
+	 * 1000.
+	 */
+	public void setParallelThreshold(int parallelThreshold)
+	{
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	boolean isHot(Lambda lambda)
+	{
+		return tierThreshold >= 0 && lambda.getCalls() >= tierThreshold;
+	}
+
+	public EvaluationMode getMode()
+	{
+		return mode;
+	}
+
+	/**
+	 * Selects the evaluator. The initial value is taken from the
+	 * <code>lisp.mode</code> system property, see
+	 * {@link EvaluationMode#fromSystemProperties()}.
+	 */
+	public void setMode(EvaluationMode mode)
+	{
+		this.mode = mode;
+	}
+
 	public Parser getParser()
 	{
 		return parser;
@@ -42,15 +347,20 @@ public class Interpreter implements Serializable
 
 	private Map<String, Symbol>                                 symbolTable   = new HashMap<String, Symbol>();
 	private Map<String, Lambda>                                 functionTable = new HashMap<String, Lambda>();
-	private Set<Symbol>                                         knowledgeBase = new HashSet<Symbol>();
-	private Set<Symbol>                                         ruleBase      = new HashSet<Symbol>();
+	// names of the memoized functions, so a definition does not visit them all
+	private Set<String>                                         memoized      = new HashSet<String>();
+	private FactBase                                            knowledgeBase = new FactBase();
+	private Set<Symbol>                                         ruleBase      = new LinkedHashSet<Symbol>();
+	// made again when a fact or a rule is added
+	private Resolver                                            resolver      = null;
 	private static final Map<String, String>                    help          = new HashMap<String, String>();
-	private static final Map<Integer, Function<Symbol, Symbol>> predefined    = new HashMap<Integer, Function<Symbol, Symbol>>();
+	private final Map<Integer, Function<Symbol, Symbol>>        predefined    = new HashMap<Integer, Function<Symbol, Symbol>>();
 
 	public void setSymbolTable()
 	{
 		symbolTable = new HashMap<String, Symbol>();
 		symbolTable.put("prompt", new Symbol(new Token(Token.ID, "::")));
+		++changes;
 	}
 
 	private String getId()
@@ -58,31 +368,392 @@ public class Interpreter implements Serializable
 		return "@" + (id++);
 	}
 
+	Symbol newId()
+	{
+		return Symbol.intern(getId());
+	}
+
+	/**
+	 * Evaluates a top level expression with whichever evaluator is selected.
+	 * Tracing and profiling are only done by the tree-walker. The time it
+	 * takes and the error it ends in, if any, are counted in the metrics,
+	 * see {@link #getMetrics()}.
+	 */
+	public Symbol evaluate(Symbol symbol)
+	{
+		if (evaluating)
+			return dispatch(symbol);
+		evaluating = true;
+		long start = System.nanoTime();
+		Throwable error = null;
+		try {
+			return dispatch(symbol);
+		} catch (RuntimeException | Error e) {
+			error = e;
+			throw e;
+		} finally {
+			evaluating = false;
+			metrics.record(System.nanoTime() - start, error);
+		}
+	}
+
+	private Symbol dispatch(Symbol symbol)
+	{
+		if (!walking()) {
+			switch (mode) {
+			case COMPILED:
+				return compiler.compile(symbol, null).execute(null);
+			case STACK:
+				return stackEvaluator.eval(symbol, null);
+			default:
+				break;
+			}
+		}
+		return eval(symbol);
+	}
+
+	Symbol evalAtom(Symbol symbol)
+	{
+		return processAtom.apply(symbol);
+	}
+
+	/**
+	 * Evaluates <code>symbol</code> with <code>frame</code> as the innermost
+	 * lexical environment.
+	 */
+	Symbol eval(Symbol symbol, Environment frame)
+	{
+		Environment saved = environment;
+		environment = frame;
+		try {
+			return eval(symbol);
+		} finally {
+			environment = saved;
+		}
+	}
+
+	/**
+	 * Tells {@link #eval(Symbol)} to continue with <code>expression</code> in
+	 * <code>frame</code> instead of having the caller evaluate it. Builtins
+	 * call this for the expression they would otherwise return the value of,
+	 * so that tail calls run in constant Java stack.
+	 */
+	private Symbol tailCall(Symbol expression, Environment frame)
+	{
+		tailExpression = expression;
+		tailEnvironment = frame;
+		return TAIL_CALL;
+	}
+
+	/**
+	 * Binds the arguments of a user function in a fresh frame whose parent is
+	 * the environment the function was defined in.
+	 */
+	Environment bind(Symbol function, Lambda lambda, Symbol[] values)
+	{
+		Symbol[] variables = lambda.getVariables();
+		if (variables.length != values.length) {
+			throw new EvaluationError(function + " requires " + variables.length + " arguments");
+		}
+		lambda.countCall();
+		return new Environment(variables, values, lambda.getClosure());
+	}
+
+	/**
+	 * Calls a user function with already evaluated arguments. Hot functions
+	 * run compiled in the tree-walker too, see {@link #setTierThreshold(int)}.
+	 */
+	Symbol invoke(Symbol function, Lambda lambda, Symbol[] values)
+	{
+		if (profiler == null && tracer == null && !Events.Call.enabled())
+			return memoInvoke(function, lambda, values);
+		return recordedInvoke(function, lambda, values);
+	}
+
+	/**
+	 * Calls a user function for the profiler, the tracer, a Flight Recorder
+	 * recording or all of them.
+	 */
+	private Symbol recordedInvoke(Symbol function, Lambda lambda, Symbol[] values)
+	{
+		Events.Call event = Events.Call.start(lambda.getName(), values.length);
+		int depth = 0;
+		if (profiler != null) {
+			depth = profiler.depth();
+			profiler.enter(profileName(lambda));
+		}
+		Tracer tracer = this.tracer;
+		String name = tracer == null ? null : profileName(lambda);
+		long start = tracer == null ? 0 : tracer.enter(name);
+		Symbol value = Tracer.RAISED;
+		try {
+			value = memoInvoke(function, lambda, values);
+			return value;
+		} finally {
+			if (tracer != null)
+				tracer.exit(name, start, value);
+			if (profiler != null)
+				profiler.exit(depth);
+			event.finish();
+		}
+	}
+
+	private static String profileName(Lambda lambda)
+	{
+		return lambda.getName() == null ? "LAMBDA" : lambda.getName().getCode();
+	}
+
+	private Symbol memoInvoke(Symbol function, Lambda lambda, Symbol[] values)
+	{
+		Memo memo = lambda.getMemo();
+		if (memo == null)
+			return call(function, lambda, values);
+		List<Symbol> key = Memo.key(values);
+		Symbol value = memo.get(key);
+		if (value == null) {
+			value = call(function, lambda, values);
+			memo.put(key, value);
+		}
+		return value;
+	}
+
+	private Symbol call(Symbol function, Lambda lambda, Symbol[] values)
+	{
+		Environment frame = bind(function, lambda, values);
+		if (!walking()) {
+			switch (mode) {
+			case COMPILED:
+				return compiler.execute(lambda, frame);
+			case STACK:
+				return stackEvaluator.eval(lambda.getCode(), frame);
+			default:
+				if (isHot(lambda))
+					return compiler.execute(lambda, frame);
+			}
+		}
+		return eval(lambda.getCode(), frame);
+	}
+
+	private Symbol tailInvoke(Symbol function, Lambda lambda, Symbol[] values)
+	{
+		if (lambda.getMemo() != null)
+			return invoke(function, lambda, values);
+		Environment frame = bind(function, lambda, values);
+		boolean recorded = Events.Call.enabled();
+		if (!walking() && (mode == EvaluationMode.COMPILED || (mode == EvaluationMode.TREE && isHot(lambda)))) {
+			if (!recorded)
+				return compiler.execute(lambda, frame);
+			Events.Call event = Events.Call.start(lambda.getName(), values.length);
+			try {
+				return compiler.execute(lambda, frame);
+			} finally {
+				event.finish();
+			}
+		}
+		if (recorded) {
+			// a tail call ends the call it replaces
+			if (callEvent != null)
+				callEvent.finish();
+			callEvent = Events.Call.start(lambda.getName(), values.length);
+		}
+		if (profiler != null) {
+			// the call replaces the one this eval loop made before, if any
+			profiler.exit(profileBase);
+			profiler.enter(profileName(lambda));
+		}
+		if (tracer != null) {
+			// and ends it, to run until the loop returns or calls again
+			if (traceCall != null)
+				tracer.exit(traceCall, traceStart, null);
+			traceCall = profileName(lambda);
+			traceStart = tracer.enter(traceCall);
+		}
+		return tailCall(lambda.getCode(), frame);
+	}
+
+	private void assign(Symbol id, Symbol value)
+	{
+		Environment frame = environment == null ? null : environment.lookup(id);
+		if (frame == null) {
+			symbolTable.put(id.getCode(), value);
+			++changes;
+		} else {
+			frame.set(frame.indexOf(id), value);
+		}
+	}
+
+	Symbol getGlobal(String name)
+	{
+		return symbolTable.get(name);
+	}
+
+	void setGlobal(String name, Symbol value)
+	{
+		symbolTable.put(name, value);
+		++changes;
+	}
+
+	Lambda getFunction(String name)
+	{
+		return functionTable.get(name);
+	}
+
+	/**
+	 * @return a counter that changes every time the function table does, so
+	 *         that compiled call sites can cache the function they resolve
+	 */
+	int getDefinitions()
+	{
+		return definitions;
+	}
+
+	static int compare(Symbol first, Symbol second)
+	{
+		if (first.getType() != second.getType()) {
+			throw new EvaluationError("Comparators expect two numbers or two strings as arguments");
+		}
+		if (!(first.getType() == Token.NUMBER || first.getType() == Token.STRING)) {
+			throw new EvaluationError("Comparators expect two numbers or two strings as arguments");
+		}
+		if (first.getType() == Token.NUMBER) {
+			return Numbers.compare(first, second);
+		}
+		return first.getCode().compareTo(second.getCode());
+	}
+
 	public Symbol eval(Symbol symbol)
+	{
+		Environment saved = environment;
+		int savedBase = profileBase;
+		String savedCall = traceCall;
+		long savedStart = traceStart;
+		Events.Call savedEvent = callEvent;
+		if (profiler != null)
+			profileBase = profiler.depth();
+		traceCall = null;
+		callEvent = null;
+		try {
+			Symbol value;
+			while ((value = step(symbol)) == TAIL_CALL) {
+				symbol = tailExpression;
+				environment = tailEnvironment;
+			}
+			if (traceCall != null && tracer != null)
+				tracer.exit(traceCall, traceStart, value);
+			return value;
+		} catch (RuntimeException | Error e) {
+			if (traceCall != null && tracer != null)
+				tracer.exit(traceCall, traceStart, Tracer.RAISED);
+			throw e;
+		} finally {
+			environment = saved;
+			if (profiler != null)
+				profiler.exit(profileBase);
+			if (callEvent != null)
+				callEvent.finish();
+			profileBase = savedBase;
+			traceCall = savedCall;
+			traceStart = savedStart;
+			callEvent = savedEvent;
+		}
+	}
+
+	/**
+	 * @return true while expressions have to be evaluated by the tree-walker,
+	 *         which is the only evaluator that traces and profiles
+	 */
+	private boolean walking()
+	{
+		return trace || profiler != null || tracer != null;
+	}
+
+	/**
+	 * Evaluates <code>expression</code> with the tree-walker while
+	 * <code>profiler</code> records the calls it makes to user functions and
+	 * builtins, and how long they take.
+	 */
+	public Symbol profile(Symbol expression, Profiler profiler)
+	{
+		if (this.profiler != null)
+			throw new EvaluationError("PROFILE cannot be nested");
+		profiler.start();
+		this.profiler = profiler;
+		try {
+			return eval(expression);
+		} finally {
+			this.profiler = null;
+			profiler.stop();
+		}
+	}
+
+	private Symbol step(Symbol symbol)
 	{
 		Symbol value;
 		if (symbol.isAtom()) {
 			if (trace) {
-				System.out.print("atom: " + symbol);
+				out.print("atom: ");
+				print(symbol);
 			}
 			value = processAtom.apply(symbol);
 			if (trace) {
-				System.out.println(", value: " + value);
+				out.print(", value: ");
+				print(value);
+				out.println();
 			}
 			return value;
 		}
 
 		Symbol function = symbol.getCar();
 		if (trace) {
-			System.out.println("function: " + function + ", expression: " + symbol);
+			out.print("function: ");
+			print(function);
+			out.print(", expression: ");
+			print(symbol);
+			out.println();
 		}
 		if (function.isList()) {
 			if (function.getCar().getType() == Token.LAMBDA)
 				return predefined.get(Token.LAMBDA).apply(symbol);
 		}
 
-		int functionType = function.getType();
+		if (tracer != null && function.getType() != Token.ID)
+			value = tracedApply(function, symbol);
+		else
+			value = apply(function, symbol);
+		if (trace && value != TAIL_CALL) {
+			out.print("function: ");
+			print(function);
+			out.print(", value: ");
+			print(value);
+			out.println();
+		}
+		return value;
+	}
+
+	/**
+	 * Applies a builtin for the tracer.
+	 */
+	private Symbol tracedApply(Symbol function, Symbol symbol)
+	{
+		Tracer tracer = this.tracer;
+		int type = function.getType();
+		long start = tracer.enter(null);
+		Symbol value = Tracer.RAISED;
+		try {
+			value = apply(function, symbol);
+			return value;
+		} finally {
+			tracer.exit(type, start, value == TAIL_CALL ? null : value);
+		}
+	}
 
+	/**
+	 * Applies the builtin named by <code>function</code>, or calls the user
+	 * function of that name.
+	 */
+	private Symbol apply(Symbol function, Symbol symbol)
+	{
+		int functionType = function.getType();
 		switch (functionType) {
 		case Token.END:
 		case Token.NIL:
@@ -91,22 +762,25 @@ public class Interpreter implements Serializable
 		case Token.INVALID:
 			throw new EvaluationError(function + " is not a valid symbol");
 		case Token.NAND:
-			value = predefined.get(Token.NOT).apply(predefined.get(Token.AND).apply(symbol));
-			break;
+			return predefined.get(Token.NOT).apply(predefined.get(Token.AND).apply(symbol));
 		case Token.NOR:
-			value = predefined.get(Token.NOT).apply(predefined.get(Token.OR).apply(symbol));
-			break;
+			return predefined.get(Token.NOT).apply(predefined.get(Token.OR).apply(symbol));
 		default:
 			Function<Symbol, Symbol> operation = predefined.get(functionType);
 			if (operation == null) {
 				throw new EvaluationError("Undefined: " + function);
 			}
-			value = operation.apply(symbol);
-		}
-		if (trace) {
-			System.out.println("function: " + function + ", value: " + value);
+			Profiler profiler = this.profiler;
+			// user functions are on the profiled stack already
+			if (profiler == null || functionType == Token.ID)
+				return operation.apply(symbol);
+			int entered = profiler.enterBuiltin(functionType);
+			try {
+				return operation.apply(symbol);
+			} finally {
+				profiler.exitBuiltin(entered);
+			}
 		}
-		return value;
 	}
 
 	private void checkId(Symbol id)
@@ -185,10 +859,13 @@ public class Interpreter implements Serializable
 																			return Symbol.NIL;
 																		case Token.EXIT:
 																		case Token.QUIT:
-																			System.exit(0);
+																			onExit.run();
 																		case Token.END:
 																			break;
 																		case Token.ID:
+																			Environment frame = environment == null ? null : environment.lookup(symbol);
+																			if (frame != null)
+																				return frame.get(frame.indexOf(symbol));
 																			Symbol value = symbolTable.get(symbol.getCode());
 																			if (value == null)
 																				return Symbol.TRUE;
@@ -208,33 +885,63 @@ public class Interpreter implements Serializable
 	private final Function<Symbol, Symbol> processBlock             = (symbol) -> {
 		                                                                List<Symbol> list = symbol.getSymbolList();
 		                                                                list.remove(0);
-		                                                                Symbol value = Symbol.NIL;
-		                                                                for (Symbol s : list) {
-			                                                                value = eval(s);
+		                                                                if (list.isEmpty())
+			                                                                return Symbol.NIL;
+		                                                                int last = list.size() - 1;
+		                                                                for (int i = 0; i < last; ++i) {
+			                                                                eval(list.get(i));
 		                                                                }
-		                                                                return value;
+		                                                                return tailCall(list.get(last), environment);
 	                                                                };
 
 	private final Function<Symbol, Symbol> processCar               = (symbol) -> {
 		                                                                List<Symbol> list = getArgs(symbol, 1);
-		                                                                Symbol first = eval(list.get(0));
+		                                                                Symbol first = eval(list.get(0)).realize();
 		                                                                checkList(first);
 		                                                                return first.getCar();
 	                                                                };
 
 	private final Function<Symbol, Symbol> processCdr               = (symbol) -> {
 		                                                                List<Symbol> list = getArgs(symbol, 1);
-		                                                                Symbol first = eval(list.get(0));
+		                                                                Symbol first = eval(list.get(0)).realize();
 		                                                                checkList(first);
 		                                                                return first.getCdr();
 	                                                                };
 
 	private final Function<Symbol, Symbol> processClear             = (symbol) -> {
+		                                                                clearMemos();
 		                                                                symbolTable = new HashMap<String, Symbol>();
 		                                                                functionTable = new HashMap<String, Lambda>();
+		                                                                memoized = new HashSet<String>();
+		                                                                ++definitions;
+		                                                                ++changes;
 		                                                                return Symbol.TRUE;
 	                                                                };
 
+	private final Function<Symbol, Symbol> processCompile           = (symbol) -> {
+		                                                                List<Symbol> list = getArgs(symbol, 1);
+		                                                                setCompiled(!eval(list.get(0)).isNil());
+		                                                                return Symbol.TRUE;
+	                                                                };
+
+	static {
+		help.put("MODE", "(MODE <mode>) selects the evaluator: 'tree for the recursive tree-walker, 'compiled for compiled "
+		        + "nodes or 'stack for the evaluator that keeps its stack on the heap and so is not limited by the Java "
+		        + "stack in deep recursion. (MODE) returns the current one.");
+	}
+	private final Function<Symbol, Symbol> processMode              = (symbol) -> {
+		                                                                List<Symbol> list = symbol.getCdr().getSymbolList();
+		                                                                if (list.isEmpty())
+			                                                                return Symbol.intern(mode.name());
+		                                                                Symbol first = eval(list.get(0));
+		                                                                try {
+			                                                                mode = EvaluationMode.valueOf(first.getCode().toUpperCase());
+		                                                                } catch (Exception e) {
+			                                                                throw new EvaluationError(first + " is not an evaluation mode");
+		                                                                }
+		                                                                return first;
+	                                                                };
+
 	private final Function<Symbol, Symbol> processCond              = (symbol) -> {
 		                                                                List<Symbol> list = getArgs(symbol, 1);
 
@@ -248,7 +955,7 @@ public class Interpreter implements Serializable
 			                                                                }
 			                                                                if (eval(condCase.get(0)).isNil())
 				                                                                continue;
-			                                                                return eval(condCase.get(1));
+			                                                                return tailCall(condCase.get(1), environment);
 		                                                                }
 		                                                                return Symbol.NIL;
 	                                                                };
@@ -258,22 +965,7 @@ public class Interpreter implements Serializable
 		                                                                Symbol first = eval(list.get(0));
 		                                                                Symbol second = eval(list.get(1));
 		                                                                int functionType = symbol.getCar().getType();
-
-		                                                                if (first.getType() != second.getType()) {
-			                                                                throw new EvaluationError(
-			                                                                        "Comparators expect two numbers or two strings as arguments");
-		                                                                }
-		                                                                if (!(first.getType() == Token.NUMBER || first.getType() == Token.STRING)) {
-			                                                                throw new EvaluationError(
-			                                                                        "Comparators expect two numbers or two strings as arguments");
-		                                                                }
-		                                                                int comparatorValue;
-		                                                                if (first.getType() == Token.NUMBER) {
-			                                                                comparatorValue = new BigInteger(first.getCode()).compareTo(new BigInteger(second
-			                                                                        .getCode()));
-		                                                                } else {
-			                                                                comparatorValue = first.getCode().compareTo(second.getCode());
-		                                                                }
+		                                                                int comparatorValue = compare(first, second);
 		                                                                switch (functionType) {
 																		case Token.LT:
 																			return comparatorValue < 0 ? Symbol.TRUE : Symbol.NIL;
@@ -289,9 +981,11 @@ public class Interpreter implements Serializable
 
 	private final Function<Symbol, Symbol> processCount             = (symbol) -> {
 		                                                                List<Symbol> list = getArgs(symbol, 1);
-		                                                                Symbol first = eval(list.get(0));
+		                                                                Symbol first = eval(list.get(0)).realize();
+		                                                                if (first.isVector() || first.isTable())
+			                                                                return Symbol.number(first.getSize());
 		                                                                checkList(first);
-		                                                                return new Symbol(new Token(Token.NUMBER, "" + first.getLength()));
+		                                                                return Symbol.number(first.getLength());
 	                                                                };
 
 	private final Function<Symbol, Symbol> processDefun             = (symbol) -> {
@@ -301,17 +995,97 @@ public class Interpreter implements Serializable
 		                                                                checkListOfIds(list.get(1));
 		                                                                List<Symbol> varsList = list.get(1).getSymbolList();
 		                                                                Symbol code = list.get(2);
-		                                                                functionTable.put(id.getCode(), new Lambda(code, varsList));
+		                                                                Lambda lambda = new Lambda(id, code, varsList, environment);
+		                                                                Lambda previous = functionTable.put(id.getCode(), lambda);
+		                                                                if (previous != null) {
+			                                                                Events.Redefinition event = new Events.Redefinition();
+			                                                                if (event.isEnabled()) {
+				                                                                event.function = id.getCode();
+				                                                                event.tiered = previous.isTiered();
+				                                                                event.memoized = previous.getMemo() != null;
+				                                                                event.commit();
+			                                                                }
+			                                                                previous.deoptimize();
+			                                                                if (previous.getMemo() != null)
+				                                                                lambda.setMemo(new Memo(previous.getMemo().getCapacity()));
+		                                                                }
+		                                                                clearMemos();
+		                                                                ++definitions;
+		                                                                return id;
+	                                                                };
+
+	/**
+	 * Forgets the results of every memoized function, which may have depended
+	 * on a definition that just changed.
+	 */
+	private void clearMemos()
+	{
+		for (String name : memoized) {
+			functionTable.get(name).getMemo().clear();
+		}
+	}
+
+	static {
+		help.put("MEMOIZE", "(MEMOIZE <function> <size>) makes <function> remember the results of its last <size> "
+		        + "distinct calls, keyed by the argument values; (MEMOIZE <function>) remembers 10000 and a size of 0 "
+		        + "makes it forget. Redefining any function or CLEAR empties the caches. It is meant for functions "
+		        + "without side effects that do not read globals.");
+	}
+	private final Function<Symbol, Symbol> processMemoize           = (symbol) -> {
+		                                                                List<Symbol> list = symbol.getCdr().getSymbolList();
+		                                                                if (list.isEmpty() || list.size() > 2)
+			                                                                throw new EvaluationError("MEMOIZE expects a function and a size");
+		                                                                Symbol id = list.get(0);
+		                                                                checkId(id);
+		                                                                Lambda lambda = functionTable.get(id.getCode());
+		                                                                if (lambda == null)
+			                                                                throw new EvaluationError(id + " is not defined");
+		                                                                int size = 10000;
+		                                                                if (list.size() == 2) {
+			                                                                Symbol second = eval(list.get(1));
+			                                                                if (!second.isFixnum() || second.getFixnum() < 0 || second.getFixnum() > Integer.MAX_VALUE)
+				                                                                throw new EvaluationError(second + " is not a cache size");
+			                                                                size = (int) second.getFixnum();
+		                                                                }
+		                                                                lambda.deoptimize();
+		                                                                lambda.setMemo(size == 0 ? null : new Memo(size));
+		                                                                if (size == 0)
+			                                                                memoized.remove(id.getCode());
+		                                                                else
+			                                                                memoized.add(id.getCode());
+		                                                                ++definitions;
 		                                                                return id;
 	                                                                };
 
+	static {
+		help.put("MEMO_STATS", "(MEMO_STATS <function>) returns the list (size capacity hits misses) for a memoized "
+		        + "<function>, or NIL if it is not memoized.");
+	}
+	private final Function<Symbol, Symbol> processMemoStats         = (symbol) -> {
+		                                                                List<Symbol> list = symbol.getCdr().getSymbolList();
+		                                                                if (list.size() != 1)
+			                                                                throw new EvaluationError("MEMO_STATS expects a function");
+		                                                                Symbol id = list.get(0);
+		                                                                checkId(id);
+		                                                                Lambda lambda = functionTable.get(id.getCode());
+		                                                                if (lambda == null)
+			                                                                throw new EvaluationError(id + " is not defined");
+		                                                                Memo memo = lambda.getMemo();
+		                                                                if (memo == null)
+			                                                                return Symbol.NIL;
+		                                                                Symbol stats = Symbol.NIL;
+		                                                                stats = Symbol.push(Symbol.number(memo.getMisses()), stats);
+		                                                                stats = Symbol.push(Symbol.number(memo.getHits()), stats);
+		                                                                stats = Symbol.push(Symbol.number(memo.getCapacity()), stats);
+		                                                                stats = Symbol.push(Symbol.number(memo.size()), stats);
+		                                                                return stats;
+	                                                                };
+
 	private final Function<Symbol, Symbol> processDiv               = (symbol) -> {
 		                                                                List<Symbol> list = getArgs(symbol, 2);
-		                                                                BigInteger value;
 		                                                                try {
-			                                                                value = new BigInteger(eval(list.get(0)).getCode());
-			                                                                value = value.divide(new BigInteger(eval(list.get(1)).getCode()));
-			                                                                return new Symbol(new Token(Token.NUMBER, value.toString()));
+			                                                                Symbol first = eval(list.get(0));
+			                                                                return Numbers.divide(first, eval(list.get(1)));
 		                                                                } catch (Exception e) {
 			                                                                throw new EvaluationError("processDiv() error: " + symbol);
 		                                                                }
@@ -341,6 +1115,8 @@ public class Interpreter implements Serializable
 																		case 1:
 																			symbol = list.get(0);
 																			knowledgeBase.add(symbol);
+																			resolver = null;
+																			++changes;
 																			return symbol;
 																		default:
 																			symbol = Symbol.NIL;
@@ -352,9 +1128,88 @@ public class Interpreter implements Serializable
 																			}
 																		}
 																		ruleBase.add(symbol);
+																		resolver = null;
+																		++changes;
 																		return symbol;
 																	};
 
+	static {
+		help.put("QUERY", "(QUERY <pattern>) returns the list of the facts added with DOT that match <pattern>, where "
+		        + "identifiers that start with ? are variables: (QUERY (parent ?x bob)) returns every fact (parent "
+		        + "<someone> bob). (QUERY <pattern> <template>) returns <template> with the variables replaced, once for "
+		        + "each fact that matches: (QUERY (parent ?x bob) ?x). The arguments are not evaluated.");
+	}
+	private final Function<Symbol, Symbol> processQuery             = (symbol) -> {
+		                                                                List<Symbol> list = symbol.getCdr().getSymbolList();
+		                                                                if (list.isEmpty() || list.size() > 2)
+			                                                                throw new EvaluationError("QUERY expects a pattern and a template");
+		                                                                Symbol pattern = list.get(0);
+		                                                                Symbol template = list.size() == 2 ? list.get(1) : pattern;
+		                                                                Map<Symbol, Symbol> bindings = new HashMap<Symbol, Symbol>();
+		                                                                Symbol result = Symbol.NIL;
+		                                                                Symbol last = null;
+		                                                                for (Iterator<Symbol> facts = knowledgeBase.candidates(pattern); facts.hasNext();) {
+			                                                                bindings.clear();
+			                                                                if (!FactBase.match(pattern, facts.next(), bindings))
+				                                                                continue;
+			                                                                Symbol node = Symbol.push(FactBase.substitute(template, bindings), Symbol.NIL);
+			                                                                if (last == null)
+				                                                                result = node;
+			                                                                else
+				                                                                last.setCdr(node);
+			                                                                last = node;
+		                                                                }
+		                                                                return result;
+	                                                                };
+
+	/**
+	 * Proves <code>goal</code> from the facts and the rules, see
+	 * {@link Resolver}.
+	 *
+	 * @return the instances of <code>template</code> for each proof, found as
+	 *         they are read
+	 */
+	public Iterator<Symbol> prove(Symbol goal, Symbol template)
+	{
+		if (resolver == null)
+			resolver = new Resolver(knowledgeBase, ruleBase);
+		return resolver.prove(goal, template);
+	}
+
+	static {
+		help.put("PROVE", "(PROVE <goal>) returns the list of the instances of <goal> that follow from the facts and the "
+		        + "rules added with DOT, where identifiers that start with ? are variables. A rule (. <head> <goal1> "
+		        + "<goal2> ...) proves <head> when all its goals can be proved: (. (anc ?x ?y) (parent ?x ?y)) and "
+		        + "(. (anc ?x ?y) (anc ?x ?z) (parent ?z ?y)) make (PROVE (anc tom ?who)) return every descendant of tom. "
+		        + "(PROVE <goal> <template>) returns <template> with the variables replaced, once for each proof, and "
+		        + "(PROVE <goal> <template> <n>) stops after the first <n>. Only <n> is evaluated.");
+	}
+	private final Function<Symbol, Symbol> processProve             = (symbol) -> {
+		                                                                List<Symbol> list = symbol.getCdr().getSymbolList();
+		                                                                if (list.isEmpty() || list.size() > 3)
+			                                                                throw new EvaluationError("PROVE expects a goal, a template and a count");
+		                                                                Symbol goal = list.get(0);
+		                                                                Symbol template = list.size() > 1 ? list.get(1) : goal;
+		                                                                long limit = Long.MAX_VALUE;
+		                                                                if (list.size() == 3) {
+			                                                                Symbol count = eval(list.get(2));
+			                                                                if (!count.isFixnum() || count.getFixnum() < 0)
+				                                                                throw new EvaluationError(count + " is not a count");
+			                                                                limit = count.getFixnum();
+		                                                                }
+		                                                                Symbol result = Symbol.NIL;
+		                                                                Symbol last = null;
+		                                                                for (Iterator<Symbol> proofs = prove(goal, template); limit > 0 && proofs.hasNext(); --limit) {
+			                                                                Symbol node = Symbol.push(proofs.next(), Symbol.NIL);
+			                                                                if (last == null)
+				                                                                result = node;
+			                                                                else
+				                                                                last.setCdr(node);
+			                                                                last = node;
+		                                                                }
+		                                                                return result;
+	                                                                };
+
 	private final Function<Symbol, Symbol> processEqual             = (symbol) -> {
 		                                                                List<Symbol> list = getArgs(symbol, 2);
 		                                                                Symbol first = eval(list.get(0));
@@ -364,7 +1219,7 @@ public class Interpreter implements Serializable
 
 	private final Function<Symbol, Symbol> processEval              = (symbol) -> {
 		                                                                List<Symbol> list = getArgs(symbol, 1);
-		                                                                return eval(list.get(0));
+		                                                                return tailCall(list.get(0), environment);
 	                                                                };
 
 	private final Function<Symbol, Symbol> processFor               = (symbol) -> {
@@ -398,7 +1253,7 @@ public class Interpreter implements Serializable
 
 	private final Function<Symbol, Symbol> processForList           = (symbol) -> {
 		                                                                List<Symbol> list = getArgs(symbol, 2);
-		                                                                Symbol first = eval(list.get(0));
+		                                                                Symbol first = eval(list.get(0)).realize();
 		                                                                checkList(first);
 		                                                                Symbol second = list.get(1);
 		                                                                List<Symbol> loopList = first.getSymbolList();
@@ -413,26 +1268,67 @@ public class Interpreter implements Serializable
 		                                                                return Symbol.reverse(loopValue);
 	                                                                };
 
+	static {
+		help.put("PFOR_LIST", "(PFOR_LIST <list> <function>) returns the same list as FOR_LIST, but long lists are split "
+		        + "and evaluated on several threads, each with its own copy of the globals and definitions. It is "
+		        + "meant for functions without side effects.");
+	}
+	private final Function<Symbol, Symbol> processPforList          = (symbol) -> {
+		                                                                List<Symbol> list = symbol.getCdr().getSymbolList();
+		                                                                if (list.size() != 2)
+			                                                                throw new EvaluationError("PFOR_LIST expects a list and a function");
+		                                                                Symbol first = eval(list.get(0)).realize();
+		                                                                checkList(first);
+		                                                                Symbol second = list.get(1);
+		                                                                Symbol[] elements = first.getSymbolList().toArray(new Symbol[0]);
+		                                                                Symbol loopValue = Symbol.NIL;
+		                                                                if (walking() || !ParallelList.worthSplitting(elements.length, parallelThreshold)) {
+			                                                                for (Symbol s : elements) {
+				                                                                loopValue = Symbol.push(eval(ParallelList.call(second, s)), loopValue);
+			                                                                }
+			                                                                return Symbol.reverse(loopValue);
+		                                                                }
+		                                                                Symbol[] values = new ParallelList(this, second, environment, elements).map();
+		                                                                for (int i = values.length - 1; i >= 0; --i) {
+			                                                                loopValue = Symbol.push(values[i], loopValue);
+		                                                                }
+		                                                                return loopValue;
+	                                                                };
+
+	static {
+		help.put("PREDUCE", "(PREDUCE <list> <function> <initial>) combines <initial> and the elements of <list> with the "
+		        + "two argument <function>, from left to right. Long lists are combined in chunks on several threads, "
+		        + "which gives the same value when <function> is associative and has no side effects.");
+	}
+	private final Function<Symbol, Symbol> processPreduce           = (symbol) -> {
+		                                                                List<Symbol> list = symbol.getCdr().getSymbolList();
+		                                                                if (list.size() != 3)
+			                                                                throw new EvaluationError("PREDUCE expects a list, a function and an initial value");
+		                                                                Symbol first = eval(list.get(0)).realize();
+		                                                                checkList(first);
+		                                                                Symbol second = list.get(1);
+		                                                                Symbol value = eval(list.get(2));
+		                                                                Symbol[] elements = first.getSymbolList().toArray(new Symbol[0]);
+		                                                                if (!walking() && ParallelList.worthSplitting(elements.length, parallelThreshold))
+			                                                                return new ParallelList(this, second, environment, elements).reduce(value);
+		                                                                for (Symbol s : elements) {
+			                                                                value = eval(ParallelList.call(second, value, s));
+		                                                                }
+		                                                                return value;
+	                                                                };
+
 	private final Function<Symbol, Symbol> processId                = (symbol) -> {
 		                                                                Symbol function = symbol.getCar();
 		                                                                Lambda lambda = functionTable.get(function.getCode());
 		                                                                if (lambda == null) {
 			                                                                throw new EvaluationError(function + " is not defined");
 		                                                                }
-		                                                                Symbol code = lambda.getCode();
-		                                                                List<Symbol> variables = lambda.getVarsList();
-		                                                                List<Symbol> values = symbol.getCdr().getSymbolList();
-		                                                                for (int i = 0; i < values.size(); ++i) {
-			                                                                Symbol value = (Symbol.push(values.get(i), Symbol.NIL));
-			                                                                value = (Symbol.push(Symbol.EVAL, value));
-			                                                                values.set(i, eval(value));
+		                                                                List<Symbol> args = symbol.getCdr().getSymbolList();
+		                                                                Symbol[] values = new Symbol[args.size()];
+		                                                                for (int i = 0; i < values.length; ++i) {
+			                                                                values[i] = eval(args.get(i));
 		                                                                }
-		                                                                if (variables.size() != values.size()) {
-			                                                                throw new EvaluationError(function + " requires " + variables.size() + " arguments");
-		                                                                }
-		                                                                if (code.isNil())
-			                                                                return Symbol.NIL;
-		                                                                return eval(Symbol.map(variables, values, code));
+		                                                                return tailInvoke(function, lambda, values);
 	                                                                };
 
 	private final Function<Symbol, Symbol> processIf                = (symbol) -> {
@@ -441,17 +1337,20 @@ public class Interpreter implements Serializable
 		                                                                Symbol ifTrue = list.get(1);
 		                                                                Symbol ifFalse = list.get(2);
 		                                                                if (eval(condition).isNil())
-			                                                                return eval(ifFalse);
-		                                                                return eval(ifTrue);
+			                                                                return tailCall(ifFalse, environment);
+		                                                                return tailCall(ifTrue, environment);
 	                                                                };
 
 	private final Function<Symbol, Symbol> processLambda            = (symbol) -> {
-		                                                                Symbol idSymbol = new Symbol(Token.ID, getId());
-		                                                                Symbol lambda = symbol.getCar().getCdr();
-		                                                                Symbol args = symbol.getCdr();
-		                                                                Symbol defun = Symbol.DEFUN;
-		                                                                processDefun.apply(Symbol.push(defun, Symbol.push(idSymbol, lambda)));
-		                                                                return eval(Symbol.push(idSymbol, args));
+		                                                                List<Symbol> list = getArgs(symbol.getCar(), 2);
+		                                                                checkListOfIds(list.get(0));
+		                                                                Lambda lambda = new Lambda(list.get(1), list.get(0).getSymbolList(), environment);
+		                                                                List<Symbol> args = symbol.getCdr().getSymbolList();
+		                                                                Symbol[] values = new Symbol[args.size()];
+		                                                                for (int i = 0; i < values.length; ++i) {
+			                                                                values[i] = eval(args.get(i));
+		                                                                }
+		                                                                return tailInvoke(newId(), lambda, values);
 	                                                                };
 
 	private final Function<Symbol, Symbol> processLet               = (symbol) -> {
@@ -461,29 +1360,29 @@ public class Interpreter implements Serializable
 		                                                                Symbol code = list.get(1);
 		                                                                checkList(code);
 		                                                                if (assoc.size() == 0)
-			                                                                return eval(code);
-		                                                                List<Symbol> variables = new ArrayList<Symbol>();
-		                                                                List<Symbol> values = new ArrayList<Symbol>();
-		                                                                for (Symbol s : assoc) {
+			                                                                return tailCall(code, environment);
+		                                                                Symbol[] variables = new Symbol[assoc.size()];
+		                                                                Symbol[] values = new Symbol[assoc.size()];
+		                                                                for (int i = 0; i < variables.length; ++i) {
+			                                                                Symbol s = assoc.get(i);
 			                                                                checkList(s);
 			                                                                List<Symbol> pair = s.getSymbolList();
 			                                                                if (pair.size() != 2 || !pair.get(0).isId()) {
 				                                                                throw new EvaluationError(
 				                                                                        "The first argument to let must be a list of pairs (id value)");
 			                                                                }
-			                                                                String id = getId();
-			                                                                Symbol idSymbol = new Symbol(Token.ID, id);
-			                                                                variables.add(pair.get(0));
-			                                                                values.add(idSymbol);
-			                                                                symbolTable.put(id, eval(pair.get(1)));
-		                                                                }
-		                                                                Symbol.map(variables, values, code);
-		                                                                Symbol value = Symbol.NIL;
+			                                                                variables[i] = pair.get(0);
+			                                                                values[i] = eval(pair.get(1));
+		                                                                }
+		                                                                Environment frame = new Environment(variables, values, environment);
 		                                                                List<Symbol> codes = code.getSymbolList();
-		                                                                for (Symbol s : codes) {
-			                                                                value = eval(s);
+		                                                                if (codes.isEmpty())
+			                                                                return Symbol.NIL;
+		                                                                int last = codes.size() - 1;
+		                                                                for (int i = 0; i < last; ++i) {
+			                                                                eval(codes.get(i), frame);
 		                                                                }
-		                                                                return value;
+		                                                                return tailCall(codes.get(last), frame);
 	                                                                };
 
 	private final Function<Symbol, Symbol> processLoad              = (symbol) -> {
@@ -492,14 +1391,14 @@ public class Interpreter implements Serializable
 			                                                                throw new EvaluationError("Load expects the name of a file as an argument");
 		                                                                }
 		                                                                String filename = list.get(0).getCode();
-		                                                                boolean traceValue = trace;
-		                                                                try (InputStream fileInput = new FileInputStream(filename)) {
-			                                                                Parser fileParser = new Parser(fileInput);
-			                                                                trace = true;
-			                                                                Symbol parsedSymbol;
-			                                                                do {
-				                                                                eval(parsedSymbol = fileParser.getExpression());
-			                                                                } while (parsedSymbol.getType() != Token.END);
+		                                                                Events.Load event = new Events.Load();
+		                                                                event.begin();
+		                                                                event.path = filename;
+		                                                                try (FileInputStream fileInput = new FileInputStream(filename)) {
+			                                                                SourceLoader.load(fileInput.getChannel(), form -> {
+				                                                                ++event.forms;
+				                                                                evaluate(form);
+			                                                                });
 			                                                                return Symbol.TRUE;
 		                                                                } catch (FileNotFoundException e) {
 			                                                                throw new EvaluationError("Load expects the name of a file as an argument");
@@ -508,10 +1407,137 @@ public class Interpreter implements Serializable
 		                                                                } catch (NullPointerException npe) {
 			                                                                return Symbol.TRUE;
 		                                                                } finally {
-			                                                                trace = traceValue;
+			                                                                event.commit();
+		                                                                }
+	                                                                };
+
+	/**
+	 * @return the sizes of the globals, the functions, the facts and the
+	 *         rules, the gensym counter, and the counts and latencies of the
+	 *         top level forms evaluated so far. It can be called from any
+	 *         thread; the sizes are read without locking and may be a little
+	 *         behind.
+	 */
+	public Metrics.Snapshot getMetrics()
+	{
+		return metrics.snapshot(symbolTable.size(), functionTable.size(), knowledgeBase.size(), ruleBase.size(), id);
+	}
+
+	/**
+	 * Publishes {@link #getMetrics()} on the platform MBean server as
+	 * <code>com.ochavoya.languages:type=Interpreter,name=</code><i>name</i>,
+	 * see {@link InterpreterMXBean}.
+	 *
+	 * @throws IllegalStateException
+	 *             if the interpreter is already registered
+	 */
+	public void registerMBean(String name)
+	{
+		if (mbean != null)
+			throw new IllegalStateException("already registered as " + mbean);
+		try {
+			ObjectName objectName = new ObjectName("com.ochavoya.languages:type=Interpreter,name=" + name);
+			InterpreterMXBean bean = this::getMetrics;
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new StandardMBean(bean, InterpreterMXBean.class, true),
+			        objectName);
+			mbean = objectName;
+		} catch (JMException e) {
+			throw new IllegalArgumentException(name + " cannot be registered: " + e.getMessage(), e);
+		}
+	}
+
+	public void unregisterMBean()
+	{
+		if (mbean == null)
+			return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbean);
+		} catch (JMException e) {
+			// already gone
+		}
+		mbean = null;
+	}
+
+	/**
+	 * Writes the globals, the functions, the facts and the rules to an image
+	 * at <code>path</code>, see {@link #restore(Path)}.
+	 */
+	public void save(Path path) throws IOException
+	{
+		Image.save(path, symbolTable, functionTable, knowledgeBase, ruleBase);
+	}
+
+	/**
+	 * Replaces the globals, the functions, the facts and the rules with those
+	 * of an image written by {@link #save(Path)}.
+	 *
+	 * @throws StreamCorruptedException
+	 *             if the file is not an image
+	 */
+	public void restore(Path path) throws IOException
+	{
+		Image image = Image.restore(path);
+		symbolTable = image.symbolTable;
+		functionTable = image.functionTable;
+		knowledgeBase = image.knowledgeBase;
+		ruleBase = image.ruleBase;
+		resolver = null;
+		memoized = new HashSet<String>();
+		for (Map.Entry<String, Lambda> entry : functionTable.entrySet()) {
+			if (entry.getValue().getMemo() != null)
+				memoized.add(entry.getKey());
+		}
+		++definitions;
+		++changes;
+	}
+
+	static {
+		help.put("SAVE", "(SAVE <file>) writes the global variables, the functions, the facts and the rules to the image "
+		        + "<file>, which RESTORE reads back much faster than LOAD can read their source.");
+		help.put("RESTORE", "(RESTORE <file>) replaces the global variables, the functions, the facts and the rules with "
+		        + "those saved in the image <file>.");
+	}
+	private final Function<Symbol, Symbol> processSave              = (symbol) -> {
+		                                                                Path path = imagePath(symbol, "SAVE");
+		                                                                try {
+			                                                                save(path);
+			                                                                return Symbol.TRUE;
+		                                                                } catch (IOException e) {
+			                                                                throw new EvaluationError("I/O Error");
+		                                                                }
+	                                                                };
+
+	private final Function<Symbol, Symbol> processRestore           = (symbol) -> {
+		                                                                Path path = imagePath(symbol, "RESTORE");
+		                                                                try {
+			                                                                restore(path);
+			                                                                return Symbol.TRUE;
+		                                                                } catch (NoSuchFileException e) {
+			                                                                throw new EvaluationError(path + " does not exist");
+		                                                                } catch (StreamCorruptedException e) {
+			                                                                throw new EvaluationError(path + " is not a saved image");
+		                                                                } catch (IOException e) {
+			                                                                throw new EvaluationError("I/O Error");
 		                                                                }
 	                                                                };
 
+	private Path imagePath(Symbol symbol, String name)
+	{
+		List<Symbol> list = symbol.getCdr().getSymbolList();
+		return filePath(list.size() == 1 ? eval(list.get(0)) : Symbol.NIL, name);
+	}
+
+	private static Path filePath(Symbol file, String name)
+	{
+		if (file.getType() != Token.STRING)
+			throw new EvaluationError(name + " expects the name of a file as an argument");
+		try {
+			return Paths.get(file.getCode());
+		} catch (InvalidPathException e) {
+			throw new EvaluationError(file.getCode() + " is not a valid file name");
+		}
+	}
+
 	private final Function<Symbol, Symbol> processListp             = (symbol) -> {
 		                                                                List<Symbol> list = getArgs(symbol, 1);
 		                                                                return list.get(0).isList() ? Symbol.TRUE : Symbol.NIL;
@@ -531,20 +1557,16 @@ public class Interpreter implements Serializable
 		                                                                }
 		                                                                Symbol first = null;
 		                                                                Symbol second = null;
-		                                                                BigInteger value = new BigInteger("0");
 		                                                                try {
 			                                                                switch (list.size()) {
 																			case 1:
 																				first = eval(list.get(0));
-																				value = value.subtract(new BigInteger(first.getCode()));
-																				break;
-																			case 2:
+																				return Numbers.negate(first);
+																			default:
 																				first = eval(list.get(0));
-																				value = new BigInteger(first.getCode());
 																				second = eval(list.get(1));
-																				value = value.subtract(new BigInteger(second.getCode()));
+																				return Numbers.subtract(first, second);
 																			}
-																			return new Symbol(new Token(Token.NUMBER, value.toString()));
 																		} catch (Exception e1) {
 																			throw new EvaluationError("processMinus(): " + symbol);
 																		}
@@ -554,11 +1576,8 @@ public class Interpreter implements Serializable
 		                                                                List<Symbol> list = getArgs(symbol, 2);
 		                                                                Symbol first = eval(list.get(0));
 		                                                                Symbol second = eval(list.get(1));
-		                                                                BigInteger value;
 		                                                                try {
-			                                                                value = new BigInteger(first.getCode());
-			                                                                value = value.mod(new BigInteger(second.getCode()));
-			                                                                return new Symbol(new Token(Token.NUMBER, value.toString()));
+			                                                                return Numbers.mod(first, second);
 		                                                                } catch (Exception e1) {
 			                                                                throw new EvaluationError("processModule(): " + symbol);
 		                                                                }
@@ -588,11 +1607,11 @@ public class Interpreter implements Serializable
 	private final Function<Symbol, Symbol> processPlus              = (symbol) -> {
 		                                                                List<Symbol> list = symbol.getCdr().getSymbolList();
 		                                                                try {
-			                                                                BigInteger value = new BigInteger("0");
+			                                                                Symbol value = Numbers.ZERO;
 			                                                                for (Symbol s : list) {
-				                                                                value = value.add(new BigInteger(eval(s).getCode()));
+				                                                                value = Numbers.add(value, eval(s));
 			                                                                }
-			                                                                return new Symbol(new Token(Token.NUMBER, value.toString()));
+			                                                                return value;
 		                                                                } catch (Exception e1) {
 			                                                                throw new EvaluationError("Invalid expression " + symbol);
 		                                                                }
@@ -615,7 +1634,8 @@ public class Interpreter implements Serializable
 		                                                                List<Symbol> list = symbol.getCdr().getSymbolList();
 		                                                                switch (list.size()) {
 																		case 1:
-																			System.out.println(eval(list.get(0)));
+																			print(eval(list.get(0)));
+																			out.println();
 																		case 0:
 																			return eval(parser.getExpression());
 																		}
@@ -634,7 +1654,7 @@ public class Interpreter implements Serializable
 		                                                                Symbol id = list.get(0);
 		                                                                checkId(id);
 		                                                                Symbol second = eval(list.get(1));
-		                                                                symbolTable.put(id.getCode(), second);
+		                                                                assign(id, second);
 		                                                                return second;
 	                                                                };
 
@@ -643,7 +1663,7 @@ public class Interpreter implements Serializable
 		                                                                Symbol id = eval(list.get(0));
 		                                                                checkId(id);
 		                                                                Symbol second = eval(list.get(1));
-		                                                                symbolTable.put(id.getCode(), second);
+		                                                                assign(id, second);
 		                                                                return second;
 	                                                                };
 
@@ -653,24 +1673,105 @@ public class Interpreter implements Serializable
 		                                                                return first.getType() == Token.STRING ? Symbol.TRUE : Symbol.NIL;
 	                                                                };
 
+	static {
+		help.put("TRACE", "(TRACE T) prints every atom and function the tree-walker evaluates and (TRACE NIL) stops "
+		        + "it. (TRACE <file> <every> <functions>) instead records each call of a user function or a builtin, "
+		        + "when it started, how long it took and what it returned, to <file> in a compact binary form, keeping "
+		        + "one record in <every>, all of them when it is left out, and with a list of <functions>, only their "
+		        + "calls and the calls they make. (TRACE NIL) stops that too. The interpreter prints such a file when "
+		        + "started with --decode <file>.");
+	}
 	private final Function<Symbol, Symbol> processTrace             = (symbol) -> {
-		                                                                List<Symbol> list = getArgs(symbol, 1);
-		                                                                if (eval(list.get(0)).isNil())
-			                                                                trace = false;
-		                                                                else
-			                                                                trace = true;
+		                                                                List<Symbol> list = symbol.getCdr().getSymbolList();
+		                                                                if (list.isEmpty() || list.size() > 3)
+			                                                                throw new EvaluationError("TRACE expects a flag or a file, a sampling rate and functions");
+		                                                                Symbol first = eval(list.get(0));
+		                                                                if (first.getType() != Token.STRING && list.size() == 1) {
+			                                                                trace = !first.isNil();
+			                                                                if (first.isNil())
+				                                                                setTracer(null);
+			                                                                return Symbol.TRUE;
+		                                                                }
+		                                                                Path path = filePath(first, "TRACE");
+		                                                                int every = 1;
+		                                                                if (list.size() > 1) {
+			                                                                Symbol second = eval(list.get(1));
+			                                                                if (!second.isFixnum() || second.getFixnum() < 1 || second.getFixnum() > Integer.MAX_VALUE)
+				                                                                throw new EvaluationError(second + " is not a sampling rate");
+			                                                                every = (int) second.getFixnum();
+		                                                                }
+		                                                                List<String> functions = new ArrayList<String>();
+		                                                                if (list.size() > 2) {
+			                                                                Symbol third = eval(list.get(2));
+			                                                                if (!third.isNil()) {
+				                                                                checkListOfIds(third);
+				                                                                for (Symbol id : third.getSymbolList())
+					                                                                functions.add(id.getCode());
+			                                                                }
+		                                                                }
+		                                                                try {
+			                                                                setTracer(new Tracer(path, every, functions));
+		                                                                } catch (IOException e) {
+			                                                                throw new EvaluationError("I/O Error");
+		                                                                }
 		                                                                return Symbol.TRUE;
 	                                                                };
 
+	static {
+		help.put("PROFILE", "(PROFILE <expression>) evaluates <expression> and prints, for each user function and "
+		        + "builtin it called, the number of calls, the time spent in it with and without the calls it made and "
+		        + "the bytes it allocated, longest first. The times are sampled every lisp.profile.interval "
+		        + "microseconds, 1000 by default. (PROFILE <expression> <file>) also writes the sampled stacks to <file> "
+		        + "in the collapsed format flame graph tools read. Like TRACE, it evaluates with the tree-walker. "
+		        + "Builtins are only counted, and their time is what was sampled outside the functions they called; "
+		        + "with lisp.profile.builtins set to true, they are on the stack like functions, at a higher cost.");
+	}
+	private final Function<Symbol, Symbol> processProfile           = (symbol) -> {
+		                                                                List<Symbol> list = symbol.getCdr().getSymbolList();
+		                                                                if (list.size() != 1 && list.size() != 2)
+			                                                                throw new EvaluationError("PROFILE expects an expression and the name of a file");
+		                                                                Path path = list.size() == 2 ? filePath(eval(list.get(1)), "PROFILE") : null;
+		                                                                Profiler profiler = new Profiler();
+		                                                                Symbol value = profile(list.get(0), profiler);
+		                                                                out.print(profiler.report());
+		                                                                if (path != null) {
+			                                                                try (Writer writer = Files.newBufferedWriter(path)) {
+				                                                                profiler.writeCollapsed(writer);
+			                                                                } catch (IOException e) {
+				                                                                throw new EvaluationError("I/O Error");
+			                                                                }
+		                                                                }
+		                                                                return value;
+	                                                                };
+
+	/**
+	 * Starts recording the calls the tree-walker makes with
+	 * <code>tracer</code>, see {@link Tracer}, or stops if it is null. The
+	 * tracer in use before is closed.
+	 */
+	public void setTracer(Tracer tracer)
+	{
+		Tracer previous = this.tracer;
+		this.tracer = tracer;
+		traceCall = null;
+		if (previous == null)
+			return;
+		try {
+			previous.close();
+		} catch (IOException e) {
+			throw new EvaluationError("I/O Error");
+		}
+	}
+
 	private final Function<Symbol, Symbol> processTimes             = (symbol) -> {
 		                                                                List<Symbol> list = symbol.getCdr().getSymbolList();
 
 		                                                                try {
-			                                                                BigInteger value = new BigInteger("1");
+			                                                                Symbol value = Numbers.ONE;
 			                                                                for (Symbol s : list) {
-				                                                                value = value.multiply(new BigInteger(eval(s).getCode()));
+				                                                                value = Numbers.multiply(value, eval(s));
 			                                                                }
-			                                                                return new Symbol(new Token(Token.NUMBER, value.toString()));
+			                                                                return value;
 		                                                                } catch (Exception e1) {
 			                                                                throw new EvaluationError("processTimes(): " + symbol);
 		                                                                }
@@ -682,6 +1783,7 @@ public class Interpreter implements Serializable
 			                                                                throw new EvaluationError(toUnset + " is not a valid id");
 		                                                                }
 		                                                                symbolTable.remove(toUnset.getCode());
+		                                                                ++changes;
 		                                                                return Symbol.TRUE;
 	                                                                };
 
@@ -700,11 +1802,397 @@ public class Interpreter implements Serializable
 	                                                                };
 
 	private final Function<Symbol, Symbol> processWrite             = (symbol) -> {
-		                                                                symbol.getCdr().getSymbolList().stream()
-		                                                                        .forEach((s) -> System.out.print(eval(s) + " "));
-		                                                                System.out.println();
+		                                                                for (Symbol rest = symbol.getCdr(); !rest.isNil(); rest = rest.getCdr()) {
+			                                                                print(eval(rest.getCar()));
+			                                                                out.print(' ');
+		                                                                }
+		                                                                out.println();
+		                                                                return Symbol.TRUE;
+	                                                                };
+	static {
+		help.put("VECTOR", "(VECTOR <arg1> <arg2> ...) returns a vector of the values of its arguments. A vector can also "
+		        + "be written #(<element1> <element2> ...), whose elements are not evaluated. Unlike a list, a vector "
+		        + "reads, sets and counts its elements in constant time.");
+		help.put("MAKE_VECTOR", "(MAKE_VECTOR <n> <value>) returns a vector of <n> elements set to <value>, or to NIL "
+		        + "when <value> is left out.");
+		help.put("VREF", "(VREF <vector> <i>) returns the element of <vector> at <i>, counting from 0.");
+		help.put("VSET", "(VSET <vector> <i> <value>) sets the element of <vector> at <i> to <value> and returns it.");
+		help.put("VLENGTH", "(VLENGTH <vector>) returns the number of elements of <vector>.");
+		help.put("VECTORP", "(VECTORP <arg>) returns TRUE if <arg> evaluates to a vector.");
+		help.put("LIST_TO_VECTOR", "(LIST_TO_VECTOR <list>) returns a vector with the elements of <list>.");
+		help.put("VECTOR_TO_LIST", "(VECTOR_TO_LIST <vector>) returns a list with the elements of <vector>.");
+	}
+
+	/**
+	 * @return the values of the arguments of <code>symbol</code>, after
+	 *         checking that there are <code>n</code> of them
+	 */
+	private Symbol[] evalArgs(Symbol symbol, int n, String expected)
+	{
+		Symbol[] values = new Symbol[n];
+		Symbol args = symbol.getCdr();
+		for (int i = 0; i < n; ++i) {
+			if (args.isNil())
+				throw new EvaluationError(expected);
+			values[i] = eval(args.getCar());
+			args = args.getCdr();
+		}
+		if (!args.isNil())
+			throw new EvaluationError(expected);
+		return values;
+	}
+
+	private static Symbol[] elements(Symbol vector)
+	{
+		if (!vector.isVector())
+			throw new EvaluationError(vector + " is not a vector");
+		return vector.getElements();
+	}
+
+	private static int index(Symbol[] elements, Symbol index)
+	{
+		if (!index.isFixnum() || index.getFixnum() < 0 || index.getFixnum() >= elements.length)
+			throw new EvaluationError(index + " is not an index of a vector of " + elements.length);
+		return (int) index.getFixnum();
+	}
+
+	private final Function<Symbol, Symbol> processVector            = (symbol) -> {
+		                                                                Symbol[] elements = new Symbol[symbol.getCdr().getLength()];
+		                                                                Symbol args = symbol.getCdr();
+		                                                                for (int i = 0; i < elements.length; ++i) {
+			                                                                elements[i] = eval(args.getCar());
+			                                                                args = args.getCdr();
+		                                                                }
+		                                                                return Symbol.vector(elements);
+	                                                                };
+
+	private final Function<Symbol, Symbol> processMakeVector        = (symbol) -> {
+		                                                                int size = symbol.getCdr().getLength();
+		                                                                if (size == 0 || size > 2)
+			                                                                throw new EvaluationError("MAKE_VECTOR expects a size and a value");
+		                                                                Symbol[] values = evalArgs(symbol, size, "MAKE_VECTOR expects a size and a value");
+		                                                                Symbol length = values[0];
+		                                                                if (!length.isFixnum() || length.getFixnum() < 0 || length.getFixnum() > Integer.MAX_VALUE - 8)
+			                                                                throw new EvaluationError(length + " is not a vector size");
+		                                                                Symbol[] elements = new Symbol[(int) length.getFixnum()];
+		                                                                Arrays.fill(elements, size == 2 ? values[1] : Symbol.NIL);
+		                                                                return Symbol.vector(elements);
+	                                                                };
+
+	private final Function<Symbol, Symbol> processVref              = (symbol) -> {
+		                                                                Symbol[] values = evalArgs(symbol, 2, "VREF expects a vector and an index");
+		                                                                Symbol[] elements = elements(values[0]);
+		                                                                return elements[index(elements, values[1])];
+	                                                                };
+
+	private final Function<Symbol, Symbol> processVset              = (symbol) -> {
+		                                                                Symbol[] values = evalArgs(symbol, 3, "VSET expects a vector, an index and a value");
+		                                                                Symbol[] elements = elements(values[0]);
+		                                                                elements[index(elements, values[1])] = values[2];
+		                                                                return values[2];
+	                                                                };
+
+	private final Function<Symbol, Symbol> processVlength           = (symbol) -> {
+		                                                                Symbol[] values = evalArgs(symbol, 1, "VLENGTH expects a vector");
+		                                                                return Symbol.number(elements(values[0]).length);
+	                                                                };
+
+	private final Function<Symbol, Symbol> processVectorp           = (symbol) -> {
+		                                                                Symbol[] values = evalArgs(symbol, 1, "VECTORP expects one argument");
+		                                                                return values[0].isVector() ? Symbol.TRUE : Symbol.NIL;
+	                                                                };
+
+	private final Function<Symbol, Symbol> processListToVector      = (symbol) -> {
+		                                                                Symbol list = evalArgs(symbol, 1, "LIST_TO_VECTOR expects a list")[0];
+		                                                                checkList(list);
+		                                                                Symbol[] elements = new Symbol[list.getLength()];
+		                                                                for (int i = 0; i < elements.length; ++i) {
+			                                                                elements[i] = list.getCar();
+			                                                                list = list.getCdr();
+		                                                                }
+		                                                                return Symbol.vector(elements);
+	                                                                };
+
+	private final Function<Symbol, Symbol> processVectorToList      = (symbol) -> {
+		                                                                Symbol[] elements = elements(evalArgs(symbol, 1, "VECTOR_TO_LIST expects a vector")[0]);
+		                                                                Symbol list = Symbol.NIL;
+		                                                                for (int i = elements.length - 1; i >= 0; --i)
+			                                                                list = Symbol.push(elements[i], list);
+		                                                                return list;
+	                                                                };
+
+	static {
+		help.put("HASH_TABLE", "(HASH_TABLE <n>) returns an empty hash table with room for <n> entries; (HASH_TABLE) "
+		        + "starts small. Keys are compared as EQUAL compares them, and HASH_GET, HASH_PUT, HASH_REMOVE and "
+		        + "HASH_CONTAINS take the same time however many entries there are. A list or a vector must not be "
+		        + "changed while it is a key.");
+		help.put("HASH_SET", "(HASH_SET <n>) returns an empty hash set with room for <n> elements; (HASH_SET) starts "
+		        + "small. Elements are compared as EQUAL compares them.");
+		help.put("HASH_GET", "(HASH_GET <table> <key>) returns the value of <key> in <table>, or NIL if it has none; "
+		        + "(HASH_GET <table> <key> <default>) returns <default> instead of NIL.");
+		help.put("HASH_PUT", "(HASH_PUT <table> <key> <value>) sets the value of <key> in <table> and returns it.");
+		help.put("HASH_ADD", "(HASH_ADD <set> <element>) adds <element> to <set>, returning TRUE if it was not there.");
+		help.put("HASH_REMOVE", "(HASH_REMOVE <table or set> <key>) removes <key>, returning TRUE if it was there.");
+		help.put("HASH_CONTAINS", "(HASH_CONTAINS <table or set> <key>) returns TRUE if <key> is there.");
+		help.put("HASH_KEYS", "(HASH_KEYS <table or set>) returns the list of the keys, in the order they were added.");
+		help.put("HASH_VALUES", "(HASH_VALUES <table>) returns the list of the values, in the order of HASH_KEYS.");
+		help.put("HASH_TABLEP", "(HASH_TABLEP <arg>) returns TRUE if <arg> evaluates to a hash table.");
+		help.put("HASH_SETP", "(HASH_SETP <arg>) returns TRUE if <arg> evaluates to a hash set.");
+	}
+
+	private static Map<Symbol, Symbol> table(Symbol table, int type)
+	{
+		if (!table.isTable() || type != 0 && table.getType() != type)
+			throw new EvaluationError(table + " is not a " + (type == Token.SET_VALUE ? "hash set"
+			        : type == Token.TABLE_VALUE ? "hash table" : "hash table or set"));
+		return table.getTable();
+	}
+
+	private Symbol newTable(Symbol symbol, int type, String name)
+	{
+		int size = symbol.getCdr().getLength();
+		if (size > 1)
+			throw new EvaluationError(name + " expects a size");
+		int expected = 0;
+		if (size == 1) {
+			Symbol hint = eval(symbol.getCdr().getCar());
+			if (!hint.isFixnum() || hint.getFixnum() < 0 || hint.getFixnum() > 1 << 30)
+				throw new EvaluationError(hint + " is not a " + name + " size");
+			expected = (int) hint.getFixnum();
+		}
+		return Symbol.table(type, expected);
+	}
+
+	private static Symbol list(Collection<Symbol> elements)
+	{
+		Symbol list = Symbol.NIL;
+		Symbol last = null;
+		for (Symbol element : elements) {
+			Symbol node = Symbol.push(element, Symbol.NIL);
+			if (last == null)
+				list = node;
+			else
+				last.setCdr(node);
+			last = node;
+		}
+		return list;
+	}
+
+	private final Function<Symbol, Symbol> processHashTable         = (symbol) -> newTable(symbol, Token.TABLE_VALUE,
+	                                                                        "HASH_TABLE");
+
+	private final Function<Symbol, Symbol> processHashSet           = (symbol) -> newTable(symbol, Token.SET_VALUE, "HASH_SET");
+
+	private final Function<Symbol, Symbol> processHashGet           = (symbol) -> {
+		                                                                int size = symbol.getCdr().getLength();
+		                                                                if (size != 2 && size != 3)
+			                                                                throw new EvaluationError("HASH_GET expects a table, a key and a default");
+		                                                                Symbol[] values = evalArgs(symbol, size, "HASH_GET expects a table, a key and a default");
+		                                                                Symbol value = table(values[0], Token.TABLE_VALUE).get(values[1]);
+		                                                                if (value != null)
+			                                                                return value;
+		                                                                return size == 3 ? values[2] : Symbol.NIL;
+	                                                                };
+
+	private final Function<Symbol, Symbol> processHashPut           = (symbol) -> {
+		                                                                Symbol[] values = evalArgs(symbol, 3, "HASH_PUT expects a table, a key and a value");
+		                                                                table(values[0], Token.TABLE_VALUE).put(values[1], values[2]);
+		                                                                return values[2];
+	                                                                };
+
+	private final Function<Symbol, Symbol> processHashAdd           = (symbol) -> {
+		                                                                Symbol[] values = evalArgs(symbol, 2, "HASH_ADD expects a set and an element");
+		                                                                return table(values[0], Token.SET_VALUE).putIfAbsent(values[1], values[1]) == null
+		                                                                        ? Symbol.TRUE : Symbol.NIL;
+	                                                                };
+
+	private final Function<Symbol, Symbol> processHashRemove        = (symbol) -> {
+		                                                                Symbol[] values = evalArgs(symbol, 2, "HASH_REMOVE expects a table or set and a key");
+		                                                                Map<Symbol, Symbol> table = table(values[0], 0);
+		                                                                if (!table.containsKey(values[1]))
+			                                                                return Symbol.NIL;
+		                                                                table.remove(values[1]);
 		                                                                return Symbol.TRUE;
 	                                                                };
+
+	private final Function<Symbol, Symbol> processHashContains      = (symbol) -> {
+		                                                                Symbol[] values = evalArgs(symbol, 2, "HASH_CONTAINS expects a table or set and a key");
+		                                                                return table(values[0], 0).containsKey(values[1]) ? Symbol.TRUE : Symbol.NIL;
+	                                                                };
+
+	private final Function<Symbol, Symbol> processHashKeys          = (symbol) -> {
+		                                                                Symbol[] values = evalArgs(symbol, 1, "HASH_KEYS expects a table or set");
+		                                                                return list(table(values[0], 0).keySet());
+	                                                                };
+
+	private final Function<Symbol, Symbol> processHashValues        = (symbol) -> {
+		                                                                Symbol[] values = evalArgs(symbol, 1, "HASH_VALUES expects a table");
+		                                                                return list(table(values[0], Token.TABLE_VALUE).values());
+	                                                                };
+
+	private final Function<Symbol, Symbol> processHashTablep        = (symbol) -> {
+		                                                                Symbol[] values = evalArgs(symbol, 1, "HASH_TABLEP expects one argument");
+		                                                                return values[0].isTable() && values[0].getType() == Token.TABLE_VALUE ? Symbol.TRUE
+		                                                                        : Symbol.NIL;
+	                                                                };
+
+	private final Function<Symbol, Symbol> processHashSetp          = (symbol) -> {
+		                                                                Symbol[] values = evalArgs(symbol, 1, "HASH_SETP expects one argument");
+		                                                                return values[0].isTable() && values[0].getType() == Token.SET_VALUE ? Symbol.TRUE
+		                                                                        : Symbol.NIL;
+	                                                                };
+
+	static {
+		help.put("LAZY_RANGE", "(LAZY_RANGE <from>) returns the endless lazy sequence of the numbers from <from> up; "
+		        + "(LAZY_RANGE <from> <to>) stops before <to> and (LAZY_RANGE <from> <to> <step>) counts by <step>. The "
+		        + "elements of a lazy sequence are computed when they are first needed and kept after that. CAR, CDR, "
+		        + "COUNT, FOR_LIST and EQUAL take lazy sequences as lists.");
+		help.put("LAZY_MAP", "(LAZY_MAP <list> <function>) returns the lazy sequence of the results of <function> applied "
+		        + "to each element of <list>, which can itself be a lazy sequence.");
+		help.put("LAZY_FILTER", "(LAZY_FILTER <list> <function>) returns the lazy sequence of the elements of <list> for "
+		        + "which <function> does not return NIL.");
+		help.put("TAKE", "(TAKE <n> <list>) returns the lazy sequence of the first <n> elements of <list>.");
+		help.put("DROP", "(DROP <n> <list>) returns the lazy sequence of the elements of <list> after the first <n>.");
+		help.put("LAZY_SEQP", "(LAZY_SEQP <arg>) returns TRUE if <arg> evaluates to a lazy sequence.");
+	}
+
+	private static Symbol sequence(Symbol value)
+	{
+		if (!value.isList() && !value.isLazy())
+			throw new EvaluationError(value + " is not a list or a lazy sequence");
+		return value;
+	}
+
+	/**
+	 * @return NIL or the first cell of a list or lazy sequence
+	 */
+	private Symbol first(Symbol sequence)
+	{
+		Symbol value = sequence.realize();
+		checkList(value);
+		return value;
+	}
+
+	private static long count(Symbol count)
+	{
+		if (!count.isFixnum() || count.getFixnum() < 0)
+			throw new EvaluationError(count + " is not a count");
+		return count.getFixnum();
+	}
+
+	private Symbol call(Symbol function, Symbol element, Environment frame)
+	{
+		Symbol quoted = Symbol.push(Symbol.QUOTE, Symbol.push(element, Symbol.NIL));
+		return eval(Symbol.push(function, Symbol.push(quoted, Symbol.NIL)), frame);
+	}
+
+	private static Symbol range(Symbol from, Symbol to, Symbol step)
+	{
+		return Symbol.lazy(() -> {
+			if (to != null && Numbers.compare(from, to) * Numbers.compare(step, Numbers.ZERO) >= 0)
+				return Symbol.NIL;
+			return Symbol.push(from, range(Numbers.add(from, step), to, step));
+		});
+	}
+
+	private Symbol map(Symbol function, Symbol sequence, Environment frame)
+	{
+		return Symbol.lazy(() -> {
+			Symbol source = first(sequence);
+			if (source.isNil())
+				return Symbol.NIL;
+			return Symbol.push(call(function, source.getCar(), frame), map(function, source.getCdr(), frame));
+		});
+	}
+
+	private Symbol filter(Symbol function, Symbol sequence, Environment frame)
+	{
+		// the position reached, rather than the start, so that skipping a long
+		// run of elements does not keep them all
+		Symbol[] rest = { sequence };
+		return Symbol.lazy(() -> {
+			while (true) {
+				Symbol source = first(rest[0]);
+				if (source.isNil())
+					return Symbol.NIL;
+				boolean keep = !call(function, source.getCar(), frame).isNil();
+				rest[0] = source.getCdr();
+				if (keep)
+					return Symbol.push(source.getCar(), filter(function, rest[0], frame));
+			}
+		});
+	}
+
+	private Symbol take(long count, Symbol sequence)
+	{
+		return Symbol.lazy(() -> {
+			if (count == 0)
+				return Symbol.NIL;
+			Symbol source = first(sequence);
+			if (source.isNil())
+				return Symbol.NIL;
+			return Symbol.push(source.getCar(), take(count - 1, source.getCdr()));
+		});
+	}
+
+	private Symbol drop(long count, Symbol sequence)
+	{
+		Symbol[] rest = { sequence };
+		long[] left = { count };
+		return Symbol.lazy(() -> {
+			for (; left[0] > 0; --left[0]) {
+				Symbol source = first(rest[0]);
+				if (source.isNil())
+					return Symbol.NIL;
+				rest[0] = source.getCdr();
+			}
+			return first(rest[0]);
+		});
+	}
+
+	private final Function<Symbol, Symbol> processLazyRange         = (symbol) -> {
+		                                                                int size = symbol.getCdr().getLength();
+		                                                                if (size == 0 || size > 3)
+			                                                                throw new EvaluationError("LAZY_RANGE expects a start, an end and a step");
+		                                                                Symbol[] values = evalArgs(symbol, size, "LAZY_RANGE expects a start, an end and a step");
+		                                                                for (Symbol value : values)
+			                                                                if (!value.isNumber())
+				                                                                throw new EvaluationError(value + " is not a number");
+		                                                                Symbol step = size == 3 ? values[2] : Numbers.ONE;
+		                                                                if (Numbers.compare(step, Numbers.ZERO) == 0)
+			                                                                throw new EvaluationError("LAZY_RANGE cannot step by 0");
+		                                                                return range(values[0], size > 1 ? values[1] : null, step);
+	                                                                };
+
+	private final Function<Symbol, Symbol> processLazyMap           = (symbol) -> {
+		                                                                List<Symbol> list = symbol.getCdr().getSymbolList();
+		                                                                if (list.size() != 2)
+			                                                                throw new EvaluationError("LAZY_MAP expects a list and a function");
+		                                                                return map(list.get(1), sequence(eval(list.get(0))), environment);
+	                                                                };
+
+	private final Function<Symbol, Symbol> processLazyFilter        = (symbol) -> {
+		                                                                List<Symbol> list = symbol.getCdr().getSymbolList();
+		                                                                if (list.size() != 2)
+			                                                                throw new EvaluationError("LAZY_FILTER expects a list and a function");
+		                                                                return filter(list.get(1), sequence(eval(list.get(0))), environment);
+	                                                                };
+
+	private final Function<Symbol, Symbol> processTake              = (symbol) -> {
+		                                                                Symbol[] values = evalArgs(symbol, 2, "TAKE expects a count and a list");
+		                                                                return take(count(values[0]), sequence(values[1]));
+	                                                                };
+
+	private final Function<Symbol, Symbol> processDrop              = (symbol) -> {
+		                                                                Symbol[] values = evalArgs(symbol, 2, "DROP expects a count and a list");
+		                                                                return drop(count(values[0]), sequence(values[1]));
+	                                                                };
+
+	private final Function<Symbol, Symbol> processLazySeqp          = (symbol) -> {
+		                                                                Symbol[] values = evalArgs(symbol, 1, "LAZY_SEQP expects one argument");
+		                                                                return values[0].isLazy() ? Symbol.TRUE : Symbol.NIL;
+	                                                                };
+
 	private final Function<Symbol, Symbol> processList              = (symbol) -> {
 		                                                                Symbol result = Symbol.NIL;
 		                                                                for (Symbol s : symbol.getSymbolList()) {
@@ -723,70 +2211,136 @@ public class Interpreter implements Serializable
 		predefined.put(Token.CAR, processCar);
 		predefined.put(Token.CDR, processCdr);
 		predefined.put(Token.CLEAR, processClear);
+		predefined.put(Token.COMPILE, processCompile);
 		predefined.put(Token.COND, processCond);
 		predefined.put(Token.COUNT, processCount);
 		predefined.put(Token.DEFUN, processDefun);
 		predefined.put(Token.DIV, processDiv);
 		predefined.put(Token.DO, processDo);
 		predefined.put(Token.DOT, processDot);
+		predefined.put(Token.DROP, processDrop);
 		predefined.put(Token.EQUAL, processEqual);
 		predefined.put(Token.EVAL, processEval);
 		predefined.put(Token.FOR, processFor);
 		predefined.put(Token.FOR_LIST, processForList);
 		predefined.put(Token.GE, processCompare);
 		predefined.put(Token.GT, processCompare);
+		predefined.put(Token.HASH_ADD, processHashAdd);
+		predefined.put(Token.HASH_CONTAINS, processHashContains);
+		predefined.put(Token.HASH_GET, processHashGet);
+		predefined.put(Token.HASH_KEYS, processHashKeys);
+		predefined.put(Token.HASH_PUT, processHashPut);
+		predefined.put(Token.HASH_REMOVE, processHashRemove);
+		predefined.put(Token.HASH_SET, processHashSet);
+		predefined.put(Token.HASH_SETP, processHashSetp);
+		predefined.put(Token.HASH_TABLE, processHashTable);
+		predefined.put(Token.HASH_TABLEP, processHashTablep);
+		predefined.put(Token.HASH_VALUES, processHashValues);
 		predefined.put(Token.ID, processId);
 		predefined.put(Token.IF, processIf);
 		predefined.put(Token.LAMBDA, processLambda);
+		predefined.put(Token.LAZY_FILTER, processLazyFilter);
+		predefined.put(Token.LAZY_MAP, processLazyMap);
+		predefined.put(Token.LAZY_RANGE, processLazyRange);
+		predefined.put(Token.LAZY_SEQP, processLazySeqp);
 		predefined.put(Token.LE, processCompare);
 		predefined.put(Token.LET, processLet);
 		predefined.put(Token.LISTP, processListp);
+		predefined.put(Token.LIST_TO_VECTOR, processListToVector);
 		predefined.put(Token.LOAD, processLoad);
 		predefined.put(Token.LT, processCompare);
+		predefined.put(Token.MAKE_VECTOR, processMakeVector);
 		predefined.put(Token.MEMBERP, processMemberp);
+		predefined.put(Token.MEMOIZE, processMemoize);
+		predefined.put(Token.MEMO_STATS, processMemoStats);
 		predefined.put(Token.MINUS, processMinus);
+		predefined.put(Token.MODE, processMode);
 		predefined.put(Token.MOD, processModule);
 		predefined.put(Token.NOT, processNot);
 		predefined.put(Token.NUMBER, processList);
 		predefined.put(Token.NUMBERP, processNumberp);
 		predefined.put(Token.OR, processOr);
+		predefined.put(Token.PFOR_LIST, processPforList);
 		predefined.put(Token.PLUS, processPlus);
+		predefined.put(Token.PREDUCE, processPreduce);
+		predefined.put(Token.PROFILE, processProfile);
+		predefined.put(Token.PROVE, processProve);
 		predefined.put(Token.PUSH, processPush);
+		predefined.put(Token.QUERY, processQuery);
 		predefined.put(Token.QUOTE, processQuote);
 		predefined.put(Token.READ, processRead);
+		predefined.put(Token.RESTORE, processRestore);
 		predefined.put(Token.REVERSE, processReverse);
+		predefined.put(Token.SAVE, processSave);
 		predefined.put(Token.SET, processSet);
 		predefined.put(Token.SETQ, processSetq);
 		predefined.put(Token.STRING, processList);
+		// a list that starts with a vector or a table is data, like one that
+		// starts with a number or a string
+		predefined.put(Token.VECTOR_VALUE, processList);
+		predefined.put(Token.TABLE_VALUE, processList);
+		predefined.put(Token.SET_VALUE, processList);
 		predefined.put(Token.STRINGP, processStringp);
+		predefined.put(Token.TAKE, processTake);
 		predefined.put(Token.TIMES, processTimes);
 		predefined.put(Token.TRACE, processTrace);
 		predefined.put(Token.UNSET, processUnset);
+		predefined.put(Token.VECTOR, processVector);
+		predefined.put(Token.VECTORP, processVectorp);
+		predefined.put(Token.VECTOR_TO_LIST, processVectorToList);
+		predefined.put(Token.VLENGTH, processVlength);
+		predefined.put(Token.VREF, processVref);
+		predefined.put(Token.VSET, processVset);
 		predefined.put(Token.WHILE, processWhile);
 		predefined.put(Token.WRITE, processWrite);
 	}
 
 	private void cleanUp()
 	{
-		for (int i = 0; symbolTable.get("@" + i) != null; ++i) {
-			symbolTable.remove("@" + i);
-		}
+		environment = null;
 		id = 0;
 	}
 
+	/**
+	 * Evaluates a form read at the top level, as an Evaluation event of the
+	 * Flight Recorder recording if there is one.
+	 */
+	private Symbol evaluateNext(Symbol expression)
+	{
+		Events.Evaluation event = new Events.Evaluation();
+		if (!event.isEnabled())
+			return evaluate(expression);
+		event.begin();
+		try {
+			return evaluate(expression);
+		} catch (RuntimeException | Error e) {
+			event.error = e.toString();
+			throw e;
+		} finally {
+			event.end();
+			if (event.shouldCommit()) {
+				event.form = Events.text(expression);
+				event.mode = mode.name();
+				event.commit();
+			}
+		}
+	}
+
 	public void evalNext()
 	{
 		try {
-			System.out.print(prompt);
-			Symbol output = eval(getParser().getExpression());
-			if (output.getType() == Token.QUOTE)
-				System.out.print(output.getCdr().getCar());
-			else if (output.getType() == Token.STRING)
-				System.out.println("\"" + output + "\"");
-			else
-				System.out.println(output);
+			out.print(prompt);
+			Symbol output = evaluateNext(getParser().getExpression());
+			if (output.getType() == Token.QUOTE) {
+				print(output.getCdr().getCar());
+			} else if (output.getType() == Token.STRING) {
+				out.println("\"" + output + "\"");
+			} else {
+				print(output);
+				out.println();
+			}
 		} catch (Exception e) {
-			System.out.println(e.toString());
+			out.println(e.toString());
 		} finally {
 			cleanUp();
 		}
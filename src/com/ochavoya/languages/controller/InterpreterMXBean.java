@@ -0,0 +1,15 @@
+package com.ochavoya.languages.controller;
+
+/**
+ * What an interpreter registered with {@link Interpreter#registerMBean(String)}
+ * shows through JMX, under
+ * <code>com.ochavoya.languages:type=Interpreter,name=</code><i>name</i>.
+ */
+public interface InterpreterMXBean
+{
+	/**
+	 * @return the sizes of the tables of the interpreter, its gensym counter,
+	 *         and the counts and latencies of the forms it has evaluated
+	 */
+	Metrics.Snapshot getMetrics();
+}
@@ -0,0 +1,288 @@
+package com.ochavoya.languages.controller;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the top level forms an interpreter evaluates, the errors they end
+ * in and how long they take, cheaply enough to be always on. The counters
+ * are striped, so reading them from a monitoring thread does not slow the
+ * interpreter down, and the latencies go to a log-linear histogram whose
+ * buckets are within about 3% of each other, so percentiles are exact to
+ * that precision whatever the range of the times.
+ * <p>
+ * Errors are counted by kind: the message of an {@link EvaluationError} with
+ * the value it is about replaced by <code>_</code> and any numbers by
+ * <code>N</code>, so that <code>5 is not a list</code> and
+ * <code>(a) is not a list</code> are one kind. Other exceptions are counted
+ * by their class. Past {@link #MAX_KINDS} kinds, the rest are counted as
+ * <code>other</code>.
+ */
+public class Metrics
+{
+	public static final int              MAX_KINDS = 64;
+	private static final String[]        VERBS     = { " is not ", " requires ", " expects ", " does not ",
+	        " is damaged", " cannot " };
+	private static final long            SECOND    = 1000000000L;
+
+	private final LongAdder              forms     = new LongAdder();
+	private final LongAdder              nanos     = new LongAdder();
+	private final LongAdder              errors    = new LongAdder();
+	private final Map<String, LongAdder> kinds     = new ConcurrentHashMap<String, LongAdder>();
+	private final Histogram              latencies = new Histogram();
+	// where the last rate was measured from
+	private long                         rateTime  = System.nanoTime();
+	private long                         rateForms = 0;
+	private double                       rate      = 0;
+
+	/**
+	 * Buckets of values by their top {@link #BITS} + 1 significant bits: the
+	 * values below 2<sup>BITS+1</sup> have one each, and every power of two
+	 * above is split into 2<sup>BITS</sup> equal buckets.
+	 */
+	static final class Histogram
+	{
+		private static final int     BITS   = 5;
+		private static final int     SUB    = 1 << BITS;
+		private final AtomicLongArray counts = new AtomicLongArray((64 - BITS) * SUB);
+
+		static int index(long value)
+		{
+			if (value < 2 * SUB)
+				return (int) Math.max(value, 0);
+			int shift = 63 - Long.numberOfLeadingZeros(value) - BITS;
+			return (shift << BITS) + (int) (value >>> shift);
+		}
+
+		/**
+		 * @return the largest value that goes to the bucket at
+		 *         <code>index</code>
+		 */
+		static long highest(int index)
+		{
+			if (index < 2 * SUB)
+				return index;
+			int shift = (index >>> BITS) - 1;
+			long mantissa = index - ((long) shift << BITS);
+			return ((mantissa + 1) << shift) - 1;
+		}
+
+		void record(long value)
+		{
+			counts.getAndIncrement(index(value));
+		}
+
+		long[] counts()
+		{
+			long[] copy = new long[counts.length()];
+			for (int i = 0; i < copy.length; ++i)
+				copy[i] = counts.get(i);
+			return copy;
+		}
+	}
+
+	/**
+	 * The state of an interpreter at one moment.
+	 */
+	public static final class Snapshot
+	{
+		private final int               globals;
+		private final int               functions;
+		private final int               facts;
+		private final int               rules;
+		private final long              gensymCounter;
+		private final long              forms;
+		private final double            formsPerSecond;
+		private final long              errors;
+		private final Map<String, Long> errorsByKind;
+		private final long              nanos;
+		private final long[]            latencies;
+
+		Snapshot(int globals, int functions, int facts, int rules, long gensymCounter, long forms,
+		        double formsPerSecond, long nanos, long errors, Map<String, Long> errorsByKind, long[] latencies)
+		{
+			this.globals = globals;
+			this.functions = functions;
+			this.facts = facts;
+			this.rules = rules;
+			this.gensymCounter = gensymCounter;
+			this.forms = forms;
+			this.formsPerSecond = formsPerSecond;
+			this.errors = errors;
+			this.errorsByKind = errorsByKind;
+			this.nanos = nanos;
+			this.latencies = latencies;
+		}
+
+		public int getGlobals()
+		{
+			return globals;
+		}
+
+		public int getFunctions()
+		{
+			return functions;
+		}
+
+		public int getFacts()
+		{
+			return facts;
+		}
+
+		public int getRules()
+		{
+			return rules;
+		}
+
+		public long getGensymCounter()
+		{
+			return gensymCounter;
+		}
+
+		public long getForms()
+		{
+			return forms;
+		}
+
+		/**
+		 * @return the forms evaluated per second over the second or more
+		 *         before the snapshot
+		 */
+		public double getFormsPerSecond()
+		{
+			return formsPerSecond;
+		}
+
+		public long getErrors()
+		{
+			return errors;
+		}
+
+		/**
+		 * @return the errors by kind, sorted by kind
+		 */
+		public Map<String, Long> getErrorsByKind()
+		{
+			return errorsByKind;
+		}
+
+		/**
+		 * @return the time within which <code>percentile</code> percent of
+		 *         the forms were evaluated, or 0 if none were
+		 */
+		public long getLatencyNanos(double percentile)
+		{
+			long count = 0;
+			for (long bucket : latencies)
+				count += bucket;
+			if (count == 0)
+				return 0;
+			long rank = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100) / 100));
+			long seen = 0;
+			for (int i = 0; i < latencies.length; ++i) {
+				seen += latencies[i];
+				if (seen >= rank)
+					return Histogram.highest(i);
+			}
+			return Histogram.highest(latencies.length - 1);
+		}
+
+		public long getMeanLatencyNanos()
+		{
+			return forms == 0 ? 0 : nanos / forms;
+		}
+
+		public long getMedianLatencyNanos()
+		{
+			return getLatencyNanos(50);
+		}
+
+		public long getP90LatencyNanos()
+		{
+			return getLatencyNanos(90);
+		}
+
+		public long getP99LatencyNanos()
+		{
+			return getLatencyNanos(99);
+		}
+
+		public long getP999LatencyNanos()
+		{
+			return getLatencyNanos(99.9);
+		}
+
+		public long getMaxLatencyNanos()
+		{
+			return getLatencyNanos(100);
+		}
+	}
+
+	/**
+	 * Counts a top level form that took <code>nanos</code> and ended in
+	 * <code>error</code>, if it is not null.
+	 */
+	void record(long nanos, Throwable error)
+	{
+		forms.increment();
+		this.nanos.add(nanos);
+		latencies.record(nanos);
+		if (error == null)
+			return;
+		errors.increment();
+		String kind = kind(error);
+		LongAdder count = kinds.get(kind);
+		if (count == null)
+			count = kinds.computeIfAbsent(kinds.size() < MAX_KINDS ? kind : "other", (key) -> new LongAdder());
+		count.increment();
+	}
+
+	static String kind(Throwable error)
+	{
+		if (!(error instanceof EvaluationError))
+			return error.getClass().getSimpleName();
+		String message = error.toString();
+		if (message == null)
+			return "EvaluationError";
+		for (String verb : VERBS) {
+			int at = message.lastIndexOf(verb);
+			if (at > 0)
+				return numbers("_" + message.substring(at));
+		}
+		int colon = message.indexOf(": ");
+		if (colon > 0)
+			return message.substring(0, colon + 1) + " _";
+		if (message.startsWith("Invalid expression "))
+			return "Invalid expression _";
+		return numbers(message);
+	}
+
+	private static String numbers(String text)
+	{
+		return text.replaceAll("[0-9]+", "N");
+	}
+
+	/**
+	 * @return the counts so far, with the sizes and the gensym counter of the
+	 *         interpreter
+	 */
+	synchronized Snapshot snapshot(int globals, int functions, int facts, int rules, long gensymCounter)
+	{
+		long now = System.nanoTime();
+		long count = forms.sum();
+		if (now - rateTime >= SECOND) {
+			rate = (count - rateForms) * (double) SECOND / (now - rateTime);
+			rateTime = now;
+			rateForms = count;
+		}
+		Map<String, Long> byKind = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> entry : kinds.entrySet())
+			byKind.put(entry.getKey(), entry.getValue().sum());
+		return new Snapshot(globals, functions, facts, rules, gensymCounter, count, rate, nanos.sum(), errors.sum(),
+		        Collections.unmodifiableMap(byKind), latencies.counts());
+	}
+}
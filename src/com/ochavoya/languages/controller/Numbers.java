@@ -0,0 +1,123 @@
+package com.ochavoya.languages.controller;
+
+import java.math.BigInteger;
+
+import com.ochavoya.languages.model.Symbol;
+import com.ochavoya.languages.model.Token;
+
+/**
+ * Exact integer arithmetic on number {@link Symbol}s. Values that fit in a
+ * long are computed on primitives; a result that overflows is promoted to a
+ * BigInteger, and a BigInteger result that fits again is demoted back.
+ *
+ * Operands that are not numbers are parsed from their code, as the
+ * arithmetic builtins have always done, and throw NumberFormatException (or
+ * NullPointerException for lists) when that fails. Callers turn those into an
+ * {@link EvaluationError} with their own message.
+ */
+final class Numbers
+{
+	static final Symbol ZERO = Symbol.number(0);
+	static final Symbol ONE  = Symbol.number(1);
+
+	private Numbers()
+	{
+	}
+
+	static Symbol toNumber(Symbol symbol)
+	{
+		if (symbol.getType() == Token.NUMBER)
+			return symbol;
+		return new Symbol(Token.NUMBER, symbol.getCode());
+	}
+
+	static Symbol add(Symbol left, Symbol right)
+	{
+		left = toNumber(left);
+		right = toNumber(right);
+		if (left.isFixnum() && right.isFixnum()) {
+			long x = left.getFixnum();
+			long y = right.getFixnum();
+			long r = x + y;
+			if (((x ^ r) & (y ^ r)) >= 0)
+				return Symbol.number(r);
+		}
+		return Symbol.number(left.getBigInteger().add(right.getBigInteger()));
+	}
+
+	static Symbol subtract(Symbol left, Symbol right)
+	{
+		left = toNumber(left);
+		right = toNumber(right);
+		if (left.isFixnum() && right.isFixnum()) {
+			long x = left.getFixnum();
+			long y = right.getFixnum();
+			long r = x - y;
+			if (((x ^ y) & (x ^ r)) >= 0)
+				return Symbol.number(r);
+		}
+		return Symbol.number(left.getBigInteger().subtract(right.getBigInteger()));
+	}
+
+	static Symbol negate(Symbol number)
+	{
+		return subtract(ZERO, number);
+	}
+
+	static Symbol multiply(Symbol left, Symbol right)
+	{
+		left = toNumber(left);
+		right = toNumber(right);
+		if (left.isFixnum() && right.isFixnum()) {
+			long x = left.getFixnum();
+			long y = right.getFixnum();
+			long high = Math.multiplyHigh(x, y);
+			long low = x * y;
+			if ((high == 0 && low >= 0) || (high == -1 && low < 0))
+				return Symbol.number(low);
+		}
+		return Symbol.number(left.getBigInteger().multiply(right.getBigInteger()));
+	}
+
+	/**
+	 * Truncating division, as BigInteger.divide.
+	 */
+	static Symbol divide(Symbol left, Symbol right)
+	{
+		left = toNumber(left);
+		right = toNumber(right);
+		if (left.isFixnum() && right.isFixnum()) {
+			long x = left.getFixnum();
+			long y = right.getFixnum();
+			if (y == 0)
+				throw new ArithmeticException("Division by zero");
+			if (!(x == Long.MIN_VALUE && y == -1))
+				return Symbol.number(x / y);
+		}
+		return Symbol.number(left.getBigInteger().divide(right.getBigInteger()));
+	}
+
+	/**
+	 * Non-negative modulus, as BigInteger.mod, which also rejects a modulus
+	 * that is not positive.
+	 */
+	static Symbol mod(Symbol left, Symbol right)
+	{
+		left = toNumber(left);
+		right = toNumber(right);
+		if (left.isFixnum() && right.isFixnum()) {
+			long y = right.getFixnum();
+			if (y <= 0)
+				throw new ArithmeticException("BigInteger: modulus not positive");
+			return Symbol.number(Math.floorMod(left.getFixnum(), y));
+		}
+		return Symbol.number(left.getBigInteger().mod(right.getBigInteger()));
+	}
+
+	static int compare(Symbol left, Symbol right)
+	{
+		if (left.isFixnum() && right.isFixnum())
+			return Long.compare(left.getFixnum(), right.getFixnum());
+		return left.getBigInteger().compareTo(right.getBigInteger());
+	}
+}
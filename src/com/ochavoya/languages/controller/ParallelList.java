@@ -0,0 +1,189 @@
+package com.ochavoya.languages.controller;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import com.ochavoya.languages.model.Environment;
+import com.ochavoya.languages.model.Symbol;
+
+/**
+ * Applies a function to the elements of a list on the common fork-join pool,
+ * for PFOR_LIST and PREDUCE. The list is split in halves until there are
+ * about four chunks per worker, and every chunk is evaluated in order by the
+ * worker interpreter of the thread that runs it, see
+ * {@link Interpreter#worker(int)}. Calls are built and evaluated exactly as
+ * FOR_LIST does, <code>(function element)</code> in the environment the
+ * builtin was called from.
+ *
+ * When calls fail, the error of the one with the lowest index is thrown, which
+ * is the error the sequential loop would have stopped at.
+ */
+class ParallelList
+{
+	private final Interpreter  interpreter;
+	private final int          task;
+	private final Symbol       function;
+	private final Environment  environment;
+	private final Symbol[]     elements;
+	private final int          chunk;
+	// read by every chunk for every element, and only written under the lock
+	private volatile int       failedAt = Integer.MAX_VALUE;
+	private Throwable          failure;
+
+	ParallelList(Interpreter interpreter, Symbol function, Environment environment, Symbol[] elements)
+	{
+		this.interpreter = interpreter;
+		this.task = interpreter.newTask();
+		this.function = function;
+		this.environment = environment;
+		this.elements = elements;
+		this.chunk = Math.max(1, elements.length / (4 * ForkJoinPool.getCommonPoolParallelism()));
+	}
+
+	/**
+	 * @return true if a list of <code>length</code> elements is worth
+	 *         splitting: it is at least <code>threshold</code> long and there
+	 *         is more than one worker to give it to
+	 */
+	static boolean worthSplitting(int length, int threshold)
+	{
+		return threshold >= 0 && length >= threshold && ForkJoinPool.getCommonPoolParallelism() > 1;
+	}
+
+	static Symbol call(Symbol function, Symbol... values)
+	{
+		Symbol call = Symbol.NIL;
+		for (int i = values.length - 1; i >= 0; --i)
+			call = Symbol.push(values[i], call);
+		return Symbol.push(function, call);
+	}
+
+	/**
+	 * @return the value of <code>(function element)</code> for every element
+	 */
+	Symbol[] map()
+	{
+		Symbol[] values = new Symbol[elements.length];
+		run(new Mapping(values, 0, elements.length));
+		return values;
+	}
+
+	/**
+	 * Combines <code>initial</code> and the elements with
+	 * <code>function</code>, left to right within a chunk and then chunk by
+	 * chunk. Only the first chunk starts from <code>initial</code>, so for an
+	 * associative function this is the value of a left fold over the list.
+	 */
+	Symbol reduce(Symbol initial)
+	{
+		return run(new Folding(initial, 0, elements.length));
+	}
+
+	private <T> T run(RecursiveTask<T> task)
+	{
+		T value = ForkJoinPool.commonPool().invoke(task);
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure instanceof Error)
+			throw (Error) failure;
+		return value;
+	}
+
+	private Interpreter context()
+	{
+		return interpreter.worker(task);
+	}
+
+	private Symbol apply(Interpreter context, int index, Symbol... values)
+	{
+		try {
+			return context.eval(call(function, values), environment);
+		} catch (RuntimeException | StackOverflowError e) {
+			fail(index, e);
+			return null;
+		}
+	}
+
+	private synchronized void fail(int index, Throwable e)
+	{
+		if (index < failedAt) {
+			failedAt = index;
+			failure = e;
+		}
+	}
+
+	private boolean failedBefore(int index)
+	{
+		return failedAt < index;
+	}
+
+	@SuppressWarnings("serial")
+	private class Mapping extends RecursiveTask<Void>
+	{
+		private final Symbol[] values;
+		private final int      from;
+		private final int      to;
+
+		Mapping(Symbol[] values, int from, int to)
+		{
+			this.values = values;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Void compute()
+		{
+			if (to - from > chunk) {
+				int middle = (from + to) >>> 1;
+				Mapping left = new Mapping(values, from, middle);
+				left.fork();
+				new Mapping(values, middle, to).compute();
+				left.join();
+				return null;
+			}
+			Interpreter context = context();
+			for (int i = from; i < to && !failedBefore(i); ++i) {
+				values[i] = apply(context, i, elements[i]);
+			}
+			return null;
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private class Folding extends RecursiveTask<Symbol>
+	{
+		private final Symbol initial;
+		private final int    from;
+		private final int    to;
+
+		Folding(Symbol initial, int from, int to)
+		{
+			this.initial = initial;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Symbol compute()
+		{
+			if (to - from > chunk) {
+				int middle = (from + to) >>> 1;
+				Folding left = new Folding(initial, from, middle);
+				left.fork();
+				Symbol second = new Folding(initial, middle, to).compute();
+				Symbol first = left.join();
+				if (first == null || second == null)
+					return null;
+				return apply(context(), middle, first, second);
+			}
+			Interpreter context = context();
+			int i = from;
+			Symbol value = from == 0 ? initial : elements[i++];
+			for (; i < to && value != null && !failedBefore(i); ++i) {
+				value = apply(context, i, value, elements[i]);
+			}
+			return value;
+		}
+	}
+}
@@ -1,7 +1,9 @@
 package com.ochavoya.languages.controller;
 
 import java.io.InputStream;
-import java.util.Stack;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.ochavoya.languages.model.Symbol;
 import com.ochavoya.languages.model.Token;
@@ -16,13 +18,16 @@ public class Parser
 		this.scanner = new Scanner(in);
 	}
 
-	Stack<Token> stack = new Stack<Token>();
+	public Parser(ByteBuffer source)
+	{
+		this.scanner = new Scanner(source);
+	}
+
+	private int depth = 0;
 
 	public Symbol getExpression()
 	{
-		Token token = scanner.getToken();
-		Symbol result = Symbol.NIL;
-		switch (token.getType()) {
+		switch (scanner.next()) {
 		case Token.NIL:
 			return Symbol.NIL;
 		case Token.TRUE:
@@ -33,27 +38,49 @@ public class Parser
 			quote = Symbol.push(Symbol.QUOTE, quote);
 			return quote;
 		}
-		case Token.LEFT:
-			stack.push(token);
+		case Token.LEFT: {
+			++depth;
+			// append in place instead of pushing and reversing
+			Symbol result = Symbol.NIL;
+			Symbol last = null;
+			while (true) {
+				Symbol value = getExpression();
+				if (value == null)
+					break;
+				if (value.getType() == Token.END)
+					return value;
+				Symbol node = Symbol.push(value, Symbol.NIL);
+				if (last == null)
+					result = node;
+				else
+					last.setCdr(node);
+				last = node;
+			}
+			return result;
+		}
+		case Token.VECTOR_LEFT: {
+			++depth;
+			List<Symbol> elements = new ArrayList<Symbol>();
 			while (true) {
 				Symbol value = getExpression();
 				if (value == null)
 					break;
-				result = Symbol.push(value, result);
+				if (value.getType() == Token.END)
+					return value;
+				elements.add(value);
 			}
-			break;
+			return Symbol.vector(elements.toArray(new Symbol[elements.size()]));
+		}
 		case Token.RIGHT:
-			if (stack.isEmpty()) {
-				System.out.println("PARSER ERROR: unmatched right parenthesis");
-				return new Symbol(new Token(Token.INVALID));
+			if (depth == 0) {
+				throw new EvaluationError("Unmatched right parenthesis");
 			} else {
-				stack.pop();
+				--depth;
 				return null;
 			}
 		default:
-			return new Symbol(token);
+			return scanner.getSymbol();
 		}
-		return Symbol.reverse(result);
 	}
 
 	public static void main(String[] args)
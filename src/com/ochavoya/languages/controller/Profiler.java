@@ -0,0 +1,485 @@
+package com.ochavoya.languages.controller;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ochavoya.languages.model.Token;
+
+/**
+ * Records where the time of an evaluation goes, by user function and by
+ * builtin, see {@link Interpreter#profile(com.ochavoya.languages.model.Symbol, Profiler)}.
+ * <p>
+ * Calls of user functions are counted as they are made, in a tree of the
+ * call stacks they were made from. Time and memory are sampled: a daemon
+ * thread wakes up every interval and charges the time and the bytes the
+ * evaluating thread has allocated since it last woke up to the call that is
+ * running then. The evaluation only pays for keeping its stack, and the times
+ * are estimates that get better the longer it runs. The time of a function
+ * includes that of the calls it makes; the exclusive time is what is left
+ * when those are taken away. A recursive function is counted once for its
+ * outermost call.
+ * <p>
+ * Builtins are far more frequent and far shorter, so they are not put on the
+ * stack: their calls are counted by type, and the evaluating thread only
+ * notes which one it is in, for the sampler to charge it under the function
+ * that called it. Their time is what was sampled while no call they made was
+ * running, so it is both their inclusive and their exclusive time. With
+ * builtin frames, they are put on the stack like user functions instead,
+ * which costs several times as much and gives the calls they make a parent.
+ */
+public class Profiler
+{
+	private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	// the depth is written with release stores, which need no fence on most
+	// processors, so that the sampler, reading it with acquire loads, sees the
+	// frames below it; it can do with a value a little stale. The builtin is
+	// only a hint and is written and read opaquely
+	private static final VarHandle    DEPTH;
+	private static final VarHandle    BUILTIN;
+	// builtins are counted by their type, and every type fits in a byte
+	private static final int          TYPE_BITS = 8;
+	private static final int          TYPES     = 1 << TYPE_BITS;
+	// no builtin is running
+	private static final int          NONE      = -1;
+
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			DEPTH = lookup.findVarHandle(Profiler.class, "depth", int.class);
+			BUILTIN = lookup.findVarHandle(Profiler.class, "builtin", int.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	/**
+	 * A call stack, by the name of each call on it.
+	 */
+	private static final class Frame
+	{
+		final String             name;
+		final Frame              parent;
+		final Map<String, Frame> children = new LinkedHashMap<String, Frame>();
+		// the child called last, which is usually the one called next
+		Frame                    last;
+		// counted by the evaluating thread
+		long                     calls;
+		// sampled by the sampler thread
+		long                     nanos;
+		long                     bytes;
+		// and of the builtins it called, by type, when they have no frames
+		long[]                   builtinNanos;
+		long[]                   builtinBytes;
+		// and of all of them together
+		long                     allBuiltinNanos;
+		long                     allBuiltinBytes;
+		// filled in by the report
+		long                     totalNanos;
+		long                     totalBytes;
+		boolean                  outermost;
+
+		Frame(String name, Frame parent)
+		{
+			this.name = name;
+			this.parent = parent;
+		}
+
+		Frame child(String name)
+		{
+			Frame child = last;
+			if (child != null && child.name == name)
+				return child;
+			child = children.get(name);
+			if (child == null) {
+				child = new Frame(name, this);
+				children.put(name, child);
+			}
+			last = child;
+			return child;
+		}
+
+		void sampleBuiltin(int type, long nanos, long bytes)
+		{
+			if (builtinNanos == null) {
+				builtinNanos = new long[TYPES];
+				builtinBytes = new long[TYPES];
+			}
+			builtinNanos[type] += nanos;
+			builtinBytes[type] += bytes;
+			allBuiltinNanos += nanos;
+			allBuiltinBytes += bytes;
+		}
+	}
+
+	/**
+	 * What was recorded for one user function or builtin.
+	 */
+	public static final class Entry
+	{
+		private final String name;
+		private long         calls;
+		private long         inclusiveNanos;
+		private long         exclusiveNanos;
+		private long         inclusiveBytes;
+		private long         exclusiveBytes;
+
+		Entry(String name)
+		{
+			this.name = name;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public long getCalls()
+		{
+			return calls;
+		}
+
+		public long getInclusiveNanos()
+		{
+			return inclusiveNanos;
+		}
+
+		public long getExclusiveNanos()
+		{
+			return exclusiveNanos;
+		}
+
+		public long getInclusiveBytes()
+		{
+			return inclusiveBytes;
+		}
+
+		public long getExclusiveBytes()
+		{
+			return exclusiveBytes;
+		}
+	}
+
+	private final long       interval;
+	private final boolean    builtinFrames;
+	private final Frame      root         = new Frame(null, null);
+	private volatile Frame[] stack        = new Frame[64];
+	private int              depth        = 0;
+	// the depth and the type of the builtin running, written like the depth
+	private int              builtin      = NONE;
+	private final long[]     builtinCalls = new long[TYPES];
+	private volatile boolean running      = false;
+	private Thread           sampler;
+	private long             samples;
+
+	/**
+	 * Samples every <code>lisp.profile.interval</code> microseconds, 1000 by
+	 * default, with frames for builtins if <code>lisp.profile.builtins</code>
+	 * is true.
+	 */
+	public Profiler()
+	{
+		this(Integer.getInteger("lisp.profile.interval", 1000), Boolean.getBoolean("lisp.profile.builtins"));
+	}
+
+	public Profiler(long intervalMicros)
+	{
+		this(intervalMicros, false);
+	}
+
+	/**
+	 * @param builtinFrames
+	 *            whether builtins are put on the stack, to see the calls each
+	 *            one makes, rather than only counted
+	 */
+	public Profiler(long intervalMicros, boolean builtinFrames)
+	{
+		if (intervalMicros <= 0)
+			throw new IllegalArgumentException("interval " + intervalMicros);
+		this.interval = intervalMicros * 1000;
+		this.builtinFrames = builtinFrames;
+	}
+
+	/**
+	 * Starts sampling the current thread.
+	 */
+	void start()
+	{
+		if (sampler != null)
+			throw new IllegalStateException("a profiler records one evaluation");
+		Thread target = Thread.currentThread();
+		running = true;
+		sampler = new Thread(() -> sample(target), "lisp-profiler");
+		sampler.setDaemon(true);
+		sampler.start();
+	}
+
+	void stop()
+	{
+		running = false;
+		LockSupport.unpark(sampler);
+		boolean interrupted = false;
+		while (sampler.isAlive()) {
+			try {
+				sampler.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		depth = 0;
+		builtin = NONE;
+	}
+
+	private void sample(Thread target)
+	{
+		long last = System.nanoTime();
+		long lastBytes = allocated(target);
+		do {
+			LockSupport.parkNanos(interval);
+			long now = System.nanoTime();
+			long bytes = allocated(target);
+			int top = (int) DEPTH.getAcquire(this);
+			int inside = (int) BUILTIN.getOpaque(this);
+			Frame[] frames = stack;
+			Frame frame = top == 0 ? root : frames[Math.min(top, frames.length) - 1];
+			// a builtin entered below the top of the stack is waiting for a
+			// call it made to return
+			if (inside != NONE && inside >>> TYPE_BITS == top) {
+				frame.sampleBuiltin(inside & TYPES - 1, now - last, Math.max(0, bytes - lastBytes));
+			} else {
+				frame.nanos += now - last;
+				frame.bytes += Math.max(0, bytes - lastBytes);
+			}
+			++samples;
+			last = now;
+			lastBytes = bytes;
+		} while (running);
+	}
+
+	private static long allocated(Thread thread)
+	{
+		if (!(threads instanceof com.sun.management.ThreadMXBean))
+			return 0;
+		long bytes = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread.getId());
+		return Math.max(bytes, 0);
+	}
+
+	int depth()
+	{
+		return depth;
+	}
+
+	/**
+	 * Records a call to <code>name</code> from the one on top of the stack.
+	 */
+	void enter(String name)
+	{
+		int top = depth;
+		Frame[] frames = stack;
+		Frame frame = (top == 0 ? root : frames[top - 1]).child(name);
+		++frame.calls;
+		if (top == frames.length)
+			stack = frames = Arrays.copyOf(frames, top * 2);
+		frames[top] = frame;
+		DEPTH.setRelease(this, top + 1);
+	}
+
+	/**
+	 * Returns from the calls above <code>depth</code>.
+	 */
+	void exit(int depth)
+	{
+		if (depth < this.depth)
+			DEPTH.setRelease(this, depth);
+	}
+
+	/**
+	 * Records a call to the builtin of type <code>type</code>.
+	 *
+	 * @return what {@link #exitBuiltin(int)} needs to return from it
+	 */
+	int enterBuiltin(int type)
+	{
+		if (builtinFrames)
+			return enterFrame(type);
+		++builtinCalls[type & TYPES - 1];
+		int previous = builtin;
+		BUILTIN.setOpaque(this, depth << TYPE_BITS | type);
+		return previous;
+	}
+
+	private int enterFrame(int type)
+	{
+		int top = depth;
+		enter(Token.name(type));
+		return top;
+	}
+
+	void exitBuiltin(int entered)
+	{
+		if (builtinFrames)
+			exit(entered);
+		else
+			BUILTIN.setOpaque(this, entered);
+	}
+
+	/**
+	 * @return the frames of the tree, each before its children, with
+	 *         inclusive totals worked out
+	 */
+	private List<Frame> frames()
+	{
+		List<Frame> order = new ArrayList<Frame>();
+		Map<String, Integer> open = new HashMap<String, Integer>();
+		Deque<Iterator<Frame>> pending = new ArrayDeque<Iterator<Frame>>();
+		Deque<Frame> path = new ArrayDeque<Frame>();
+		pending.push(root.children.values().iterator());
+		while (!pending.isEmpty()) {
+			Iterator<Frame> children = pending.peek();
+			if (!children.hasNext()) {
+				pending.pop();
+				if (!path.isEmpty())
+					open.merge(path.pop().name, -1, Integer::sum);
+				continue;
+			}
+			Frame frame = children.next();
+			frame.outermost = open.getOrDefault(frame.name, 0) == 0;
+			frame.totalNanos = frame.nanos + frame.allBuiltinNanos;
+			frame.totalBytes = frame.bytes + frame.allBuiltinBytes;
+			open.merge(frame.name, 1, Integer::sum);
+			order.add(frame);
+			path.push(frame);
+			pending.push(frame.children.values().iterator());
+		}
+		for (int i = order.size() - 1; i >= 0; --i) {
+			Frame frame = order.get(i);
+			if (frame.parent != root) {
+				frame.parent.totalNanos += frame.totalNanos;
+				frame.parent.totalBytes += frame.totalBytes;
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * @return what was recorded for each function and builtin that was
+	 *         called, by exclusive time, longest first
+	 */
+	public List<Entry> getEntries()
+	{
+		Map<String, Entry> entries = new HashMap<String, Entry>();
+		for (Frame frame : frames()) {
+			Entry entry = entries.computeIfAbsent(frame.name, Entry::new);
+			entry.calls += frame.calls;
+			entry.exclusiveNanos += frame.nanos;
+			entry.exclusiveBytes += frame.bytes;
+			if (frame.outermost) {
+				entry.inclusiveNanos += frame.totalNanos;
+				entry.inclusiveBytes += frame.totalBytes;
+			}
+			addBuiltins(frame, entries);
+		}
+		addBuiltins(root, entries);
+		for (int type = 0; type < TYPES; ++type) {
+			if (builtinCalls[type] != 0)
+				entries.computeIfAbsent(Token.name(type), Entry::new).calls = builtinCalls[type];
+		}
+		List<Entry> sorted = new ArrayList<Entry>(entries.values());
+		sorted.sort((left, right) -> left.exclusiveNanos != right.exclusiveNanos
+		        ? Long.compare(right.exclusiveNanos, left.exclusiveNanos) : left.name.compareTo(right.name));
+		return sorted;
+	}
+
+	private static void addBuiltins(Frame frame, Map<String, Entry> entries)
+	{
+		if (frame.builtinNanos == null)
+			return;
+		for (int type = 0; type < TYPES; ++type) {
+			if (frame.builtinNanos[type] == 0 && frame.builtinBytes[type] == 0)
+				continue;
+			Entry entry = entries.computeIfAbsent(Token.name(type), Entry::new);
+			entry.inclusiveNanos += frame.builtinNanos[type];
+			entry.exclusiveNanos += frame.builtinNanos[type];
+			entry.inclusiveBytes += frame.builtinBytes[type];
+			entry.exclusiveBytes += frame.builtinBytes[type];
+		}
+	}
+
+	/**
+	 * @return the entries as a table, with a line for the total
+	 */
+	public String report()
+	{
+		List<Entry> entries = getEntries();
+		long nanos = root.nanos;
+		long bytes = root.bytes;
+		for (Entry entry : entries) {
+			nanos += entry.exclusiveNanos;
+			bytes += entry.exclusiveBytes;
+		}
+		StringBuilder report = new StringBuilder();
+		report.append(String.format("%-24s %10s %14s %14s %16s %16s%n", "function", "calls", "inclusive ms",
+		        "exclusive ms", "inclusive bytes", "exclusive bytes"));
+		for (Entry entry : entries)
+			report.append(String.format("%-24s %10d %14.3f %14.3f %16d %16d%n", entry.name, entry.calls,
+			        entry.inclusiveNanos / 1e6, entry.exclusiveNanos / 1e6, entry.inclusiveBytes, entry.exclusiveBytes));
+		report.append(String.format("%-24s %10s %14.3f %14s %16d %16s%n", "total (" + samples + " samples)", "",
+		        nanos / 1e6, "", bytes, ""));
+		return report.toString();
+	}
+
+	/**
+	 * Writes the sampled stacks in the collapsed format flame graph tools
+	 * read: one line per stack, its calls from the outermost separated by
+	 * semicolons, and the exclusive microseconds sampled in it. Builtins
+	 * without frames end the stacks they were sampled in.
+	 */
+	public void writeCollapsed(Writer out) throws IOException
+	{
+		List<Frame> frames = frames();
+		frames.add(0, root);
+		Deque<String> names = new ArrayDeque<String>();
+		for (Frame frame : frames) {
+			for (Frame call = frame; call != root; call = call.parent)
+				names.push(call.name);
+			String stack = String.join(";", names);
+			names.clear();
+			writeCollapsed(out, stack, frame.nanos);
+			if (frame.builtinNanos == null)
+				continue;
+			for (int type = 0; type < TYPES; ++type) {
+				if (frame.builtinNanos[type] == 0)
+					continue;
+				String name = Token.name(type);
+				writeCollapsed(out, stack.isEmpty() ? name : stack + ";" + name, frame.builtinNanos[type]);
+			}
+		}
+		out.flush();
+	}
+
+	private static void writeCollapsed(Writer out, String stack, long nanos) throws IOException
+	{
+		long micros = nanos / 1000;
+		if (micros == 0 || stack.isEmpty())
+			return;
+		out.write(stack);
+		out.write(' ');
+		out.write(Long.toString(micros));
+		out.write('\n');
+	}
+}
@@ -0,0 +1,410 @@
+package com.ochavoya.languages.controller;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.ochavoya.languages.model.FactBase;
+import com.ochavoya.languages.model.Symbol;
+import com.ochavoya.languages.model.Token;
+
+/**
+ * Proves goals from the facts and the rules added with DOT, by backward
+ * chaining with unification. A rule <code>(. (anc ?x ?y) (parent ?x ?z) (anc
+ * ?z ?y))</code> proves its head when every goal of its body can be proved.
+ * <p>
+ * Goals for relations that have rules are tabled: the answers to a goal are
+ * kept in a table shared by every goal that is the same up to the names of
+ * its variables. A goal that meets its own table while that table is still
+ * being filled, as left recursive rules do, reads the answers found so far
+ * instead of starting over, and the table is filled again until a round
+ * adds nothing new. Tables that depend on each other are finished together,
+ * when the first of them to start is. Every table keeps its answers, so a
+ * goal is never solved twice while the facts and rules stay the same.
+ * <p>
+ * Answers are produced one at a time, when asked for. A caller that only
+ * takes the first few does not pay for the rest, and tables left half filled
+ * go on from where they stopped the next time they are read.
+ */
+final class Resolver
+{
+	private final FactBase                        facts;
+	private final Map<List<Object>, List<Symbol>> rules   = new HashMap<List<Object>, List<Symbol>>();
+	private final Map<Symbol, Table>              tables  = new HashMap<Symbol, Table>();
+	// the tables whose rounds are running, outermost first
+	private final List<Table>                     stack   = new ArrayList<Table>();
+	private long                                  answers = 0;
+	private long                                  fresh   = 0;
+
+	Resolver(FactBase facts, Collection<Symbol> rules)
+	{
+		this.facts = facts;
+		for (Symbol rule : rules)
+			this.rules.computeIfAbsent(key(rule.getCar()), k -> new ArrayList<Symbol>()).add(rule);
+	}
+
+	/**
+	 * The goals that are the same up to the names of their variables, and
+	 * the answers to them found so far.
+	 */
+	private static final class Table
+	{
+		final Symbol       goal;
+		final List<Symbol> answers   = new ArrayList<Symbol>();
+		final Set<Symbol>  known     = new HashSet<Symbol>();
+		final Set<Table>   followers = new HashSet<Table>();
+		Iterator<Symbol>   round;
+		long               start;
+		boolean            active;
+		boolean            complete;
+		int                depth;
+		// the outermost running table this round has read an unfinished
+		// table of, itself included
+		Table              leader;
+
+		Table(Symbol goal)
+		{
+			this.goal = goal;
+		}
+	}
+
+	/**
+	 * @return the instances of <code>template</code> for each way of proving
+	 *         <code>goal</code>, as they are found
+	 */
+	Iterator<Symbol> prove(Symbol goal, Symbol template)
+	{
+		return solve(Symbol.push(template, Symbol.push(goal, Symbol.NIL)));
+	}
+
+	/**
+	 * @param state
+	 *            a template followed by the goals left to prove
+	 * @return the instances of the template for each proof of the goals
+	 */
+	private Iterator<Symbol> solve(Symbol state)
+	{
+		Symbol goals = state.getCdr();
+		if (goals.isNil())
+			return Collections.singletonList(state.getCar()).iterator();
+		Symbol goal = goals.getCar();
+		Iterator<Symbol> instances = instances(goal);
+		return new Iterator<Symbol>()
+		{
+			private Iterator<Symbol> current = Collections.emptyIterator();
+
+			@Override
+			public boolean hasNext()
+			{
+				while (!current.hasNext()) {
+					if (!instances.hasNext())
+						return false;
+					Map<Symbol, Symbol> bindings = new HashMap<Symbol, Symbol>();
+					if (unify(goal, instances.next(), bindings))
+						current = solve(resolve(Symbol.push(state.getCar(), goals.getCdr()), bindings));
+				}
+				return true;
+			}
+
+			@Override
+			public Symbol next()
+			{
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return current.next();
+			}
+		};
+	}
+
+	/**
+	 * @return instances of <code>goal</code> that are facts or follow from
+	 *         the rules, with variables not shared with <code>goal</code>
+	 */
+	private Iterator<Symbol> instances(Symbol goal)
+	{
+		if (!rules.containsKey(key(goal)))
+			return rename(facts.candidates(goal));
+		Symbol variant = canonical(goal);
+		Table table = tables.get(variant);
+		if (table == null) {
+			table = new Table(variant);
+			tables.put(variant, table);
+		}
+		return rename(answers(table));
+	}
+
+	private Iterator<Symbol> rename(Iterator<Symbol> terms)
+	{
+		return new Iterator<Symbol>()
+		{
+			@Override
+			public boolean hasNext()
+			{
+				return terms.hasNext();
+			}
+
+			@Override
+			public Symbol next()
+			{
+				Symbol term = terms.next();
+				return FactBase.isGround(term) ? term : rename(term, new HashMap<Symbol, Symbol>());
+			}
+		};
+	}
+
+	/**
+	 * Reads the answers of <code>table</code>, asking for more as the ones
+	 * found so far run out.
+	 */
+	private Iterator<Symbol> answers(Table table)
+	{
+		return new Iterator<Symbol>()
+		{
+			private int next = 0;
+
+			@Override
+			public boolean hasNext()
+			{
+				while (next == table.answers.size()) {
+					if (table.complete)
+						return false;
+					if (table.active || !produce(table)) {
+						depend(table);
+						return next < table.answers.size();
+					}
+				}
+				return true;
+			}
+
+			@Override
+			public Symbol next()
+			{
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return table.answers.get(next++);
+			}
+		};
+	}
+
+	/**
+	 * Runs the rounds of <code>table</code> until it finds a new answer.
+	 *
+	 * @return false if there is none for now, which is for good if the table
+	 *         is complete
+	 */
+	private boolean produce(Table table)
+	{
+		while (!table.complete) {
+			if (table.round == null) {
+				table.round = round(table.goal);
+				table.start = answers;
+				table.leader = null;
+			}
+			table.active = true;
+			table.depth = stack.size();
+			stack.add(table);
+			try {
+				while (table.round.hasNext()) {
+					Symbol answer = canonical(table.round.next());
+					if (table.known.add(answer)) {
+						table.answers.add(answer);
+						++answers;
+						return true;
+					}
+				}
+			} finally {
+				stack.remove(stack.size() - 1);
+				table.active = false;
+			}
+			table.round = null;
+			Table leader = table.leader;
+			if (leader != null && leader != table) {
+				// it is filled again and finished with the table it waits on
+				if (leader.active) {
+					leader.followers.add(table);
+					return false;
+				}
+				if (!leader.complete)
+					return false;
+			}
+			if (leader == null || answers == table.start)
+				complete(table);
+		}
+		return false;
+	}
+
+	private void complete(Table table)
+	{
+		table.complete = true;
+		table.known.clear();
+		for (Table follower : table.followers)
+			complete(follower);
+		table.followers.clear();
+	}
+
+	/**
+	 * Records that the running tables read <code>table</code> before it was
+	 * finished, so that they are not finished before it is.
+	 */
+	private void depend(Table table)
+	{
+		Table leader = table.active ? table : table.leader;
+		if (leader == null || !leader.active || leader.complete)
+			return;
+		for (int i = leader.depth; i < stack.size(); ++i) {
+			Table running = stack.get(i);
+			if (running.leader == null || running.leader.depth > leader.depth)
+				running.leader = leader;
+		}
+	}
+
+	/**
+	 * @return the facts that match <code>goal</code>, followed by what each
+	 *         rule whose head matches it proves, as instances of
+	 *         <code>goal</code>
+	 */
+	private Iterator<Symbol> round(Symbol goal)
+	{
+		Iterator<Symbol> matches = rename(facts.candidates(goal));
+		Iterator<Symbol> candidates = rules.get(key(goal)).iterator();
+		return new Iterator<Symbol>()
+		{
+			private Iterator<Symbol> current = Collections.emptyIterator();
+
+			@Override
+			public boolean hasNext()
+			{
+				while (!current.hasNext()) {
+					if (matches.hasNext()) {
+						Symbol fact = matches.next();
+						Map<Symbol, Symbol> bindings = new HashMap<Symbol, Symbol>();
+						if (unify(goal, fact, bindings))
+							current = Collections.singletonList(resolve(goal, bindings)).iterator();
+						continue;
+					}
+					if (!candidates.hasNext())
+						return false;
+					Symbol rule = rename(candidates.next(), new HashMap<Symbol, Symbol>());
+					Map<Symbol, Symbol> bindings = new HashMap<Symbol, Symbol>();
+					if (unify(goal, rule.getCar(), bindings))
+						current = solve(resolve(Symbol.push(goal, rule.getCdr()), bindings));
+				}
+				return true;
+			}
+
+			@Override
+			public Symbol next()
+			{
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return current.next();
+			}
+		};
+	}
+
+	private static List<Object> key(Symbol goal)
+	{
+		if (goal.getType() != Token.ISLIST)
+			return List.of(goal, -1);
+		int arity = -1;
+		for (Symbol rest = goal; rest.getType() == Token.ISLIST; rest = rest.getCdr())
+			++arity;
+		return List.of(goal.getCar(), arity);
+	}
+
+	/**
+	 * @return <code>term</code> with its variables named by their order, so
+	 *         that terms that only differ in those names are equal
+	 */
+	private static Symbol canonical(Symbol term)
+	{
+		if (FactBase.isGround(term))
+			return term;
+		Map<Symbol, Symbol> names = new HashMap<Symbol, Symbol>();
+		return replace(term, variable -> names.computeIfAbsent(variable, v -> Symbol.intern("?#v" + names.size())));
+	}
+
+	/**
+	 * @return <code>term</code> with new variables in place of its own,
+	 *         keeping those already in <code>names</code>
+	 */
+	private Symbol rename(Symbol term, Map<Symbol, Symbol> names)
+	{
+		return replace(term, variable -> names.computeIfAbsent(variable, v -> Symbol.intern("?#" + fresh++)));
+	}
+
+	private static Symbol replace(Symbol term, Function<Symbol, Symbol> variables)
+	{
+		if (term == null)
+			return null;
+		if (term.getType() != Token.ISLIST)
+			return FactBase.isVariable(term) ? variables.apply(term) : term;
+		Symbol car = replace(term.getCar(), variables);
+		Symbol cdr = replace(term.getCdr(), variables);
+		if (car == term.getCar() && cdr == term.getCdr())
+			return term;
+		return Symbol.push(car, cdr);
+	}
+
+	private static Symbol walk(Symbol term, Map<Symbol, Symbol> bindings)
+	{
+		Symbol value;
+		while (term != null && FactBase.isVariable(term) && (value = bindings.get(term)) != null)
+			term = value;
+		return term;
+	}
+
+	/**
+	 * Extends <code>bindings</code> so that <code>left</code> and
+	 * <code>right</code> become the same term.
+	 *
+	 * @return false if they cannot
+	 */
+	static boolean unify(Symbol left, Symbol right, Map<Symbol, Symbol> bindings)
+	{
+		while (true) {
+			left = walk(left, bindings);
+			right = walk(right, bindings);
+			if (left == right)
+				return true;
+			if (left == null || right == null)
+				return false;
+			if (FactBase.isVariable(left)) {
+				bindings.put(left, right);
+				return true;
+			}
+			if (FactBase.isVariable(right)) {
+				bindings.put(right, left);
+				return true;
+			}
+			if (left.getType() != Token.ISLIST || right.getType() != Token.ISLIST)
+				return left.equals(right);
+			if (!unify(left.getCar(), right.getCar(), bindings))
+				return false;
+			left = left.getCdr();
+			right = right.getCdr();
+		}
+	}
+
+	/**
+	 * @return <code>term</code> with every bound variable replaced by its
+	 *         value, all the way down
+	 */
+	static Symbol resolve(Symbol term, Map<Symbol, Symbol> bindings)
+	{
+		if (bindings.isEmpty())
+			return term;
+		return replace(term, variable -> {
+			Symbol value = walk(variable, bindings);
+			return value == variable ? variable : resolve(value, bindings);
+		});
+	}
+}
@@ -1,52 +1,166 @@
 package com.ochavoya.languages.controller;
 
-import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 
+import com.ochavoya.languages.model.Symbol;
 import com.ochavoya.languages.model.Token;
 
+/**
+ * Splits the input into tokens. Bytes are decoded from a reusable
+ * {@link ByteBuffer} into a reusable {@link CharBuffer}, characters are
+ * handled as primitives and token text is collected in one growing array, so
+ * the only objects made per token are the symbols that end up in the parsed
+ * tree. Identifiers are interned through a small cache of recently seen
+ * spellings, and the punctuation and operator symbols are shared.
+ *
+ * Line ends are read as by {@link java.io.BufferedReader#readLine()}: "\r\n"
+ * and a lone "\r" are both seen as "\n", and the last line always ends with
+ * one.
+ */
 public class Scanner
 {
-	private char[]         buffer;
-	private int            bufferPointer = 0;
-	private boolean        nextCharFlag  = false;
-	private Character      storedNextChar;
-	private BufferedReader br;
+	private static final int          EOF            = -1;
+	private static final int          NAMES          = 1024;
+	// VECTOR_LEFT has the highest type of the tokens kept here
+	private static final Symbol[]     fixed          = new Symbol[Token.VECTOR_LEFT + 1];
+
+	static {
+		fixed[Token.LEFT] = new Symbol(Token.LEFT, "(");
+		fixed[Token.RIGHT] = new Symbol(Token.RIGHT, ")");
+		fixed[Token.END] = new Symbol(Token.END, "");
+		fixed[Token.EQUAL] = new Symbol(Token.EQUAL, "=");
+		fixed[Token.PLUS] = new Symbol(Token.PLUS, "+");
+		fixed[Token.MINUS] = new Symbol(Token.MINUS, "-");
+		fixed[Token.TIMES] = new Symbol(Token.TIMES, "*");
+		fixed[Token.DIV] = new Symbol(Token.DIV, "/");
+		fixed[Token.MOD] = new Symbol(Token.MOD, "%");
+		fixed[Token.QUOTE] = new Symbol(Token.QUOTE, "'");
+		fixed[Token.DOT] = new Symbol(Token.DOT, ".");
+		fixed[Token.LT] = new Symbol(Token.LT, "<");
+		fixed[Token.LE] = new Symbol(Token.LE, "<=");
+		fixed[Token.GT] = new Symbol(Token.GT, ">");
+		fixed[Token.GE] = new Symbol(Token.GE, ">=");
+		fixed[Token.NIL] = Symbol.NIL;
+		fixed[Token.VECTOR_LEFT] = new Symbol(Token.VECTOR_LEFT, "#(");
+	}
+
+	private final ReadableByteChannel channel;
+	private final CharsetDecoder      decoder        = Charset.defaultCharset().newDecoder()
+	        .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final ByteBuffer          bytes;
+	private final CharBuffer          chars          = CharBuffer.allocate(8192).flip();
+	private boolean                   endOfInput     = false;
+	private boolean                   drained        = false;
+	private boolean                   lineStart      = true;
+	private boolean                   nextCharFlag   = false;
+	private int                       storedNextChar = EOF;
+
+	private char[]                    text           = new char[64];
+	private int                       length         = 0;
+	private Symbol                    symbol;
+
+	private final String[]            spellings      = new String[NAMES];
+	private final Symbol[]            names          = new Symbol[NAMES];
 
 	/**
-	 * 
+	 *
 	 * @param in
 	 *            Use System.in for console
 	 */
 	public Scanner(InputStream in)
 	{
-		br = new BufferedReader(new InputStreamReader(in));
+		channel = in instanceof FileInputStream ? ((FileInputStream) in).getChannel() : Channels.newChannel(in);
+		bytes = ByteBuffer.allocate(8192).flip();
+	}
+
+	/**
+	 * Scans the bytes remaining in <code>source</code>, which may be a slice
+	 * of a mapped file; they are decoded in place, without copying.
+	 */
+	public Scanner(ByteBuffer source)
+	{
+		channel = null;
+		bytes = source;
+		endOfInput = true;
+	}
+
+	/**
+	 * Decodes the next run of characters once the previous one is used up.
+	 *
+	 * @return false at the end of the input
+	 * @throws UncheckedIOException
+	 *             if the input could not be read
+	 */
+	private boolean fill()
+	{
+		chars.clear();
+		while (!drained) {
+			decoder.decode(bytes, chars, endOfInput);
+			if (endOfInput && !bytes.hasRemaining()) {
+				decoder.flush(chars);
+				drained = true;
+			}
+			if (chars.position() > 0)
+				break;
+			if (!endOfInput) {
+				bytes.compact();
+				try {
+					endOfInput = channel.read(bytes) < 0;
+				} catch (IOException e) {
+					// the input ends here, for whoever reads on after the error
+					endOfInput = true;
+					bytes.flip();
+					chars.flip();
+					throw new UncheckedIOException(e);
+				}
+				bytes.flip();
+			}
+		}
+		chars.flip();
+		return chars.hasRemaining();
+	}
+
+	private int read()
+	{
+		if (!chars.hasRemaining() && !fill())
+			return EOF;
+		return chars.get();
 	}
 
-	private final Character nextChar()
+	private final int nextChar()
 	{
 		if (nextCharFlag) {
 			nextCharFlag = false;
 			return storedNextChar;
 		}
-		while (buffer == null || bufferPointer == buffer.length) {
-			try {
-				String line = br.readLine();
-				if (line == null)
-					return null;
-				buffer = (line + "\n").toCharArray();
-				bufferPointer = 0;
-			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+		int c = read();
+		if (c == '\r') {
+			if (chars.hasRemaining() || fill()) {
+				if (chars.get(chars.position()) == '\n')
+					chars.get();
 			}
+			c = '\n';
+		}
+		if (c == EOF) {
+			if (lineStart)
+				return EOF;
+			c = '\n';
 		}
-		return buffer[bufferPointer++];
+		lineStart = c == '\n';
+		return c;
 	}
 
-	private void ungetChar(char c)
+	private void ungetChar(int c)
 	{
 		nextCharFlag = true;
 		storedNextChar = c;
@@ -54,20 +168,21 @@ public class Scanner
 
 	private void skipWhiteSpace()
 	{
-		Character c;
+		int c;
 		do {
 			c = nextChar();
-		} while (Character.isWhitespace(c) || c == '@');
+		} while (c != EOF && (Character.isWhitespace(c) || c == '@'));
 		ungetChar(c);
 	}
 
-	private boolean isValidIdChar(char c)
+	private boolean isValidIdChar(int c)
 	{
 		switch (c) {
 		case '-':
 		case '_':
 		case ':':
 		case '*':
+		case '?':
 			return true;
 		default:
 			if (Character.isAlphabetic(c) || Character.isDigit(c)) {
@@ -77,74 +192,153 @@ public class Scanner
 		}
 	}
 
-	private final Token lookAhead(int shortCode, int longCode, Character toCheck, StringBuilder buffer)
+	private void append(int c)
 	{
-		Character lookAhead = nextChar();
-		if (toCheck.equals(lookAhead)) {
-			buffer.append(lookAhead);
-			return new Token(longCode, buffer.toString());
+		if (length == text.length) {
+			char[] grown = new char[text.length * 2];
+			System.arraycopy(text, 0, grown, 0, length);
+			text = grown;
 		}
+		text[length++] = (char) c;
+	}
+
+	private final int lookAhead(int shortCode, int longCode, char toCheck)
+	{
+		int lookAhead = nextChar();
+		if (lookAhead == toCheck)
+			return emit(longCode);
 		ungetChar(lookAhead);
-		return new Token(shortCode, buffer.toString());
+		return emit(shortCode);
 	}
 
-	@SuppressWarnings("null")
-	public final Token getToken()
+	private int emit(int type)
+	{
+		symbol = fixed[type];
+		return type;
+	}
+
+	private int emit(Symbol symbol)
 	{
-		StringBuilder buffer = new StringBuilder();
+		this.symbol = symbol;
+		return symbol.getType();
+	}
+
+	/**
+	 * @return the interned symbol for the identifier in <code>text</code>,
+	 *         from the cache when the same spelling was seen recently
+	 */
+	private Symbol name()
+	{
+		int hash = 0;
+		for (int i = 0; i < length; ++i)
+			hash = 31 * hash + text[i];
+		int slot = (hash ^ (hash >>> 16)) & (NAMES - 1);
+		String spelling = spellings[slot];
+		if (spelling != null && spelling.length() == length) {
+			int i = 0;
+			while (i < length && spelling.charAt(i) == text[i])
+				++i;
+			if (i == length)
+				return names[slot];
+		}
+		spelling = new String(text, 0, length);
+		Symbol name = Symbol.intern(spelling);
+		spellings[slot] = spelling;
+		names[slot] = name;
+		return name;
+	}
+
+	/**
+	 * Numbers that fit in a long are accumulated as they are read. Numbers
+	 * with leading zeros keep their spelling, as they always have.
+	 */
+	private Symbol number()
+	{
+		boolean negative = text[0] == '-';
+		int start = negative ? 1 : 0;
+		if (text[start] != '0' || length == start + 1) {
+			long value = 0;
+			int i = start;
+			for (; i < length; ++i) {
+				int digit = Character.digit(text[i], 10);
+				if (value < (Long.MIN_VALUE + digit) / 10)
+					break;
+				value = value * 10 - digit;
+			}
+			if (i == length && (negative || value != Long.MIN_VALUE) && !(negative && value == 0))
+				return Symbol.number(negative ? value : -value);
+		}
+		return new Symbol(Token.NUMBER, new String(text, 0, length));
+	}
+
+	/**
+	 * Reads the next token.
+	 *
+	 * @return its type, which is the keyword for keyword identifiers
+	 * @see #getSymbol()
+	 */
+	public final int next()
+	{
+		length = 0;
 		int state = 0;
 		skipWhiteSpace();
 		while (true) {
-			Character c = nextChar();
+			int c = nextChar();
 			switch (state) {
 			case 0:
-				if (c == null) {
+				if (c == EOF) {
 					try {
-						br.close();
+						if (channel != null)
+							channel.close();
 					} catch (IOException e) {
 						System.out.println("IOException while closeing the input stream");
 					}
-					return new Token(Token.END, buffer.toString());
+					return emit(Token.END);
 				}
 				switch (c) {
 				case '(':
 					skipWhiteSpace();
-					buffer.append(c);
-					return lookAhead(Token.LEFT, Token.NIL, ')', buffer);
+					return lookAhead(Token.LEFT, Token.NIL, ')');
 				case ')':
-					return new Token(Token.RIGHT, ")");
+					return emit(Token.RIGHT);
 				case '=':
-					return new Token(Token.EQUAL, "=");
+					return emit(Token.EQUAL);
 				case '+':
-					return new Token(Token.PLUS, "+");
+					return emit(Token.PLUS);
 				case '-':
-					buffer.append(c);
+					append(c);
 					state = 6;
 					break;
 				case '*':
-					return new Token(Token.TIMES, "*");
+					return emit(Token.TIMES);
 				case '/':
-					return new Token(Token.DIV, "/");
+					return emit(Token.DIV);
 				case '%':
-					return new Token(Token.MOD, "%");
+					return emit(Token.MOD);
 				case '\'':
-					return new Token(Token.QUOTE, "'");
+					return emit(Token.QUOTE);
 				case '.':
-					return new Token(Token.DOT, ".");
+					return emit(Token.DOT);
 				case '<':
-					buffer.append(c);
-					return lookAhead(Token.LT, Token.LE, '=', buffer);
+					return lookAhead(Token.LT, Token.LE, '=');
 				case '>':
-					buffer.append(c);
-					return lookAhead(Token.GT, Token.GE, '=', buffer);
+					return lookAhead(Token.GT, Token.GE, '=');
 				case '"':
 					state = 3;
 					break;
 				case ';':
 					state = 4;
 					break;
+				case '#':
+					c = nextChar();
+					if (c == '(')
+						return emit(Token.VECTOR_LEFT);
+					ungetChar(c);
+					append('#');
+					state = 5;
+					break;
 				default:
-					buffer.append(c);
+					append(c);
 					if (Character.isDigit(c)) {
 						state = 2;
 					} else if (isValidIdChar(c)) {
@@ -154,45 +348,40 @@ public class Scanner
 				}
 				break;
 			case 6:
-				if (c == null || Character.isWhitespace(c)) {
+				if (c == EOF || Character.isWhitespace(c)) {
 					ungetChar(c);
-					return new Token(Token.MINUS, "-");
-				}
-				if (Character.isDigit(c)) {
-					buffer.append(c);
-					state = 2;
-					break;
+					return emit(Token.MINUS);
 				}
-				buffer.append(c);
-				state = 5;
+				append(c);
+				state = Character.isDigit(c) ? 2 : 5;
 				break;
 			case 1:
-				if (c == null || !isValidIdChar(c)) {
+				if (c == EOF || !isValidIdChar(c)) {
 					ungetChar(c);
-					return new Token(Token.ID, buffer.toString());
+					return emit(name());
 				}
-				buffer.append(c);
+				append(c);
 				break;
 			case 2:
-				if (c == null || !Character.isDigit(c)) {
+				if (c == EOF || !Character.isDigit(c)) {
 					ungetChar(c);
-					return new Token(Token.NUMBER, buffer.toString());
+					return emit(number());
 				}
-				buffer.append(c);
+				append(c);
 				break;
 			case 3:
-				if (c == null || c == '\n') {
+				if (c == EOF || c == '\n') {
 					ungetChar(c);
 					state = 5;
 					break;
 				}
 				if (c == '"') {
-					return new Token(Token.STRING, buffer.toString());
+					return emit(new Symbol(Token.STRING, new String(text, 0, length)));
 				}
-				buffer.append(c);
+				append(c);
 				break;
 			case 4:
-				if (c == null) {
+				if (c == EOF) {
 					ungetChar(c);
 					state = 5;
 					break;
@@ -200,23 +389,46 @@ public class Scanner
 				if (c == ';') {
 					do {
 						c = nextChar();
-					} while (!(c == null || c == '\n'));
+					} while (!(c == EOF || c == '\n'));
 					ungetChar(c);
 					state = 0;
 					skipWhiteSpace();
 					break;
 				}
-				buffer.append(";" + c);
+				append(';');
+				append(c);
 				state = 5;
 				break;
 			case 5:
-				if (c == null || Character.isWhitespace(c)) {
+				if (c == EOF || Character.isWhitespace(c)) {
 					ungetChar(c);
-					return new Token(Token.INVALID, buffer.toString());
+					return emit(new Symbol(Token.INVALID, new String(text, 0, length)));
 				}
-				buffer.append(c);
+				append(c);
 				break;
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * @return the symbol for the token last read by {@link #next()}: the
+	 *         interned symbol of an identifier or keyword, a new number, string
+	 *         or invalid token, or a shared symbol for punctuation and
+	 *         operators
+	 */
+	public Symbol getSymbol()
+	{
+		return symbol;
+	}
+
+	/**
+	 * Reads the next token as a {@link Token}, for callers that want one.
+	 */
+	public final Token getToken()
+	{
+		int type = next();
+		if (symbol.isInterned())
+			return new Token(Token.ID, symbol.getCode());
+		return new Token(type, symbol.getCode());
+	}
+}
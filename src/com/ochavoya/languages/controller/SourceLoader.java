@@ -0,0 +1,363 @@
+package com.ochavoya.languages.controller;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+import com.ochavoya.languages.model.Symbol;
+import com.ochavoya.languages.model.Token;
+
+/**
+ * Reads source files for LOAD. A file is memory mapped and cut into pieces at
+ * top level form boundaries, the pieces are parsed in parallel on the common
+ * fork-join pool, and their forms are handed back piece by piece in source
+ * order, so that evaluating one piece overlaps with parsing the ones after it.
+ */
+class SourceLoader
+{
+	/**
+	 * The size pieces are cut at, give or take the form that straddles it.
+	 */
+	static final int PIECE = 1 << 20;
+
+	private SourceLoader()
+	{
+	}
+
+	/**
+	 * Hands every form in the file to <code>evaluator</code>, in source order.
+	 * A few pieces past the one being evaluated are kept parsing, so the
+	 * whole file is never held as parsed forms at once.
+	 */
+	static void load(FileChannel channel, Consumer<Symbol> evaluator) throws IOException
+	{
+		long size = channel.size();
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("File too large to load");
+		}
+		MappedByteBuffer source = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		Charset charset = Charset.defaultCharset();
+		int target = charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+		        || charset.equals(StandardCharsets.ISO_8859_1) ? PIECE : Integer.MAX_VALUE;
+		Iterator<ByteBuffer> pieces = split(source, charset, target);
+		Deque<CompletableFuture<List<Symbol>>> parsing = new ArrayDeque<CompletableFuture<List<Symbol>>>();
+		int ahead = ForkJoinPool.getCommonPoolParallelism() + 1;
+		while (pieces.hasNext() || !parsing.isEmpty()) {
+			while (pieces.hasNext() && parsing.size() < ahead) {
+				ByteBuffer piece = pieces.next();
+				parsing.add(CompletableFuture.supplyAsync(() -> forms(piece)));
+			}
+			for (Symbol form : join(parsing.remove())) {
+				evaluator.accept(form);
+			}
+		}
+	}
+
+	private static List<Symbol> join(CompletableFuture<List<Symbol>> piece)
+	{
+		try {
+			return piece.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw e;
+		}
+	}
+
+	private static List<Symbol> forms(ByteBuffer piece)
+	{
+		List<Symbol> forms = new ArrayList<Symbol>();
+		Parser parser = new Parser(piece);
+		Symbol form;
+		while ((form = parser.getExpression()).getType() != Token.END) {
+			forms.add(form);
+		}
+		return forms;
+	}
+
+	/**
+	 * Cuts <code>source</code> into slices of at least <code>target</code>
+	 * bytes. A cut is only made after a line end between two top level forms,
+	 * so that every slice parses to the same forms it would have given as part
+	 * of the whole file. To know where forms end, the bytes are run through the
+	 * rules of the scanner and the parser, without building any symbols; they
+	 * are only run as far as the next cut, so the first slices can be parsed
+	 * while the rest of the file is still being cut.
+	 */
+	static Iterator<ByteBuffer> split(ByteBuffer source, Charset charset, int target)
+	{
+		Skimmer skimmer = new Skimmer(source, charset);
+		return new Iterator<ByteBuffer>()
+		{
+			private int     start = source.position();
+			private boolean ended = false;
+
+			@Override
+			public boolean hasNext()
+			{
+				return !ended;
+			}
+
+			@Override
+			public ByteBuffer next()
+			{
+				if (ended)
+					throw new NoSuchElementException();
+				while (true) {
+					if (skimmer.skipWhiteSpace() == '\n' && skimmer.position - start >= target)
+						return slice(skimmer.position);
+					if (skimmer.expression() == Token.END) {
+						ended = true;
+						return slice(source.limit());
+					}
+				}
+			}
+
+			private ByteBuffer slice(int end)
+			{
+				ByteBuffer piece = source.duplicate().position(start).limit(end).slice();
+				start = end;
+				return piece;
+			}
+		};
+	}
+
+	/**
+	 * Follows {@link Scanner#next()} and {@link Parser#getExpression()} over
+	 * raw bytes, only far enough to tell where each form ends.
+	 */
+	private static final class Skimmer
+	{
+		private static final int EOF = -1;
+		private final ByteBuffer source;
+		private final int        limit;
+		private final boolean    utf8;
+		private final boolean    ascii;
+		int                      position;
+		private int              depth    = 0;
+
+		Skimmer(ByteBuffer source, Charset charset)
+		{
+			this.source = source;
+			this.limit = source.limit();
+			this.utf8 = charset.equals(StandardCharsets.UTF_8);
+			this.ascii = charset.equals(StandardCharsets.US_ASCII);
+			this.position = source.position();
+		}
+
+		/**
+		 * @return the next character, with line ends read as one
+		 *         <code>\n</code> as the scanner does; characters that are not
+		 *         whitespace, letters or digits to the scanner come back as
+		 *         U+FFFD
+		 */
+		private int next()
+		{
+			if (position == limit)
+				return EOF;
+			int b = source.get(position++);
+			if (b >= 0) {
+				if (b == '\r') {
+					if (position < limit && source.get(position) == '\n')
+						++position;
+					return '\n';
+				}
+				return b;
+			}
+			if (!utf8)
+				return ascii ? 0xFFFD : b & 0xff;
+			int length = b >= (byte) 0xF0 ? 3 : b >= (byte) 0xE0 ? 2 : b >= (byte) 0xC0 ? 1 : -1;
+			if (length < 0 || length == 3 || position + length > limit)
+				return 0xFFFD;
+			int c = b & (length == 1 ? 0x1F : 0x0F);
+			for (int i = 0; i < length; ++i) {
+				int continuation = source.get(position + i);
+				if ((continuation & 0xC0) != 0x80)
+					return 0xFFFD;
+				c = c << 6 | continuation & 0x3F;
+			}
+			if (c < (length == 1 ? 0x80 : 0x800) || c >= 0xD800 && c <= 0xDFFF)
+				return 0xFFFD;
+			position += length;
+			return c;
+		}
+
+		private int peek()
+		{
+			int saved = position;
+			int c = next();
+			position = saved;
+			return c;
+		}
+
+		/**
+		 * Skips white space and comments.
+		 *
+		 * @return the last character skipped, or 0 if there was none
+		 */
+		int skipWhiteSpace()
+		{
+			int skipped = 0;
+			while (true) {
+				int c = peek();
+				if (c == ';') {
+					int saved = position;
+					next();
+					if (next() != ';') {
+						position = saved;
+						return skipped;
+					}
+					while ((c = peek()) != EOF && c != '\n')
+						next();
+					skipped = ';';
+				} else if (c != EOF && (Character.isWhitespace(c) || c == '@'))
+					skipped = next();
+				else
+					return skipped;
+			}
+		}
+
+		private static boolean isValidIdChar(int c)
+		{
+			return c == '-' || c == '_' || c == ':' || c == '*' || c == '?' || Character.isAlphabetic(c) || Character.isDigit(c);
+		}
+
+		private void skipWhile(boolean digits)
+		{
+			int c;
+			while ((c = peek()) != EOF && (digits ? Character.isDigit(c) : isValidIdChar(c)))
+				next();
+		}
+
+		private void skipInvalid()
+		{
+			int c;
+			while ((c = peek()) != EOF && !Character.isWhitespace(c))
+				next();
+		}
+
+		/**
+		 * Skips one token.
+		 *
+		 * @return LEFT, RIGHT, QUOTE or END for those tokens, and INVALID for
+		 *         any other
+		 */
+		private int token()
+		{
+			skipWhiteSpace();
+			int c = next();
+			switch (c) {
+			case EOF:
+				return Token.END;
+			case '(':
+				skipWhiteSpace();
+				if (peek() == ')') {
+					next();
+					return Token.INVALID;
+				}
+				return Token.LEFT;
+			case ')':
+				return Token.RIGHT;
+			case '\'':
+				return Token.QUOTE;
+			case '#':
+				if (peek() == '(') {
+					next();
+					return Token.LEFT;
+				}
+				skipInvalid();
+				return Token.INVALID;
+			case '<':
+			case '>':
+				if (peek() == '=')
+					next();
+				return Token.INVALID;
+			case '-':
+				c = peek();
+				if (c == EOF || Character.isWhitespace(c))
+					return Token.INVALID;
+				next();
+				if (Character.isDigit(c))
+					skipWhile(true);
+				else
+					skipInvalid();
+				return Token.INVALID;
+			case '"':
+				while ((c = peek()) != EOF && c != '\n') {
+					next();
+					if (c == '"')
+						return Token.INVALID;
+				}
+				return Token.INVALID;
+			case ';':
+				// a second ';' would have made it a comment
+				if (next() != EOF)
+					skipInvalid();
+				return Token.INVALID;
+			case '=':
+			case '+':
+			case '*':
+			case '/':
+			case '%':
+			case '.':
+				return Token.INVALID;
+			default:
+				if (Character.isDigit(c))
+					skipWhile(true);
+				else if (isValidIdChar(c))
+					skipWhile(false);
+				else
+					skipInvalid();
+				return Token.INVALID;
+			}
+		}
+
+		/**
+		 * Skips one expression.
+		 *
+		 * @return END at the end of the input, RIGHT for a parenthesis that
+		 *         closes a list, and INVALID for a whole expression
+		 */
+		int expression()
+		{
+			switch (token()) {
+			case Token.END:
+				return Token.END;
+			case Token.QUOTE:
+				expression();
+				return Token.INVALID;
+			case Token.LEFT:
+				++depth;
+				while (true) {
+					int type = expression();
+					if (type == Token.RIGHT)
+						return Token.INVALID;
+					if (type == Token.END)
+						return Token.END;
+				}
+			case Token.RIGHT:
+				if (depth == 0)
+					return Token.INVALID;
+				--depth;
+				return Token.RIGHT;
+			default:
+				return Token.INVALID;
+			}
+		}
+	}
+}
@@ -0,0 +1,658 @@
+package com.ochavoya.languages.controller;
+
+import java.util.List;
+
+import com.ochavoya.languages.model.Environment;
+import com.ochavoya.languages.model.Lambda;
+import com.ochavoya.languages.model.Memo;
+import com.ochavoya.languages.model.Symbol;
+import com.ochavoya.languages.model.Token;
+
+/**
+ * Evaluates expressions with an explicit, heap allocated continuation stack
+ * instead of the Java thread stack, so that deep non-tail recursion is bounded
+ * by the heap rather than by <code>-Xss</code>. Expressions in tail position
+ * are evaluated after their frame is popped, so tail calls do not grow the
+ * stack either.
+ *
+ * User functions, LAMBDA applications, the special forms QUOTE, LISTP, COND,
+ * IF, BLOCK, LET, SETQ, AND, OR, NOT, WHILE, EVAL and WRITE, and the builtins
+ * that evaluate all of their arguments are handled here. Any other form, or a
+ * form whose shape does not match what the builtin expects, is handed to the
+ * tree-walker so that both report the same errors.
+ */
+class StackEvaluator
+{
+	private static final int  ARGUMENTS = 0;
+	private static final int  CALL      = 1;
+	private static final int  COND      = 2;
+	private static final int  IF        = 3;
+	private static final int  SEQUENCE  = 4;
+	private static final int  LET       = 5;
+	private static final int  SETQ      = 6;
+	private static final int  AND       = 7;
+	private static final int  OR        = 8;
+	private static final int  NOT       = 9;
+	private static final int  WHILE     = 10;
+	private static final int  WRITE     = 11;
+	private static final int  MEMO      = 12;
+
+	private final Interpreter interpreter;
+	private Frame[]           stack     = new Frame[64];
+	private int               top       = 0;
+
+	StackEvaluator(Interpreter interpreter)
+	{
+		this.interpreter = interpreter;
+	}
+
+	/**
+	 * A continuation: what is left to do with the value of the expression
+	 * being evaluated. Frames are reused as the stack grows and shrinks.
+	 */
+	private static final class Frame
+	{
+		int          kind;
+		int          type;
+		Symbol       source;
+		Symbol       rest;
+		Environment  environment;
+		Symbol[]     values;
+		Symbol[]     names;
+		int          index;
+		Lambda       lambda;
+		Symbol       last;
+		boolean      test;
+		List<Symbol> key;
+
+		void clear()
+		{
+			source = null;
+			rest = null;
+			environment = null;
+			values = null;
+			names = null;
+			lambda = null;
+			last = null;
+			key = null;
+		}
+	}
+
+	private Frame push(int kind, Symbol source, Environment environment)
+	{
+		if (top == stack.length) {
+			Frame[] grown = new Frame[stack.length * 2];
+			System.arraycopy(stack, 0, grown, 0, stack.length);
+			stack = grown;
+		}
+		Frame frame = stack[top];
+		if (frame == null)
+			frame = stack[top] = new Frame();
+		++top;
+		frame.kind = kind;
+		frame.source = source;
+		frame.environment = environment;
+		frame.index = 0;
+		return frame;
+	}
+
+	private void pop()
+	{
+		stack[--top].clear();
+	}
+
+	/**
+	 * @return the number of frames in use, for diagnostics
+	 */
+	int depth()
+	{
+		return top;
+	}
+
+	Symbol eval(Symbol expression, Environment environment)
+	{
+		int base = top;
+		Symbol value = null;
+		boolean returning = false;
+		try {
+			while (true) {
+				if (!returning) {
+					if (expression.isAtom()) {
+						if (expression.isId()) {
+							Environment frame = environment == null ? null : environment.lookup(expression);
+							if (frame != null) {
+								value = frame.get(frame.indexOf(expression));
+							} else {
+								Symbol global = interpreter.getGlobal(expression.getCode());
+								if (global != null && !global.isAtom()) {
+									expression = global;
+									continue;
+								}
+								value = global == null ? Symbol.TRUE : global;
+							}
+						} else {
+							value = interpreter.evalAtom(expression);
+						}
+						returning = true;
+						continue;
+					}
+					Symbol next = start(expression, environment);
+					if (next == null) {
+						value = interpreter.eval(expression, environment);
+						returning = true;
+					} else if (next == expression) {
+						value = result;
+						returning = true;
+					} else {
+						expression = next;
+						environment = nextEnvironment;
+					}
+					continue;
+				}
+
+				if (top == base)
+					return value;
+				Frame frame = stack[top - 1];
+				Symbol next = resume(frame, value);
+				if (next == null) {
+					value = result;
+				} else {
+					expression = next;
+					environment = nextEnvironment;
+					returning = false;
+				}
+			}
+		} catch (RuntimeException e) {
+			throw unwind(base, e);
+		} finally {
+			while (top > base)
+				pop();
+		}
+	}
+
+	// start and resume return the next expression to evaluate, and leave the
+	// environment to evaluate it in here; or they return their argument (for
+	// start) or null (for resume) after leaving a value in result
+
+	private Symbol      result;
+	private Environment nextEnvironment;
+
+	private Symbol evaluate(Symbol expression, Environment environment)
+	{
+		nextEnvironment = environment;
+		return expression;
+	}
+
+	private Symbol start(Symbol symbol, Environment environment)
+	{
+		Symbol function = symbol.getCar();
+		Symbol args = symbol.getCdr();
+		if (function.isList()) {
+			if (function.getCar().getType() != Token.LAMBDA || function.getLength() != 3)
+				return null;
+			Symbol variables = function.getCdr().getCar();
+			if (!variables.isListOfIds())
+				return null;
+			Lambda lambda = new Lambda(function.getCdr().getCdr().getCar(), variables.getSymbolList(), environment);
+			return call(interpreter.newId(), symbol, lambda, args, environment);
+		}
+		int size = args.getLength();
+		int type = function.getType();
+		switch (type) {
+		case Token.ID: {
+			Lambda lambda = interpreter.getFunction(function.getCode());
+			if (lambda == null) {
+				throw new EvaluationError(function + " is not defined");
+			}
+			return call(function, symbol, lambda, args, environment);
+		}
+		case Token.PLUS:
+		case Token.TIMES:
+			return arguments(symbol, type, args, size, environment);
+		case Token.MINUS:
+			if (size != 1 && size != 2)
+				return null;
+			return arguments(symbol, type, args, size, environment);
+		case Token.DIV:
+		case Token.MOD:
+		case Token.LT:
+		case Token.GT:
+		case Token.LE:
+		case Token.GE:
+		case Token.EQUAL:
+		case Token.PUSH:
+		case Token.MEMBERP:
+			if (size != 2)
+				return null;
+			return arguments(symbol, type, args, size, environment);
+		case Token.CAR:
+		case Token.CDR:
+		case Token.CADR:
+		case Token.CADDR:
+		case Token.COUNT:
+		case Token.REVERSE:
+		case Token.ATOMP:
+		case Token.NUMBERP:
+		case Token.STRINGP:
+			if (size != 1)
+				return null;
+			return arguments(symbol, type, args, size, environment);
+		case Token.NUMBER:
+		case Token.STRING:
+		case Token.VECTOR_VALUE:
+		case Token.TABLE_VALUE:
+		case Token.SET_VALUE:
+			return arguments(symbol, type, symbol, size + 1, environment);
+		case Token.QUOTE:
+			if (size != 1)
+				return null;
+			return value(symbol, args.getCar());
+		case Token.LISTP:
+			if (size != 1)
+				return null;
+			return value(symbol, bool(args.getCar().isList()));
+		case Token.EVAL:
+			if (size != 1)
+				return null;
+			return evaluate(args.getCar(), environment);
+		case Token.COND: {
+			if (size != 1 || !args.getCar().isList())
+				return null;
+			for (Symbol s = args.getCar(); !s.isNil(); s = s.getCdr()) {
+				if (!s.getCar().isList() || s.getCar().getLength() != 2)
+					return null;
+			}
+			Symbol cases = args.getCar();
+			if (cases.isNil())
+				return value(symbol, Symbol.NIL);
+			Frame frame = push(COND, symbol, environment);
+			frame.rest = cases;
+			return evaluate(cases.getCar().getCar(), environment);
+		}
+		case Token.IF: {
+			if (size != 3)
+				return null;
+			Frame frame = push(IF, symbol, environment);
+			frame.rest = args.getCdr();
+			return evaluate(args.getCar(), environment);
+		}
+		case Token.BLOCK:
+			if (args.isNil())
+				return value(symbol, Symbol.NIL);
+			return sequence(symbol, args, environment);
+		case Token.LET:
+			return let(symbol, args, size, environment);
+		case Token.SETQ: {
+			if (size != 2 || !args.getCar().isId())
+				return null;
+			Frame frame = push(SETQ, symbol, environment);
+			frame.last = args.getCar();
+			return evaluate(args.getCdr().getCar(), environment);
+		}
+		case Token.AND:
+		case Token.OR: {
+			if (args.isNil())
+				return value(symbol, type == Token.AND ? Symbol.TRUE : Symbol.NIL);
+			Frame frame = push(type == Token.AND ? AND : OR, symbol, environment);
+			frame.rest = args.getCdr();
+			return evaluate(args.getCar(), environment);
+		}
+		case Token.NOT:
+			if (size != 1)
+				return null;
+			push(NOT, symbol, environment);
+			return evaluate(args.getCar(), environment);
+		case Token.WHILE: {
+			if (size != 2 || !args.getCdr().getCar().isList())
+				return null;
+			Frame frame = push(WHILE, symbol, environment);
+			frame.test = true;
+			frame.last = Symbol.NIL;
+			return evaluate(args.getCar(), environment);
+		}
+		case Token.WRITE: {
+			if (args.isNil()) {
+				interpreter.getOut().println();
+				return value(symbol, Symbol.TRUE);
+			}
+			Frame frame = push(WRITE, symbol, environment);
+			frame.rest = args.getCdr();
+			return evaluate(args.getCar(), environment);
+		}
+		}
+		return null;
+	}
+
+	private Symbol value(Symbol symbol, Symbol value)
+	{
+		result = value;
+		return symbol;
+	}
+
+	private Symbol call(Symbol function, Symbol symbol, Lambda lambda, Symbol args, Environment environment)
+	{
+		Frame frame = push(CALL, symbol, environment);
+		frame.last = function;
+		frame.lambda = lambda;
+		frame.values = new Symbol[args.getLength()];
+		if (args.isNil())
+			return resume(frame, null);
+		frame.rest = args.getCdr();
+		return evaluate(args.getCar(), environment);
+	}
+
+	private Symbol arguments(Symbol symbol, int type, Symbol args, int size, Environment environment)
+	{
+		Frame frame = push(ARGUMENTS, symbol, environment);
+		frame.type = type;
+		frame.values = new Symbol[size];
+		if (args.isNil()) {
+			result = apply(frame);
+			pop();
+			return symbol;
+		}
+		frame.rest = args.getCdr();
+		return evaluate(args.getCar(), environment);
+	}
+
+	private Symbol sequence(Symbol symbol, Symbol forms, Environment environment)
+	{
+		if (!forms.getCdr().isNil()) {
+			Frame frame = push(SEQUENCE, symbol, environment);
+			frame.rest = forms.getCdr();
+		}
+		return evaluate(forms.getCar(), environment);
+	}
+
+	private Symbol let(Symbol symbol, Symbol args, int size, Environment environment)
+	{
+		if (size != 2 || !args.getCar().isList() || !args.getCdr().getCar().isList())
+			return null;
+		Symbol assoc = args.getCar();
+		Symbol code = args.getCdr().getCar();
+		if (assoc.isNil())
+			return evaluate(code, environment);
+		int count = assoc.getLength();
+		for (Symbol s = assoc; !s.isNil(); s = s.getCdr()) {
+			Symbol pair = s.getCar();
+			if (!pair.isList() || pair.getLength() != 2 || !pair.getCar().isId())
+				return null;
+		}
+		Frame frame = push(LET, symbol, environment);
+		frame.names = new Symbol[count];
+		frame.values = new Symbol[count];
+		frame.rest = assoc;
+		frame.last = code;
+		return evaluate(assoc.getCar().getCdr().getCar(), environment);
+	}
+
+	private Symbol resume(Frame frame, Symbol value)
+	{
+		Environment environment = frame.environment;
+		switch (frame.kind) {
+		case ARGUMENTS:
+			if (value != null)
+				frame.values[frame.index++] = value;
+			if (frame.index < frame.values.length) {
+				Symbol next = frame.rest.getCar();
+				frame.rest = frame.rest.getCdr();
+				return evaluate(next, environment);
+			}
+			result = apply(frame);
+			pop();
+			return null;
+		case CALL: {
+			if (value != null)
+				frame.values[frame.index++] = value;
+			if (frame.index < frame.values.length) {
+				Symbol next = frame.rest.getCar();
+				frame.rest = frame.rest.getCdr();
+				return evaluate(next, environment);
+			}
+			Lambda lambda = frame.lambda;
+			Memo memo = lambda.getMemo();
+			if (memo != null) {
+				List<Symbol> key = Memo.key(frame.values);
+				Symbol cached = memo.get(key);
+				if (cached != null) {
+					pop();
+					result = cached;
+					return null;
+				}
+				Environment bound = interpreter.bind(frame.last, lambda, frame.values);
+				frame.kind = MEMO;
+				frame.key = key;
+				return evaluate(lambda.getCode(), bound);
+			}
+			Environment bound = interpreter.bind(frame.last, lambda, frame.values);
+			pop();
+			return evaluate(lambda.getCode(), bound);
+		}
+		case MEMO:
+			frame.lambda.getMemo().put(frame.key, value);
+			pop();
+			result = value;
+			return null;
+		case COND: {
+			Symbol condCase = frame.rest.getCar();
+			if (!value.isNil()) {
+				pop();
+				return evaluate(condCase.getCdr().getCar(), environment);
+			}
+			frame.rest = frame.rest.getCdr();
+			if (frame.rest.isNil()) {
+				pop();
+				result = Symbol.NIL;
+				return null;
+			}
+			return evaluate(frame.rest.getCar().getCar(), environment);
+		}
+		case IF: {
+			Symbol branches = frame.rest;
+			pop();
+			return evaluate(value.isNil() ? branches.getCdr().getCar() : branches.getCar(), environment);
+		}
+		case SEQUENCE: {
+			Symbol next = frame.rest.getCar();
+			frame.rest = frame.rest.getCdr();
+			if (frame.rest.isNil())
+				pop();
+			return evaluate(next, environment);
+		}
+		case LET: {
+			Symbol pair = frame.rest.getCar();
+			frame.names[frame.index] = pair.getCar();
+			frame.values[frame.index++] = value;
+			frame.rest = frame.rest.getCdr();
+			if (!frame.rest.isNil())
+				return evaluate(frame.rest.getCar().getCdr().getCar(), environment);
+			Environment bound = new Environment(frame.names, frame.values, environment);
+			Symbol code = frame.last;
+			Symbol symbol = frame.source;
+			pop();
+			if (code.isNil()) {
+				result = Symbol.NIL;
+				return null;
+			}
+			return sequence(symbol, code, bound);
+		}
+		case SETQ: {
+			Symbol id = frame.last;
+			Environment binding = environment == null ? null : environment.lookup(id);
+			if (binding == null)
+				interpreter.setGlobal(id.getCode(), value);
+			else
+				binding.set(binding.indexOf(id), value);
+			pop();
+			result = value;
+			return null;
+		}
+		case AND:
+		case OR: {
+			boolean and = frame.kind == AND;
+			if (value.isNil() == and || frame.rest.isNil()) {
+				pop();
+				result = and ? (value.isNil() ? value : Symbol.TRUE) : bool(!value.isNil());
+				return null;
+			}
+			Symbol next = frame.rest.getCar();
+			frame.rest = frame.rest.getCdr();
+			return evaluate(next, environment);
+		}
+		case NOT:
+			pop();
+			result = bool(value.isNil());
+			return null;
+		case WHILE: {
+			Symbol args = frame.source.getCdr();
+			if (frame.test) {
+				if (value.isNil()) {
+					result = frame.last;
+					pop();
+					return null;
+				}
+				Symbol body = args.getCdr().getCar();
+				if (body.isNil())
+					return evaluate(args.getCar(), environment);
+				frame.test = false;
+				frame.rest = body.getCdr();
+				return evaluate(body.getCar(), environment);
+			}
+			frame.last = value;
+			if (frame.rest.isNil()) {
+				frame.test = true;
+				return evaluate(args.getCar(), environment);
+			}
+			Symbol next = frame.rest.getCar();
+			frame.rest = frame.rest.getCdr();
+			return evaluate(next, environment);
+		}
+		case WRITE:
+			interpreter.print(value);
+			interpreter.getOut().print(' ');
+			if (frame.rest.isNil()) {
+				interpreter.getOut().println();
+				pop();
+				result = Symbol.TRUE;
+				return null;
+			}
+			Symbol next = frame.rest.getCar();
+			frame.rest = frame.rest.getCdr();
+			return evaluate(next, environment);
+		}
+		throw new IllegalStateException("Unknown frame kind " + frame.kind);
+	}
+
+	private Symbol apply(Frame frame)
+	{
+		Symbol[] values = frame.values;
+		switch (frame.type) {
+		case Token.PLUS: {
+			Symbol value = Numbers.ZERO;
+			for (Symbol s : values)
+				value = Numbers.add(value, s);
+			return value;
+		}
+		case Token.TIMES: {
+			Symbol value = Numbers.ONE;
+			for (Symbol s : values)
+				value = Numbers.multiply(value, s);
+			return value;
+		}
+		case Token.MINUS:
+			if (values.length == 1)
+				return Numbers.negate(values[0]);
+			return Numbers.subtract(values[0], values[1]);
+		case Token.DIV:
+			return Numbers.divide(values[0], values[1]);
+		case Token.MOD:
+			try {
+				return Numbers.mod(values[0], values[1]);
+			} catch (Exception e) {
+				throw new EvaluationError("processModule(): " + frame.source);
+			}
+		case Token.LT:
+			return bool(Interpreter.compare(values[0], values[1]) < 0);
+		case Token.GT:
+			return bool(Interpreter.compare(values[0], values[1]) > 0);
+		case Token.LE:
+			return bool(Interpreter.compare(values[0], values[1]) <= 0);
+		case Token.GE:
+			return bool(Interpreter.compare(values[0], values[1]) >= 0);
+		case Token.EQUAL:
+			return bool(values[0].equals(values[1]));
+		case Token.PUSH:
+			checkList(values[1]);
+			return Symbol.push(values[0], values[1]);
+		case Token.MEMBERP:
+			checkList(values[1]);
+			return Symbol.memberP(values[0], values[1]);
+		case Token.CAR:
+			values[0] = values[0].realize();
+			checkList(values[0]);
+			return values[0].getCar();
+		case Token.CDR:
+		case Token.CADR:
+		case Token.CADDR:
+			values[0] = values[0].realize();
+			checkList(values[0]);
+			return values[0].getCdr();
+		case Token.COUNT:
+			values[0] = values[0].realize();
+			if (values[0].isVector() || values[0].isTable())
+				return Symbol.number(values[0].getSize());
+			checkList(values[0]);
+			return Symbol.number(values[0].getLength());
+		case Token.REVERSE:
+			checkList(values[0]);
+			return Symbol.reverse(values[0]);
+		case Token.ATOMP:
+			return bool(values[0].isAtom());
+		case Token.NUMBERP:
+			return bool(values[0].isNumber());
+		case Token.STRINGP:
+			return bool(values[0].isString());
+		default:
+			Symbol list = Symbol.NIL;
+			for (int i = values.length - 1; i >= 0; --i)
+				list = Symbol.push(values[i], list);
+			return list;
+		}
+	}
+
+	/**
+	 * The arithmetic builtins of the tree-walker turn any failure while
+	 * evaluating their arguments into an error about themselves; the
+	 * outermost one wins. Reproduce that from the frames still on the stack.
+	 */
+	private RuntimeException unwind(int base, RuntimeException e)
+	{
+		for (int i = base; i < top; ++i) {
+			Frame frame = stack[i];
+			if (frame.kind != ARGUMENTS)
+				continue;
+			switch (frame.type) {
+			case Token.PLUS:
+				return new EvaluationError("Invalid expression " + frame.source);
+			case Token.TIMES:
+				return new EvaluationError("processTimes(): " + frame.source);
+			case Token.MINUS:
+				return new EvaluationError("processMinus(): " + frame.source);
+			case Token.DIV:
+				return new EvaluationError("processDiv() error: " + frame.source);
+			}
+		}
+		return e;
+	}
+
+	private static Symbol bool(boolean value)
+	{
+		return value ? Symbol.TRUE : Symbol.NIL;
+	}
+
+	private static void checkList(Symbol list)
+	{
+		if (!list.isList())
+			throw new EvaluationError(list + " is not a list");
+	}
+}
@@ -0,0 +1,392 @@
+package com.ochavoya.languages.controller;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.StreamCorruptedException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ochavoya.languages.model.Symbol;
+import com.ochavoya.languages.model.Token;
+
+/**
+ * Records what the tree-walker evaluates to a file, as fixed size binary
+ * records, for {@link #decode(InputStream, PrintStream)} to print later.
+ * <p>
+ * There is a record for each call of a user function and each builtin, made
+ * when it returns, with the time it started, how long it took, how deep it
+ * was and what it returned; a call that ends in a tail call returns when the
+ * call it makes starts, and is shown as continuing. The evaluating
+ * thread writes the records to a ring buffer and a daemon thread copies them
+ * to the file, so evaluating never waits for the disk: when the buffer is
+ * full, records are dropped and counted instead. Only one in every
+ * <code>every</code> records is kept, and with functions to filter by, only
+ * the calls of those functions and what they do are recorded.
+ * <p>
+ * The file starts with a header and is a sequence of chunks, each a byte
+ * tag: <code>N</code> names a function, with its number and its name;
+ * <code>R</code> has a count and that many records of four longs; and
+ * <code>E</code> ends the file with the number of records dropped.
+ */
+public class Tracer implements Closeable
+{
+	public static final int      MAGIC     = 0x4C545243;
+	public static final int      VERSION   = 1;
+
+	// the kinds of records
+	static final int             CALL      = 1;
+	static final int             BUILTIN   = 2;
+
+	/**
+	 * Passed as the value of a call that ended with an error.
+	 */
+	static final Symbol          RAISED    = new Symbol();
+
+	// what a record has instead of the type of the value
+	private static final int     ERROR     = 0xFFFF;
+	private static final int     CONTINUED = 0xFFFE;
+	private static final int     FIXNUM    = 0xFFFD;
+	private static final int     LONGS     = 4;
+	private static final long    DRAIN     = 1000000;
+	private static final int     PENDING   = 100000;
+
+	private static final VarHandle HEAD;
+	private static final VarHandle TAIL;
+
+	static {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			HEAD = lookup.findVarHandle(Tracer.class, "head", long.class);
+			TAIL = lookup.findVarHandle(Tracer.class, "tail", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	private final DataOutputStream     out;
+	private final long[]               ring;
+	private final int                  mask;
+	private final int                  every;
+	private final Set<String>          functions;
+	private final long                 origin   = System.nanoTime();
+	private final Thread               drainer;
+	private volatile boolean           running  = true;
+	private IOException                failure;
+
+	// written by the evaluating thread
+	private long                       head     = 0;
+	private long                       free     = 0;
+	private int                        depth    = 0;
+	private int                        inside   = 0;
+	private int                        skipped  = 0;
+	private long                       dropped  = 0;
+	private final Map<String, Integer> ids      = new HashMap<String, Integer>();
+	private volatile String[]          names    = new String[16];
+	private int                        count    = 0;
+
+	// written by the drainer
+	private long                       tail     = 0;
+	private int                        written  = 0;
+
+	/**
+	 * Traces to <code>path</code>, keeping one in every <code>every</code>
+	 * records and, unless <code>functions</code> is empty, only the calls of
+	 * the functions it names and what they do. The buffer holds
+	 * <code>lisp.trace.buffer</code> records, 65536 by default.
+	 */
+	public Tracer(Path path, int every, Collection<String> functions) throws IOException
+	{
+		if (every < 1)
+			throw new IllegalArgumentException("every " + every);
+		int capacity = Integer.highestOneBit(Math.max(Integer.getInteger("lisp.trace.buffer", 65536), 2));
+		this.ring = new long[capacity * LONGS];
+		this.mask = capacity - 1;
+		this.every = every;
+		this.functions = new HashSet<String>(functions);
+		this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 65536));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(System.currentTimeMillis());
+		drainer = new Thread(this::drain, "lisp-tracer");
+		drainer.setDaemon(true);
+		drainer.start();
+	}
+
+	/**
+	 * Starts a call of <code>function</code>, or of a builtin if it is null.
+	 *
+	 * @return the time it started
+	 */
+	long enter(String function)
+	{
+		++depth;
+		if (function != null && !functions.isEmpty() && functions.contains(function))
+			++inside;
+		return System.nanoTime();
+	}
+
+	/**
+	 * Ends the call of <code>function</code> that started at
+	 * <code>start</code>; a null value means it went on with a tail call.
+	 */
+	void exit(String function, long start, Symbol value)
+	{
+		--depth;
+		if (recording())
+			record(CALL, id(function), start, value);
+		if (!functions.isEmpty() && functions.contains(function))
+			--inside;
+	}
+
+	/**
+	 * Ends the builtin of type <code>type</code> that started at
+	 * <code>start</code>; a null value means it went on with a tail call.
+	 */
+	void exit(int type, long start, Symbol value)
+	{
+		--depth;
+		if (recording())
+			record(BUILTIN, type, start, value);
+	}
+
+	private boolean recording()
+	{
+		if (!functions.isEmpty() && inside == 0)
+			return false;
+		if (++skipped < every)
+			return false;
+		skipped = 0;
+		return true;
+	}
+
+	private int id(String function)
+	{
+		Integer id = ids.get(function);
+		if (id != null)
+			return id;
+		String[] table = names;
+		if (count == table.length)
+			table = Arrays.copyOf(table, count * 2);
+		table[count] = function;
+		// published with the record that first uses it
+		names = table;
+		ids.put(function, count);
+		return count++;
+	}
+
+	private void record(int kind, int name, long start, Symbol value)
+	{
+		long position = head;
+		if (position == free) {
+			free = (long) TAIL.getAcquire(this) + mask + 1;
+			if (position == free) {
+				++dropped;
+				return;
+			}
+		}
+		int type;
+		long number = 0;
+		if (value == RAISED) {
+			type = ERROR;
+		} else if (value == null) {
+			type = CONTINUED;
+		} else if (value.isFixnum()) {
+			type = FIXNUM;
+			number = value.getFixnum();
+		} else {
+			type = value.getType() & 0xFFFF;
+		}
+		long now = System.nanoTime();
+		int at = (int) (position & mask) * LONGS;
+		ring[at] = start - origin;
+		ring[at + 1] = (now - start) << 16 | type;
+		ring[at + 2] = (long) kind << 56 | (long) (depth & 0xFFFFFF) << 32 | name & 0xFFFFFFFFL;
+		ring[at + 3] = number;
+		HEAD.setRelease(this, position + 1);
+	}
+
+	private void drain()
+	{
+		try {
+			boolean more;
+			do {
+				more = running;
+				long end = (long) HEAD.getAcquire(this);
+				if (end > tail) {
+					String[] table = names;
+					while (written < table.length && table[written] != null) {
+						out.writeByte('N');
+						out.writeInt(written);
+						out.writeUTF(table[written++]);
+					}
+					out.writeByte('R');
+					out.writeInt((int) (end - tail));
+					for (long position = tail; position < end; ++position) {
+						int at = (int) (position & mask) * LONGS;
+						for (int i = 0; i < LONGS; ++i)
+							out.writeLong(ring[at + i]);
+					}
+					TAIL.setRelease(this, end);
+					out.flush();
+				} else if (more) {
+					LockSupport.parkNanos(DRAIN);
+				}
+			} while (more);
+		} catch (IOException e) {
+			failure = e;
+		}
+	}
+
+	/**
+	 * Stops tracing and writes what is left in the buffer.
+	 *
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		if (!running)
+			return;
+		running = false;
+		LockSupport.unpark(drainer);
+		boolean interrupted = false;
+		while (drainer.isAlive()) {
+			try {
+				drainer.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		try {
+			if (failure != null)
+				throw failure;
+			out.writeByte('E');
+			out.writeLong(dropped);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @return the records dropped so far because the buffer was full
+	 */
+	public long getDropped()
+	{
+		return dropped;
+	}
+
+	/**
+	 * Prints a trace file, a line per record in the order the calls started,
+	 * each indented by its depth: the milliseconds from the start of the
+	 * trace, the milliseconds it took, the function or builtin and what it
+	 * returned, as a number or a type. The records are put in order a top
+	 * level call at a time, or a hundred thousand at a time when sampling or
+	 * filtering leaves the top level calls out.
+	 *
+	 * @throws StreamCorruptedException
+	 *             if the input is not a trace
+	 */
+	public static void decode(InputStream input, PrintStream out) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+		if (in.readInt() != MAGIC)
+			throw new StreamCorruptedException("not a trace");
+		if (in.readInt() != VERSION)
+			throw new StreamCorruptedException("a trace of another version");
+		out.println("# started at " + new Date(in.readLong()));
+		List<String> names = new ArrayList<String>();
+		List<long[]> pending = new ArrayList<long[]>();
+		while (true) {
+			int tag;
+			try {
+				tag = in.readUnsignedByte();
+			} catch (EOFException e) {
+				print(pending, names, out);
+				out.println("# the trace was not closed");
+				return;
+			}
+			switch (tag) {
+			case 'N':
+				int id = in.readInt();
+				while (names.size() <= id)
+					names.add(null);
+				names.set(id, in.readUTF());
+				break;
+			case 'R':
+				for (int count = in.readInt(); count > 0; --count) {
+					long[] record = new long[LONGS];
+					for (int i = 0; i < LONGS; ++i)
+						record[i] = in.readLong();
+					pending.add(record);
+					// a call ends after all the calls it made, so the records
+					// of a top level call can be put in order once it is in
+					if ((record[2] >>> 32 & 0xFFFFFF) == 0 || pending.size() >= PENDING)
+						print(pending, names, out);
+				}
+				break;
+			case 'E':
+				print(pending, names, out);
+				long dropped = in.readLong();
+				if (dropped > 0)
+					out.println("# " + dropped + " records were dropped");
+				return;
+			default:
+				throw new StreamCorruptedException("unknown chunk " + tag);
+			}
+		}
+	}
+
+	private static void print(List<long[]> records, List<String> names, PrintStream out)
+	{
+		records.sort((left, right) -> left[0] != right[0] ? Long.compare(left[0], right[0])
+		        : Long.compare(left[2] >>> 32 & 0xFFFFFF, right[2] >>> 32 & 0xFFFFFF));
+		StringBuilder line = new StringBuilder();
+		for (long[] record : records) {
+			int kind = (int) (record[2] >>> 56);
+			int depth = (int) (record[2] >>> 32 & 0xFFFFFF);
+			int name = (int) record[2];
+			int type = (int) (record[1] & 0xFFFF);
+			line.setLength(0);
+			line.append(String.format("%12.3f %10.3f ", record[0] / 1e6, (record[1] >>> 16) / 1e6));
+			for (int i = 0; i < depth; ++i)
+				line.append("  ");
+			if (kind == BUILTIN)
+				line.append(Token.name(name));
+			else
+				line.append(name < names.size() ? names.get(name) : "#" + name);
+			line.append(" -> ");
+			if (type == ERROR)
+				line.append("error");
+			else if (type == CONTINUED)
+				line.append("continues");
+			else if (type == FIXNUM)
+				line.append(record[3]);
+			else
+				line.append(Token.name(type));
+			out.println(line);
+		}
+		records.clear();
+	}
+}
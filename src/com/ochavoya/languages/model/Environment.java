@@ -0,0 +1,69 @@
+package com.ochavoya.languages.model;
+
+public class Environment
+{
+	private final Symbol[]    names;
+	private final Symbol[]    values;
+	private final Environment parent;
+
+	public Environment(Symbol[] names, Symbol[] values, Environment parent)
+	{
+		this.names = names;
+		this.values = values;
+		this.parent = parent;
+	}
+
+	public Symbol[] getNames()
+	{
+		return names;
+	}
+
+	public Environment getParent()
+	{
+		return parent;
+	}
+
+	public Symbol get(int index)
+	{
+		return values[index];
+	}
+
+	public void set(int index, Symbol value)
+	{
+		values[index] = value;
+	}
+
+	/**
+	 * @return the slot bound to <code>name</code> in this frame, or -1 when the
+	 *         frame does not bind it
+	 */
+	public int indexOf(Symbol name)
+	{
+		for (int i = 0; i < names.length; ++i) {
+			if (Symbol.sameName(names[i], name))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the innermost frame, starting at this one, that binds
+	 *         <code>name</code>, or null when it is not a lexical variable
+	 */
+	public Environment lookup(Symbol name)
+	{
+		for (Environment environment = this; environment != null; environment = environment.parent) {
+			if (environment.indexOf(name) >= 0)
+				return environment;
+		}
+		return null;
+	}
+
+	public Environment up(int depth)
+	{
+		Environment environment = this;
+		while (depth-- > 0)
+			environment = environment.parent;
+		return environment;
+	}
+}
@@ -0,0 +1,385 @@
+package com.ochavoya.languages.model;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The facts asserted with DOT, grouped by relation and indexed by argument.
+ * <p>
+ * A fact <code>(parent tom bob)</code> belongs to the relation of the facts
+ * headed by <code>parent</code> with two arguments. Each relation keeps, for
+ * every argument position, the facts that have each value in that position.
+ * A pattern is looked up in its relation through the shortest list among the
+ * positions it gives a value for, so a query only visits facts that agree
+ * with it in that position, however many facts the store holds.
+ * <p>
+ * Identifiers that start with <code>?</code> are variables in patterns.
+ * A fact with a variable in an argument is found by lookups on any value in
+ * that argument, for the resolver, which reads it as a variable; to
+ * {@link #match(Symbol, Symbol, Map)} it is only the same variable.
+ */
+public class FactBase extends AbstractCollection<Symbol>
+{
+	private final Map<Key, Relation> relations = new HashMap<Key, Relation>();
+	private final List<Relation>     order     = new ArrayList<Relation>();
+	private int                      size      = 0;
+
+	public FactBase()
+	{
+	}
+
+	public FactBase(FactBase other)
+	{
+		for (Relation relation : other.order) {
+			for (int i = 0; i < relation.size; ++i)
+				add(relation.facts[i]);
+		}
+	}
+
+	/**
+	 * The head and the number of arguments of a fact. A fact that is not a
+	 * proper list is its own head and has no arguments.
+	 */
+	private static final class Key
+	{
+		final Symbol head;
+		final int    arity;
+
+		Key(Symbol head, int arity)
+		{
+			this.head = head;
+			this.arity = arity;
+		}
+
+		static Key of(Symbol fact)
+		{
+			if (fact.isAtom())
+				return new Key(fact, -1);
+			int arity = -1;
+			Symbol rest = fact;
+			while (rest.getType() == Token.ISLIST) {
+				++arity;
+				rest = rest.getCdr();
+			}
+			return rest.isNil() ? new Key(fact.getCar(), arity) : new Key(fact, -1);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * head.hashCode() + arity;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			return arity == other.arity && head.equals(other.head);
+		}
+	}
+
+	/**
+	 * The positions, in insertion order, of the facts of a relation that
+	 * have one value in one argument.
+	 */
+	private static final class Postings
+	{
+		int[] positions = new int[2];
+		int   size      = 0;
+
+		void add(int position)
+		{
+			if (size == positions.length)
+				positions = Arrays.copyOf(positions, size * 2);
+			positions[size++] = position;
+		}
+	}
+
+	private static final Postings NONE = new Postings();
+
+	private static final class Relation
+	{
+		final int                         arity;
+		final Set<Symbol>                 members   = new HashSet<Symbol>();
+		final List<Map<Symbol, Postings>> arguments;
+		// the facts with a variable in each argument, which any value matches
+		final Postings[]                  open;
+		Symbol[]                          facts     = new Symbol[4];
+		int                               size      = 0;
+
+		Relation(int arity)
+		{
+			this.arity = arity;
+			arguments = new ArrayList<Map<Symbol, Postings>>(Math.max(arity, 0));
+			open = new Postings[Math.max(arity, 0)];
+			for (int i = 0; i < open.length; ++i) {
+				arguments.add(new HashMap<Symbol, Postings>());
+				open[i] = new Postings();
+			}
+		}
+
+		boolean add(Symbol fact)
+		{
+			if (!members.add(fact))
+				return false;
+			if (size == facts.length)
+				facts = Arrays.copyOf(facts, size * 2);
+			facts[size] = fact;
+			Symbol argument = fact.getCdr();
+			for (int i = 0; i < open.length; ++i) {
+				Symbol value = argument.getCar();
+				if (isGround(value))
+					arguments.get(i).computeIfAbsent(value, k -> new Postings()).add(size);
+				else
+					open[i].add(size);
+				argument = argument.getCdr();
+			}
+			++size;
+			return true;
+		}
+
+		/**
+		 * @return the facts that agree with the arguments of
+		 *         <code>pattern</code> in its most selective position with a
+		 *         value, or all of them if it has none or is null; facts with
+		 *         a variable in that position are included, in order
+		 */
+		Iterator<Symbol> candidates(Symbol pattern)
+		{
+			int best = -1;
+			Postings equal = null;
+			Symbol argument = pattern == null ? null : pattern.getCdr();
+			for (int i = 0; argument != null && i < open.length; ++i) {
+				Symbol value = argument.getCar();
+				if (isGround(value)) {
+					Postings postings = arguments.get(i).getOrDefault(value, NONE);
+					if (postings.size + open[i].size == 0)
+						return Collections.emptyIterator();
+					if (best < 0 || postings.size + open[i].size < equal.size + open[best].size) {
+						best = i;
+						equal = postings;
+					}
+				}
+				argument = argument.getCdr();
+			}
+			if (best < 0) {
+				int end = size;
+				return new Iterator<Symbol>()
+				{
+					private int next = 0;
+
+					@Override
+					public boolean hasNext()
+					{
+						return next < end;
+					}
+
+					@Override
+					public Symbol next()
+					{
+						if (next == end)
+							throw new NoSuchElementException();
+						return facts[next++];
+					}
+				};
+			}
+			Postings left = equal;
+			Postings right = open[best];
+			int leftEnd = left.size;
+			int rightEnd = right.size;
+			return new Iterator<Symbol>()
+			{
+				private int nextLeft  = 0;
+				private int nextRight = 0;
+
+				@Override
+				public boolean hasNext()
+				{
+					return nextLeft < leftEnd || nextRight < rightEnd;
+				}
+
+				@Override
+				public Symbol next()
+				{
+					if (!hasNext())
+						throw new NoSuchElementException();
+					if (nextRight == rightEnd
+					        || nextLeft < leftEnd && left.positions[nextLeft] < right.positions[nextRight])
+						return facts[left.positions[nextLeft++]];
+					return facts[right.positions[nextRight++]];
+				}
+			};
+		}
+	}
+
+	/**
+	 * Adds <code>fact</code> unless an equal one is already there.
+	 *
+	 * @return true if it was added
+	 */
+	@Override
+	public boolean add(Symbol fact)
+	{
+		Key key = Key.of(fact);
+		Relation relation = relations.get(key);
+		if (relation == null) {
+			relation = new Relation(key.arity);
+			relations.put(key, relation);
+			order.add(relation);
+		}
+		if (!relation.add(fact))
+			return false;
+		++size;
+		return true;
+	}
+
+	@Override
+	public boolean contains(Object object)
+	{
+		if (!(object instanceof Symbol))
+			return false;
+		Symbol fact = (Symbol) object;
+		Relation relation = relations.get(Key.of(fact));
+		return relation != null && relation.members.contains(fact);
+	}
+
+	@Override
+	public int size()
+	{
+		return size;
+	}
+
+	@Override
+	public void clear()
+	{
+		relations.clear();
+		order.clear();
+		size = 0;
+	}
+
+	@Override
+	public Iterator<Symbol> iterator()
+	{
+		return candidates(null);
+	}
+
+	/**
+	 * @return the facts that may match <code>pattern</code>, in the order
+	 *         they were added within each relation; every fact when
+	 *         <code>pattern</code> is null or a variable
+	 */
+	public Iterator<Symbol> candidates(Symbol pattern)
+	{
+		if (pattern != null && !isVariable(pattern)) {
+			Key key = Key.of(pattern);
+			if (isGround(key.head)) {
+				Relation relation = relations.get(key);
+				return relation == null ? Collections.emptyIterator() : relation.candidates(pattern);
+			}
+		}
+		Key key = pattern == null || isVariable(pattern) ? null : Key.of(pattern);
+		Iterator<Relation> relations = order.iterator();
+		return new Iterator<Symbol>()
+		{
+			private Iterator<Symbol> current = Collections.emptyIterator();
+
+			@Override
+			public boolean hasNext()
+			{
+				while (!current.hasNext()) {
+					if (!relations.hasNext())
+						return false;
+					Relation relation = relations.next();
+					if (key == null)
+						current = relation.candidates(null);
+					else if (relation.arity == key.arity)
+						current = relation.candidates(pattern);
+				}
+				return true;
+			}
+
+			@Override
+			public Symbol next()
+			{
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return current.next();
+			}
+		};
+	}
+
+	public static boolean isVariable(Symbol symbol)
+	{
+		return symbol.isInterned() && symbol.getCode().startsWith("?");
+	}
+
+	/**
+	 * @return true if <code>symbol</code> has no variables
+	 */
+	public static boolean isGround(Symbol symbol)
+	{
+		while (symbol != null && symbol.getType() == Token.ISLIST) {
+			if (!isGround(symbol.getCar()))
+				return false;
+			symbol = symbol.getCdr();
+		}
+		return symbol == null || !isVariable(symbol);
+	}
+
+	/**
+	 * Matches <code>pattern</code> against <code>fact</code>, adding the
+	 * values of the variables of <code>pattern</code> to
+	 * <code>bindings</code>. A variable that is already bound only matches
+	 * its value.
+	 *
+	 * @return false if they do not match, in which case
+	 *         <code>bindings</code> may have been partly extended
+	 */
+	public static boolean match(Symbol pattern, Symbol fact, Map<Symbol, Symbol> bindings)
+	{
+		while (true) {
+			if (pattern == fact)
+				return true;
+			if (pattern == null || fact == null)
+				return false;
+			if (isVariable(pattern)) {
+				Symbol value = bindings.putIfAbsent(pattern, fact);
+				return value == null || value.equals(fact);
+			}
+			if (pattern.getType() != Token.ISLIST || fact.getType() != Token.ISLIST)
+				return pattern.equals(fact);
+			if (!match(pattern.getCar(), fact.getCar(), bindings))
+				return false;
+			pattern = pattern.getCdr();
+			fact = fact.getCdr();
+		}
+	}
+
+	/**
+	 * @return <code>template</code> with its bound variables replaced by
+	 *         their values; parts without variables are shared, not copied
+	 */
+	public static Symbol substitute(Symbol template, Map<Symbol, Symbol> bindings)
+	{
+		if (template == null)
+			return null;
+		if (template.getType() != Token.ISLIST)
+			return isVariable(template) && bindings.containsKey(template) ? bindings.get(template) : template;
+		Symbol car = substitute(template.getCar(), bindings);
+		Symbol cdr = substitute(template.getCdr(), bindings);
+		if (car == template.getCar() && cdr == template.getCdr())
+			return template;
+		return Symbol.push(car, cdr);
+	}
+}
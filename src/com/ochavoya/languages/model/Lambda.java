@@ -1,11 +1,20 @@
 package com.ochavoya.languages.model;
 
 import java.util.List;
+import java.util.function.Supplier;
 
 public class Lambda
 {
-	Symbol       code;
-	List<Symbol> varsList;
+	Symbol           code;
+	List<Symbol>     varsList;
+	Symbol[]         variables;
+	Environment      closure;
+	Node             body;
+	Symbol           name;
+	int              calls;
+	boolean          tiered;
+	Memo             memo;
+	Supplier<Symbol> pending;
 
 	public Lambda()
 	{
@@ -15,23 +24,56 @@ public class Lambda
 	@Override
 	public String toString()
 	{
-		return "Lambda [code=" + code + ", varsList=" + varsList + "]";
+		return "Lambda [code=" + getCode() + ", varsList=" + varsList + "]";
 	}
 
 	public Lambda(Symbol code, List<Symbol> varsList)
 	{
 		this.code = code;
-		this.varsList = varsList;
+		setVarsList(varsList);
+	}
+
+	public Lambda(Symbol code, List<Symbol> varsList, Environment closure)
+	{
+		this(code, varsList);
+		this.closure = closure;
+	}
+
+	/**
+	 * The body is shared by every call; arguments are bound in an
+	 * {@link Environment} instead of being substituted into a copy of it.
+	 */
+	public Lambda(Symbol name, Symbol code, List<Symbol> varsList, Environment closure)
+	{
+		this(code, varsList, closure);
+		this.name = name;
 	}
 
 	public Symbol getCode()
 	{
-		return code.copy();
+		if (pending != null) {
+			code = pending.get();
+			pending = null;
+		}
+		return code;
 	}
 
 	public void setCode(Symbol code)
 	{
 		this.code = code;
+		this.pending = null;
+		this.body = null;
+	}
+
+	/**
+	 * Sets a body that is only read the first time {@link #getCode()} is
+	 * called.
+	 */
+	public void setCode(Supplier<Symbol> pending)
+	{
+		this.code = null;
+		this.pending = pending;
+		this.body = null;
 	}
 
 	public List<Symbol> getVarsList()
@@ -42,6 +84,92 @@ public class Lambda
 	public void setVarsList(List<Symbol> varsList)
 	{
 		this.varsList = varsList;
+		this.variables = varsList == null ? null : varsList.toArray(new Symbol[varsList.size()]);
+		this.body = null;
+	}
+
+	/**
+	 * @return the environment the function was defined in, or null for a top
+	 *         level definition
+	 */
+	public Environment getClosure()
+	{
+		return closure;
+	}
+
+	public Symbol[] getVariables()
+	{
+		return variables;
+	}
+
+	/**
+	 * @return the compiled body, or null if the body has not been compiled yet
+	 */
+	public Node getBody()
+	{
+		return body;
+	}
+
+	public void setBody(Node body)
+	{
+		this.body = body;
+	}
+
+	/**
+	 * @return the name the function was defined with, or null for an
+	 *         anonymous lambda
+	 */
+	public Symbol getName()
+	{
+		return name;
+	}
+
+	public int countCall()
+	{
+		return ++calls;
+	}
+
+	public int getCalls()
+	{
+		return calls;
+	}
+
+	/**
+	 * @return true once the body has been handed to the bytecode compiler,
+	 *         whether or not it could compile it
+	 */
+	public boolean isTiered()
+	{
+		return tiered;
+	}
+
+	public void setTiered(boolean tiered)
+	{
+		this.tiered = tiered;
+	}
+
+	/**
+	 * @return the cache of results, or null if the function is not memoized
+	 */
+	public Memo getMemo()
+	{
+		return memo;
+	}
+
+	public void setMemo(Memo memo)
+	{
+		this.memo = memo;
+	}
+
+	/**
+	 * Drops any compiled body and the call count, so that the function is
+	 * interpreted again until it becomes hot.
+	 */
+	public void deoptimize()
+	{
+		body = null;
+		calls = 0;
+		tiered = false;
 	}
 
 }
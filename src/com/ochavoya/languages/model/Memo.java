@@ -0,0 +1,85 @@
+package com.ochavoya.languages.model;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The results of a memoized function keyed by its argument values. It holds at
+ * most <code>capacity</code> results and evicts the least recently used one to
+ * make room for a new one.
+ */
+public class Memo
+{
+	private final int                       capacity;
+	private final Map<List<Symbol>, Symbol> results;
+	private long                            hits;
+	private long                            misses;
+
+	@SuppressWarnings("serial")
+	public Memo(int capacity)
+	{
+		this.capacity = capacity;
+		this.results = new LinkedHashMap<List<Symbol>, Symbol>(16, 0.75f, true)
+		{
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<List<Symbol>, Symbol> eldest)
+			{
+				return size() > Memo.this.capacity;
+			}
+		};
+	}
+
+	public static List<Symbol> key(Symbol[] values)
+	{
+		return List.of(values);
+	}
+
+	/**
+	 * @return the cached result for <code>key</code>, or null if there is none
+	 */
+	public Symbol get(List<Symbol> key)
+	{
+		Symbol value = results.get(key);
+		if (value == null)
+			++misses;
+		else
+			++hits;
+		return value;
+	}
+
+	public void put(List<Symbol> key, Symbol value)
+	{
+		results.put(key, value);
+	}
+
+	/**
+	 * Drops every result and resets the statistics.
+	 */
+	public void clear()
+	{
+		results.clear();
+		hits = 0;
+		misses = 0;
+	}
+
+	public int size()
+	{
+		return results.size();
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	public long getHits()
+	{
+		return hits;
+	}
+
+	public long getMisses()
+	{
+		return misses;
+	}
+}
@@ -0,0 +1,23 @@
+package com.ochavoya.languages.model;
+
+/**
+ * A pre-resolved, executable form of a parsed {@link Symbol}. Operator, arity
+ * and variable slots are fixed when the node is built, so executing it does no
+ * dispatch lookups and no argument list building.
+ */
+public abstract class Node
+{
+	protected final Symbol source;
+
+	protected Node(Symbol source)
+	{
+		this.source = source;
+	}
+
+	public Symbol getSource()
+	{
+		return source;
+	}
+
+	public abstract Symbol execute(Environment environment);
+}
@@ -0,0 +1,129 @@
+package com.ochavoya.languages.model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Writes symbols as text straight to a writer, walking each list once, so
+ * printing takes time in proportion to what is printed. Lists, vectors and
+ * tables nested deeper than the depth limit are printed as <code>#</code>,
+ * and those with more elements than the length limit are cut short with
+ * <code>...</code>; either limit is off when negative. Lazy sequences are
+ * printed as lists, computing only the elements that are printed, and
+ * without a length limit are cut after {@link #LAZY_LENGTH} elements, since
+ * they can be endless.
+ */
+public class Printer
+{
+	public static final int LAZY_LENGTH = 100;
+
+	private final Writer out;
+	private final int    depth;
+	private final int    length;
+
+	public Printer(Writer out)
+	{
+		this(out, -1, -1);
+	}
+
+	public Printer(Writer out, int depth, int length)
+	{
+		this.out = out;
+		this.depth = depth;
+		this.length = length;
+	}
+
+	public void print(Symbol symbol) throws IOException
+	{
+		print(symbol, 0);
+	}
+
+	public void flush() throws IOException
+	{
+		out.flush();
+	}
+
+	private void print(Symbol symbol, int level) throws IOException
+	{
+		boolean lazy = symbol != null && symbol.isLazy();
+		if (lazy)
+			symbol = symbol.realize();
+		if (symbol == null || symbol.isAtom() && !symbol.isVector() && !symbol.isTable()) {
+			out.write(String.valueOf(symbol == null ? null : symbol.getCode()));
+			return;
+		}
+		if (depth >= 0 && level >= depth) {
+			out.write('#');
+			return;
+		}
+		if (symbol.isVector())
+			vector(symbol.getElements(), level + 1);
+		else if (symbol.isTable())
+			table(symbol, level + 1);
+		else
+			list(symbol, level + 1, lazy && length < 0 ? LAZY_LENGTH : length);
+	}
+
+	private void list(Symbol list, int level, int length) throws IOException
+	{
+		out.write('(');
+		int count = 0;
+		for (Symbol rest = list; !rest.isNil(); rest = rest.getCdr().realize()) {
+			if (rest.isAtom()) {
+				out.write(" . ");
+				print(rest, level);
+				break;
+			}
+			if (count == length) {
+				out.write(count > 0 ? " ..." : "...");
+				break;
+			}
+			Symbol element = rest.getCar();
+			if (count++ > 0)
+				out.write(element != null && element.getType() == Token.QUOTE ? '\'' : ' ');
+			print(element, level);
+		}
+		out.write(')');
+	}
+
+	private void vector(Symbol[] elements, int level) throws IOException
+	{
+		out.write("#(");
+		for (int i = 0; i < elements.length; ++i) {
+			if (i > 0)
+				out.write(' ');
+			if (i == length) {
+				out.write("...");
+				break;
+			}
+			print(elements[i], level);
+		}
+		out.write(')');
+	}
+
+	private void table(Symbol table, int level) throws IOException
+	{
+		boolean set = table.getType() == Token.SET_VALUE;
+		out.write(set ? "#HASH_SET(" : "#HASH_TABLE(");
+		int count = 0;
+		for (Map.Entry<Symbol, Symbol> entry : table.getTable().entrySet()) {
+			if (count > 0)
+				out.write(' ');
+			if (count++ == length) {
+				out.write("...");
+				break;
+			}
+			if (set) {
+				print(entry.getKey(), level);
+			} else {
+				out.write('(');
+				print(entry.getKey(), level);
+				out.write(' ');
+				print(entry.getValue(), level);
+				out.write(')');
+			}
+		}
+		out.write(')');
+	}
+}
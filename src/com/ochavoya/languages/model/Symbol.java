@@ -1,13 +1,20 @@
 package com.ochavoya.languages.model;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-
-import org.apache.log4j.Logger;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 public class Symbol implements Serializable
 {
@@ -16,11 +23,59 @@ public class Symbol implements Serializable
 	 */
 	private static final long   serialVersionUID = 201706110509L;
 
-	private static final Logger log              = Logger.getLogger(Symbol.class);
 	private String              code             = null;
 	private int                 type             = Token.ISLIST;
 	private Symbol              car              = null;
 	private Symbol              cdr              = null;
+	/**
+	 * Numbers keep their value here and only get a <code>code</code> when
+	 * printed. <code>bignum</code> is only set for values outside the range of
+	 * a long, so every number has a single representation.
+	 */
+	private long                fixnum           = 0;
+	private BigInteger          bignum           = null;
+	/**
+	 * Identifiers are interned: two interned symbols are equal only when they
+	 * are the same object. Lists cache their hash the first time it is asked
+	 * for, so they must not be changed after being used as a key. Equality
+	 * does not trust the cache, which a vector or a table changed inside the
+	 * list leaves stale.
+	 */
+	private boolean             interned         = false;
+	private transient int       hash             = 0;
+	/**
+	 * The elements of a vector, which can be changed in place; vectors never
+	 * cache their hash.
+	 */
+	private Symbol[]            elements         = null;
+	/**
+	 * The entries of a hash table, or the elements of a hash set mapped to
+	 * themselves, in the order they were added. Keys are compared with
+	 * {@link #equals(Object)}, so a list or a vector must not be changed
+	 * while it is a key.
+	 */
+	private Map<Symbol, Symbol> table            = null;
+	/**
+	 * Computes the first cell of a lazy sequence, once; the result is kept in
+	 * <code>realized</code> and the generator dropped, so what it refers to
+	 * can be collected.
+	 */
+	private Supplier<Symbol>    generator        = null;
+	private Symbol              realized         = null;
+
+	private static final class Interned extends WeakReference<Symbol>
+	{
+		private final String key;
+
+		Interned(String key, Symbol symbol)
+		{
+			super(symbol, collected);
+			this.key = key;
+		}
+	}
+
+	private static final ConcurrentHashMap<String, Interned> internTable = new ConcurrentHashMap<String, Interned>();
+	private static final ReferenceQueue<Symbol>              collected   = new ReferenceQueue<Symbol>();
 
 	public Symbol()
 	{
@@ -30,6 +85,8 @@ public class Symbol implements Serializable
 	{
 		this.type = type;
 		this.code = code;
+		if (type == Token.NUMBER)
+			parseNumber();
 	}
 
 	public Symbol(Token token)
@@ -37,6 +94,17 @@ public class Symbol implements Serializable
 		super();
 		this.code = token.getCode();
 		this.type = token.getType();
+		if (type == Token.NUMBER)
+			parseNumber();
+	}
+
+	private void parseNumber()
+	{
+		try {
+			fixnum = Long.parseLong(code);
+		} catch (NumberFormatException e) {
+			bignum = new BigInteger(code);
+		}
 	}
 
 	public static final Symbol TRUE   = new Symbol(new Token(Token.TRUE));
@@ -46,8 +114,83 @@ public class Symbol implements Serializable
 	public static final Symbol LAMBDA = new Symbol(new Token(Token.LAMBDA));
 	public static final Symbol DEFUN  = new Symbol(new Token(Token.DEFUN));
 
+	static {
+		for (Symbol symbol : new Symbol[] { TRUE, NIL, QUOTE, EVAL, LAMBDA, DEFUN }) {
+			symbol.interned = true;
+			register(symbol.code, symbol);
+		}
+	}
+
+	/**
+	 * Returns the unique symbol for the identifier <code>code</code>. Keywords
+	 * are resolved here, once per spelling, and every spelling of a keyword
+	 * maps to the same symbol. The table only holds weak references, so names
+	 * that are no longer used can be collected.
+	 */
+	public static Symbol intern(String code)
+	{
+		Interned reference = internTable.get(code);
+		Symbol symbol = reference == null ? null : reference.get();
+		if (symbol != null)
+			return symbol;
+		Integer keyword = Token.keyword(code);
+		if (keyword == null) {
+			symbol = new Symbol(Token.ID, code);
+		} else {
+			String name = code.toUpperCase();
+			symbol = name.equals(code) ? new Symbol(keyword, name) : intern(name);
+		}
+		symbol.interned = true;
+		return register(code, symbol);
+	}
+
+	private static Symbol register(String code, Symbol symbol)
+	{
+		Reference<? extends Symbol> stale;
+		while ((stale = collected.poll()) != null) {
+			Interned interned = (Interned) stale;
+			internTable.remove(interned.key, interned);
+		}
+		Interned fresh = new Interned(code, symbol);
+		while (true) {
+			Interned current = internTable.putIfAbsent(code, fresh);
+			if (current == null)
+				return symbol;
+			Symbol existing = current.get();
+			if (existing != null)
+				return existing;
+			if (internTable.replace(code, current, fresh))
+				return symbol;
+		}
+	}
+
+	private Object readResolve()
+	{
+		return interned ? intern(code) : this;
+	}
+
+	public boolean isInterned()
+	{
+		return interned;
+	}
+
+	/**
+	 * @return true when both symbols name the same identifier; a pointer check
+	 *         when both are interned
+	 */
+	public static boolean sameName(Symbol left, Symbol right)
+	{
+		if (left == right)
+			return true;
+		if (left.interned && right.interned)
+			return false;
+		return left.getCode().equals(right.getCode());
+	}
+
 	public String getCode()
 	{
+		if (code == null && type == Token.NUMBER)
+			code = bignum == null ? Long.toString(fixnum) : bignum.toString();
 		return code;
 	}
 
@@ -66,6 +209,7 @@ public class Symbol implements Serializable
 	public void setCar(Symbol car)
 	{
 		this.car = car;
+		this.hash = 0;
 	}
 
 	public Symbol getCdr()
@@ -78,6 +222,7 @@ public class Symbol implements Serializable
 	public void setCdr(Symbol cdr)
 	{
 		this.cdr = cdr;
+		this.hash = 0;
 	}
 
 	public boolean isNil()
@@ -118,41 +263,10 @@ public class Symbol implements Serializable
 		return true;
 	}
 
-	private Symbol substitute(Map<Symbol, Symbol> map)
-	{
-		Symbol pointer = this;
-		if (pointer.isNil())
-			return pointer;
-		if (pointer.car == null && pointer.cdr == null && pointer.isId()) {
-			Symbol value = map.get(pointer);
-			if (log.isDebugEnabled()) {
-				log.debug("substitute () - value: " + value);
-			}
-			if (value == null)
-				return pointer;
-			return value.copy();
-		}
-		if (!(pointer.car == null || pointer.car.isNil()))
-			pointer.car = pointer.car.substitute(map);
-		if (!(pointer.cdr == null || pointer.cdr.isNil()))
-			pointer.cdr = pointer.cdr.substitute(map);
-		return pointer;
-	}
-
-	public static Symbol map(List<Symbol> variables, List<Symbol> values, Symbol code)
-	{
-		if (variables.size() == 0)
-			return code;
-		Map<Symbol, Symbol> map = new HashMap<Symbol, Symbol>();
-
-		for (int i = 0, size = variables.size(); i < size; ++i)
-			map.put(variables.get(i), values.get(i));
-
-		return code.substitute(map);
-	}
-
 	public Symbol copy()
 	{
+		if (interned)
+			return this;
 		switch (type) {
 		case Token.ISLIST:
 		case Token.ID:
@@ -161,6 +275,8 @@ public class Symbol implements Serializable
 			Symbol symbol = new Symbol();
 			symbol.type = type;
 			symbol.code = code;
+			symbol.fixnum = fixnum;
+			symbol.bignum = bignum;
 			if (car != null)
 				symbol.car = car.copy();
 			if (cdr != null)
@@ -203,10 +319,10 @@ public class Symbol implements Serializable
 	public int getLength()
 	{
 		int length = 0;
-		Symbol symbol = this;
+		Symbol symbol = realize();
 		while (!symbol.isNil()) {
 			++length;
-			symbol = symbol.getCdr();
+			symbol = symbol.getCdr().realize();
 		}
 		return length;
 	}
@@ -219,24 +335,165 @@ public class Symbol implements Serializable
 		Symbol symbol = this;
 		while (!symbol.isNil()) {
 			list.add(symbol.getCar());
-			symbol = symbol.getCdr();
+			symbol = symbol.getCdr().realize();
 		}
 		return list;
 	}
 
+	public static final Symbol number(long number)
+	{
+		Symbol symbol = new Symbol();
+		symbol.type = Token.NUMBER;
+		symbol.fixnum = number;
+		return symbol;
+	}
+
 	public static final Symbol number(BigInteger number)
 	{
+		if (number.bitLength() < Long.SIZE)
+			return number(number.longValue());
 		Symbol symbol = new Symbol();
 		symbol.type = Token.NUMBER;
-		symbol.code = number.toString();
+		symbol.bignum = number;
 		return symbol;
 	}
 
+	/**
+	 * @return true for numbers that fit in a long, which
+	 *         {@link #getFixnum()} returns without allocating
+	 */
+	public final boolean isFixnum()
+	{
+		return type == Token.NUMBER && bignum == null;
+	}
+
+	public final long getFixnum()
+	{
+		return fixnum;
+	}
+
+	public final BigInteger getBigInteger()
+	{
+		return bignum == null ? BigInteger.valueOf(fixnum) : bignum;
+	}
+
 	public final boolean isNumber()
 	{
 		return this.type == Token.NUMBER;
 	}
 
+	/**
+	 * @return a vector that holds <code>elements</code> itself, not a copy
+	 */
+	public static final Symbol vector(Symbol[] elements)
+	{
+		Symbol symbol = new Symbol();
+		symbol.type = Token.VECTOR_VALUE;
+		symbol.elements = elements;
+		return symbol;
+	}
+
+	public final boolean isVector()
+	{
+		return elements != null;
+	}
+
+	/**
+	 * @return the elements of a vector, to be read and set in place
+	 */
+	public final Symbol[] getElements()
+	{
+		return elements;
+	}
+
+	/**
+	 * @param type
+	 *            {@link Token#TABLE_VALUE} or {@link Token#SET_VALUE}
+	 * @param expected
+	 *            the number of entries to make room for
+	 */
+	public static final Symbol table(int type, int expected)
+	{
+		Symbol symbol = new Symbol();
+		symbol.type = type;
+		symbol.table = new LinkedHashMap<Symbol, Symbol>(Math.max((int) (expected / 0.75f) + 1, 16));
+		return symbol;
+	}
+
+	/**
+	 * @return true for hash tables and hash sets
+	 */
+	public final boolean isTable()
+	{
+		return table != null;
+	}
+
+	/**
+	 * @return the entries of a hash table or hash set, to be read and changed
+	 *         in place
+	 */
+	public final Map<Symbol, Symbol> getTable()
+	{
+		return table;
+	}
+
+	/**
+	 * @param generator
+	 *            returns NIL or the first cell of the sequence, whose cdr is
+	 *            usually another lazy sequence; it may also return a lazy
+	 *            sequence to stand for
+	 */
+	public static final Symbol lazy(Supplier<Symbol> generator)
+	{
+		Symbol symbol = new Symbol();
+		symbol.type = Token.LAZY;
+		symbol.generator = generator;
+		return symbol;
+	}
+
+	public final boolean isLazy()
+	{
+		return type == Token.LAZY;
+	}
+
+	/**
+	 * @return NIL or the first cell of a lazy sequence, computed the first
+	 *         time it is asked for and kept after that; any other symbol is
+	 *         returned as it is
+	 */
+	public final Symbol realize()
+	{
+		if (type != Token.LAZY)
+			return this;
+		Symbol value = this;
+		while (value.type == Token.LAZY) {
+			if (value.realized == null) {
+				Supplier<Symbol> next = value.generator;
+				if (next == null)
+					throw new IllegalStateException("a lazy sequence needs its own elements to compute them");
+				value.generator = null;
+				try {
+					value.realized = next.get();
+				} catch (RuntimeException | Error e) {
+					value.generator = next;
+					throw e;
+				}
+			}
+			value = value.realized;
+		}
+		realized = value;
+		return value;
+	}
+
+	/**
+	 * @return the number of elements of a vector, or of entries of a hash
+	 *         table or hash set, without counting them
+	 */
+	public final int getSize()
+	{
+		return elements != null ? elements.length : table.size();
+	}
+
 	public static final Symbol append(Symbol left, Symbol right)
 	{
 		left = reverse(left);
@@ -249,11 +506,49 @@ public class Symbol implements Serializable
 
 	@Override
 	public int hashCode()
+	{
+		if (elements != null)
+			return Arrays.hashCode(elements);
+		if (table != null)
+			return table.hashCode();
+		if (type == Token.LAZY)
+			return realize().hashCode();
+		int result = hash;
+		if (result != 0)
+			return result;
+		if (type == Token.NUMBER)
+			return bignum == null ? Long.hashCode(fixnum) : bignum.hashCode();
+		if (cdr == null) {
+			result = hash(car == null ? 0 : car.hashCode(), 0);
+		} else {
+			// hash the cdr chain from its tail back, so long lists do not recurse
+			List<Symbol> pending = new ArrayList<Symbol>();
+			Symbol symbol = this;
+			while (symbol != null && symbol.hash == 0 && symbol.type != Token.NUMBER) {
+				if (symbol.type == Token.LAZY) {
+					symbol = symbol.realize();
+					continue;
+				}
+				pending.add(symbol);
+				symbol = symbol.cdr;
+			}
+			int cdrHash = symbol == null ? 0 : symbol.hashCode();
+			for (int i = pending.size() - 1; i >= 0; --i) {
+				Symbol node = pending.get(i);
+				cdrHash = node.hash = node.hash(node.car == null ? 0 : node.car.hashCode(), cdrHash);
+			}
+			result = cdrHash;
+		}
+		hash = result;
+		return result;
+	}
+
+	private int hash(int carHash, int cdrHash)
 	{
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((car == null) ? 0 : car.hashCode());
-		result = prime * result + ((cdr == null) ? 0 : cdr.hashCode());
+		result = prime * result + carHash;
+		result = prime * result + cdrHash;
 		result = prime * result + ((code == null) ? 0 : code.hashCode());
 		result = prime * result + type;
 		return result;
@@ -268,47 +563,55 @@ public class Symbol implements Serializable
 			return false;
 		if (getClass() != obj.getClass())
 			return false;
+		Symbol left = this;
 		Symbol other = (Symbol) obj;
-		if (car == null) {
-			if (other.car != null)
+		// walk the cdr chain iteratively, so long lists do not recurse
+		while (true) {
+			left = left.realize();
+			other = other.realize();
+			if (left == other)
+				return true;
+			if (left.type != other.type)
 				return false;
-		} else if (!car.equals(other.car))
-			return false;
-		if (cdr == null) {
-			if (other.cdr != null)
+			if (left.type == Token.NUMBER) {
+				if (left.bignum == null)
+					return other.bignum == null && left.fixnum == other.fixnum;
+				return left.bignum.equals(other.bignum);
+			}
+			if (left.interned && other.interned)
 				return false;
-		} else if (!cdr.equals(other.cdr))
-			return false;
-		if (code == null) {
-			if (other.code != null)
+			if (left.elements != null || other.elements != null)
+				return left.elements != null && other.elements != null && Arrays.equals(left.elements, other.elements);
+			if (left.table != null || other.table != null)
+				return left.table != null && other.table != null && left.table.equals(other.table);
+			if (left.code == null) {
+				if (other.code != null)
+					return false;
+			} else if (!left.code.equals(other.code))
 				return false;
-		} else if (!code.equals(other.code))
-			return false;
-		if (type != other.type)
-			return false;
-		return true;
+			if (left.car == null) {
+				if (other.car != null)
+					return false;
+			} else if (!left.car.equals(other.car))
+				return false;
+			if (left.cdr == null || other.cdr == null)
+				return left.cdr == other.cdr;
+			left = left.cdr;
+			other = other.cdr;
+		}
 	}
 
 	@Override
 	public String toString()
 	{
-		if (isAtom())
-			return code;
-		StringBuilder builder = new StringBuilder();
-		builder.append("(");
-		List<Symbol> list = getSymbolList();
-		if (list.size() > 1) {
-			builder.append(list.get(0).toString());
-		}
-		list.remove(0);
-		for (Symbol s : list) {
-			if (Token.QUOTE == s.getType()) {
-				builder.append("'");
-			} else
-				builder.append(" ");
-			builder.append(s.toString());
+		if (isAtom() && elements == null && table == null && type != Token.LAZY)
+			return getCode();
+		StringWriter text = new StringWriter();
+		try {
+			new Printer(text).print(this);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
 		}
-		builder.append(")");
-		return builder.toString();
+		return text.toString();
 	}
 }
@@ -1,78 +1,124 @@
 package com.ochavoya.languages.model;
 
 import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 public class Token
 {
-	public static final int                   AND        = 1;
-	public static final int                   APPEND     = 2;
-	public static final int                   ATOMP      = 3;
-	public static final int                   BLOCK      = 4;
-	public static final int                   CADDR      = 5;
-	public static final int                   CADR       = 6;
-	public static final int                   CAR        = 7;
-	public static final int                   CDR        = 8;
-	public static final int                   CLEAR      = 9;
-	public static final int                   COND       = 10;
-	public static final int                   CONS       = 11;
-	public static final int                   COUNT      = 12;
-	public static final int                   DEFUN      = 13;
-	public static final int                   DISCARD    = 14;
-	public static final int                   DIV        = 15;
-	public static final int                   DO         = 16;
-	public static final int                   DOT        = 17;
-	public static final int                   END        = 18;
-	public static final int                   EQUAL      = 19;
-	public static final int                   ERROR      = 20;
-	public static final int                   EVAL       = 21;
-	public static final int                   EXIT       = 22;
-	public static final int                   FALSE      = 23;
-	public static final int                   FOR        = 24;
-	public static final int                   FOR_LIST   = 25;
-	public static final int                   GE         = 26;
-	public static final int                   GT         = 27;
-	public static final int                   ID         = 28;
-	public static final int                   IF         = 29;
-	public static final int                   INVALID    = 30;
-	public static final int                   ISLIST     = 31;
-	public static final int                   LAMBDA     = 32;
-	public static final int                   LE         = 33;
-	public static final int                   LEFT       = 34;
-	public static final int                   LET        = 35;
-	public static final int                   LIST       = 36;
-	public static final int                   LISTP      = 37;
-	public static final int                   LOAD       = 38;
-	public static final int                   LT         = 39;
-	public static final int                   MINUS      = 40;
-	public static final int                   MEMBERP    = 41;
-	public static final int                   MOD        = 42;
-	public static final int                   NAND       = 43;
-	public static final int                   NIL        = 44;
-	public static final int                   NOR        = 45;
-	public static final int                   NOT        = 46;
-	public static final int                   NUMBER     = 47;
-	public static final int                   NUMBERP    = 48;
-	public static final int                   OR         = 49;
-	public static final int                   PLUS       = 50;
-	public static final int                   PUSH       = 51;
-	public static final int                   QUIT       = 52;
-	public static final int                   QUOTE      = 53;
-	public static final int                   READ       = 54;
-	public static final int                   REVERSE    = 55;
-	public static final int                   RIGHT      = 56;
-	public static final int                   SAVE       = 57;
-	public static final int                   SET        = 58;
-	public static final int                   SETQ       = 59;
-	public static final int                   STRING     = 60;
-	public static final int                   STRINGP    = 61;
-	public static final int                   TIMES      = 62;
-	public static final int                   TRACE      = 63;
-	public static final int                   TRUE       = 64;
-	public static final int                   UNSET      = 65;
-	public static final int                   WHILE      = 66;
-	public static final int                   WRITE      = 67;
+	public static final int                   AND            = 1;
+	public static final int                   APPEND         = 2;
+	public static final int                   ATOMP          = 3;
+	public static final int                   BLOCK          = 4;
+	public static final int                   CADDR          = 5;
+	public static final int                   CADR           = 6;
+	public static final int                   CAR            = 7;
+	public static final int                   CDR            = 8;
+	public static final int                   CLEAR          = 9;
+	public static final int                   COND           = 10;
+	public static final int                   CONS           = 11;
+	public static final int                   COUNT          = 12;
+	public static final int                   DEFUN          = 13;
+	public static final int                   DISCARD        = 14;
+	public static final int                   DIV            = 15;
+	public static final int                   DO             = 16;
+	public static final int                   DOT            = 17;
+	public static final int                   END            = 18;
+	public static final int                   EQUAL          = 19;
+	public static final int                   ERROR          = 20;
+	public static final int                   EVAL           = 21;
+	public static final int                   EXIT           = 22;
+	public static final int                   FALSE          = 23;
+	public static final int                   FOR            = 24;
+	public static final int                   FOR_LIST       = 25;
+	public static final int                   GE             = 26;
+	public static final int                   GT             = 27;
+	public static final int                   ID             = 28;
+	public static final int                   IF             = 29;
+	public static final int                   INVALID        = 30;
+	public static final int                   ISLIST         = 31;
+	public static final int                   LAMBDA         = 32;
+	public static final int                   LE             = 33;
+	public static final int                   LEFT           = 34;
+	public static final int                   LET            = 35;
+	public static final int                   LIST           = 36;
+	public static final int                   LISTP          = 37;
+	public static final int                   LOAD           = 38;
+	public static final int                   LT             = 39;
+	public static final int                   MINUS          = 40;
+	public static final int                   MEMBERP        = 41;
+	public static final int                   MOD            = 42;
+	public static final int                   NAND           = 43;
+	public static final int                   NIL            = 44;
+	public static final int                   NOR            = 45;
+	public static final int                   NOT            = 46;
+	public static final int                   NUMBER         = 47;
+	public static final int                   NUMBERP        = 48;
+	public static final int                   OR             = 49;
+	public static final int                   PLUS           = 50;
+	public static final int                   PUSH           = 51;
+	public static final int                   QUIT           = 52;
+	public static final int                   QUOTE          = 53;
+	public static final int                   READ           = 54;
+	public static final int                   REVERSE        = 55;
+	public static final int                   RIGHT          = 56;
+	public static final int                   SAVE           = 57;
+	public static final int                   SET            = 58;
+	public static final int                   SETQ           = 59;
+	public static final int                   STRING         = 60;
+	public static final int                   STRINGP        = 61;
+	public static final int                   TIMES          = 62;
+	public static final int                   TRACE          = 63;
+	public static final int                   TRUE           = 64;
+	public static final int                   UNSET          = 65;
+	public static final int                   WHILE          = 66;
+	public static final int                   WRITE          = 67;
+	public static final int                   COMPILE        = 68;
+	public static final int                   MODE           = 69;
+	public static final int                   PFOR_LIST      = 70;
+	public static final int                   PREDUCE        = 71;
+	public static final int                   MEMOIZE        = 72;
+	public static final int                   MEMO_STATS     = 73;
+	public static final int                   RESTORE        = 74;
+	public static final int                   QUERY          = 75;
+	public static final int                   PROVE          = 76;
+	public static final int                   VECTOR         = 77;
+	public static final int                   VECTORP        = 78;
+	public static final int                   VREF           = 79;
+	public static final int                   VSET           = 80;
+	public static final int                   VLENGTH        = 81;
+	public static final int                   MAKE_VECTOR    = 82;
+	public static final int                   LIST_TO_VECTOR = 83;
+	public static final int                   VECTOR_TO_LIST = 84;
+	public static final int                   HASH_TABLE     = 85;
+	public static final int                   HASH_SET       = 86;
+	public static final int                   HASH_GET       = 87;
+	public static final int                   HASH_PUT       = 88;
+	public static final int                   HASH_ADD       = 89;
+	public static final int                   HASH_REMOVE    = 90;
+	public static final int                   HASH_CONTAINS  = 91;
+	public static final int                   HASH_KEYS      = 92;
+	public static final int                   HASH_VALUES    = 93;
+	public static final int                   HASH_TABLEP    = 94;
+	public static final int                   HASH_SETP      = 95;
+	public static final int                   LAZY           = 96;
+	public static final int                   LAZY_RANGE     = 97;
+	public static final int                   LAZY_MAP       = 98;
+	public static final int                   LAZY_FILTER    = 99;
+	public static final int                   TAKE           = 100;
+	public static final int                   DROP           = 101;
+	public static final int                   LAZY_SEQP      = 102;
+	public static final int                   PROFILE        = 103;
+	public static final int                   VECTOR_LEFT    = 104;
+	public static final int                   VECTOR_VALUE   = 105;
+	public static final int                   TABLE_VALUE    = 106;
+	public static final int                   SET_VALUE      = 107;
+
+	// the #( that opens a vector and the types of the values no builtin is
+	// registered under, which a program cannot spell as keywords
+	private static final String[]             tokenHidden    = { "VECTOR_LEFT", "VECTOR_VALUE", "TABLE_VALUE",
+	        "SET_VALUE" };
 
 	private static final Map<String, Integer> tokenIndex = new HashMap<String, Integer>();
 	private static final Map<Integer, String> tokenCode  = new HashMap<Integer, String>();
@@ -82,11 +128,12 @@ public class Token
 		Field[] fields = clazz.getDeclaredFields();
 		for (Field field : fields) {
 			String name = field.getName();
-			if (name.startsWith("token") || "type".equals(name) || "code".equals(name))
+			if (name.startsWith("token") || "type".equals(name) || "code".equals(name) || "symbol".equals(name))
 				continue;
 			try {
 				int value = (int) field.get(clazz);
-				tokenIndex.put(name, value);
+				if (!Arrays.asList(tokenHidden).contains(name))
+					tokenIndex.put(name, value);
 				tokenCode.put(value, name);
 			} catch (IllegalArgumentException | IllegalAccessException e) {
 
@@ -98,6 +145,7 @@ public class Token
 
 	private int                               type       = ISLIST;
 	private String                            code;
+	private Symbol                            symbol;
 
 	public int getType()
 	{
@@ -133,18 +181,43 @@ public class Token
 	{
 		switch (type) {
 		case ID:
-			Integer registered = tokenIndex.get(code.toUpperCase());
-			if (registered != null) {
-				this.type = registered;
-				this.code = code.toUpperCase();
-				return;
-			}
+			symbol = Symbol.intern(code);
+			this.type = symbol.getType();
+			this.code = symbol.getCode();
+			return;
 		default:
 			this.type = type;
 			this.code = code;
 		}
 	}
 
+	/**
+	 * @return the interned symbol for an identifier or keyword token, or null
+	 *         for any other token
+	 */
+	public Symbol getSymbol()
+	{
+		return symbol;
+	}
+
+	/**
+	 * @return the token type of the keyword spelled <code>code</code>, in any
+	 *         case, or null if it is not a keyword
+	 */
+	public static Integer keyword(String code)
+	{
+		return tokenIndex.get(code.toUpperCase());
+	}
+
+	/**
+	 * @return the name of the token type <code>type</code>, or null if there
+	 *         is none
+	 */
+	public static String name(int type)
+	{
+		return tokenCode.get(type);
+	}
+
 	@Override
 	public String toString()
 	{
@@ -4,15 +4,43 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Properties;
 
 import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.controller.Tracer;
 
 public class LispEnvironment
 {
 
+	/**
+	 * Starts the interactive prompt, or with <code>--port N</code> or
+	 * <code>--socket PATH</code> serves sessions instead, see
+	 * {@link LispServer}. With <code>--image FILE</code> first, the prompt or
+	 * every session starts from the workspace saved in FILE. With
+	 * <code>-Dlisp.jmx=true</code> the metrics of the prompt, or of each
+	 * session, are published through JMX, see
+	 * {@link Interpreter#registerMBean(String)}. <code>--decode FILE</code>
+	 * prints a trace recorded by TRACE, see {@link Tracer}.
+	 */
 	public static void main(String[] args)
 	{
+		if (args.length == 2 && args[0].equals("--decode")) {
+			decode(Paths.get(args[1]));
+			return;
+		}
+		Path image = null;
+		if (args.length >= 2 && args[0].equals("--image")) {
+			image = Paths.get(args[1]);
+			args = Arrays.copyOfRange(args, 2, args.length);
+		}
+		if (args.length == 2 && (args[0].equals("--port") || args[0].equals("--socket"))) {
+			serve(args[0], args[1], image);
+			return;
+		}
 
 		String presentation = null;
 		String credits = null;
@@ -32,10 +60,43 @@ public class LispEnvironment
 		}
 		System.out.println(String.format("%s\n%s\n%s\n\n", presentation, credits, message));
 		Interpreter interpreter = new Interpreter(System.in);
+		if (Boolean.getBoolean("lisp.jmx"))
+			interpreter.registerMBean("prompt");
+		if (image != null) {
+			try {
+				interpreter.restore(image);
+			} catch (IOException ex) {
+				System.err.println(ex);
+				System.exit(1);
+			}
+		}
 		{
 			while (true) {
 				interpreter.evalNext();
 			}
 		}
 	}
+
+	private static void decode(Path trace)
+	{
+		try (InputStream input = Files.newInputStream(trace)) {
+			Tracer.decode(input, System.out);
+		} catch (IOException ex) {
+			System.err.println(ex);
+			System.exit(1);
+		}
+	}
+
+	private static void serve(String option, String value, Path image)
+	{
+		try (LispServer server = option.equals("--port") ? LispServer.tcp(Integer.parseInt(value))
+		                                                 : LispServer.unix(Paths.get(value))) {
+			server.setImage(image);
+			System.out.println("Listening on " + server.getAddress());
+			server.serve();
+		} catch (IOException | NumberFormatException ex) {
+			System.err.println(ex);
+			System.exit(1);
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,283 @@
+package com.ochavoya.languages.view;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ochavoya.languages.controller.EvaluationError;
+import com.ochavoya.languages.controller.Interpreter;
+import com.ochavoya.languages.model.Symbol;
+import com.ochavoya.languages.model.Token;
+
+/**
+ * Serves interpreter sessions on a loopback TCP port or a Unix-domain socket.
+ * Every connection gets its own {@link Interpreter} and its own thread, which
+ * is a virtual thread when the JVM has them.
+ * <p>
+ * A client writes expressions exactly as it would type them at the prompt and
+ * does not have to wait for a reply before sending the next one. The server
+ * answers each expression, in order, with whatever it printed, one
+ * <code>&gt; </code> line per line of output, followed by a single line that
+ * is either <code>= </code> and the value or <code>! </code> and the error.
+ * Newlines and backslashes inside a line are escaped as <code>\n</code>,
+ * <code>\r</code> and <code>\\</code>. Replies are buffered and only flushed
+ * when the server has run out of requests to read, so a pipelined batch is
+ * answered with a few large writes. EXIT and QUIT close the connection.
+ */
+public class LispServer implements Closeable
+{
+	private final ServerSocketChannel channel;
+	private final SocketAddress       address;
+	private final ThreadFactory       threads  = sessionThreads();
+	private final AtomicInteger       sessions = new AtomicInteger();
+	private volatile Path             image;
+
+	private LispServer(ServerSocketChannel channel) throws IOException
+	{
+		this.channel = channel;
+		this.address = channel.getLocalAddress();
+	}
+
+	/**
+	 * Listens on the loopback interface. Port 0 picks a free port, see
+	 * {@link #getAddress()}.
+	 */
+	public static LispServer tcp(int port) throws IOException
+	{
+		ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.INET);
+		channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		return new LispServer(channel);
+	}
+
+	/**
+	 * Listens on a Unix-domain socket, replacing a stale socket file left
+	 * behind at the same path.
+	 */
+	public static LispServer unix(Path path) throws IOException
+	{
+		Files.deleteIfExists(path);
+		ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		channel.bind(UnixDomainSocketAddress.of(path));
+		return new LispServer(channel);
+	}
+
+	public SocketAddress getAddress()
+	{
+		return address;
+	}
+
+	/**
+	 * Starts every new session from the workspace saved in
+	 * <code>image</code>, or from an empty one if it is null.
+	 */
+	public void setImage(Path image)
+	{
+		this.image = image;
+	}
+
+	/**
+	 * Accepts connections until the server is closed.
+	 */
+	public void serve() throws IOException
+	{
+		try {
+			while (true) {
+				SocketChannel client = channel.accept();
+				threads.newThread(() -> session(client)).start();
+			}
+		} catch (AsynchronousCloseException e) {
+			// closed
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+		if (address instanceof UnixDomainSocketAddress)
+			Files.deleteIfExists(((UnixDomainSocketAddress) address).getPath());
+	}
+
+	/**
+	 * Uses <code>Thread.ofVirtual()</code> where it exists, Java 21 and later;
+	 * older runtimes get one daemon platform thread per session instead.
+	 */
+	static ThreadFactory sessionThreads()
+	{
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			AtomicInteger count = new AtomicInteger();
+			return (runnable) -> {
+				Thread thread = new Thread(runnable, "lisp-session-" + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			};
+		}
+	}
+
+	private void session(SocketChannel client)
+	{
+		try (SocketChannel connection = client) {
+			if (address instanceof InetSocketAddress)
+				connection.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			OutputStream output = new BufferedOutputStream(Channels.newOutputStream(connection), 8192);
+			PrintStream replies = new PrintStream(output, false, StandardCharsets.UTF_8);
+			ByteArrayOutputStream printed = new ByteArrayOutputStream();
+			Interpreter interpreter = new Interpreter(new SessionInput(connection, replies),
+			                                          new PrintStream(printed, true, StandardCharsets.UTF_8));
+			interpreter.setOnExit(() -> {
+				throw new SessionClosed();
+			});
+			if (image != null)
+				interpreter.restore(image);
+			if (Boolean.getBoolean("lisp.jmx"))
+				interpreter.registerMBean("session-" + sessions.incrementAndGet());
+			try {
+				while (true) {
+					Symbol expression;
+					try {
+						expression = interpreter.getParser().getExpression();
+					} catch (EvaluationError e) {
+						replies.println("! " + escape(e.toString()));
+						continue;
+					}
+					if (expression.getType() == Token.END)
+						break;
+					String reply;
+					try {
+						reply = "= " + escape(format(interpreter.evaluate(expression)));
+					} catch (SessionClosed e) {
+						break;
+					} catch (RuntimeException e) {
+						reply = "! " + escape(e.toString());
+					} catch (StackOverflowError e) {
+						reply = "! stack overflow";
+					}
+					if (printed.size() > 0) {
+						for (String line : printed.toString(StandardCharsets.UTF_8).split("\n", -1))
+							if (!line.isEmpty())
+								replies.println("> " + escape(line));
+						printed.reset();
+					}
+					replies.println(reply);
+				}
+			} finally {
+				interpreter.unregisterMBean();
+			}
+			replies.flush();
+		} catch (IOException | UncheckedIOException e) {
+			// the client went away
+		}
+	}
+
+	private static String format(Symbol value)
+	{
+		if (value.getType() == Token.QUOTE)
+			return value.getCdr().getCar().toString();
+		if (value.getType() == Token.STRING)
+			return "\"" + value + "\"";
+		return value.toString();
+	}
+
+	static String escape(String text)
+	{
+		if (text.indexOf('\n') < 0 && text.indexOf('\r') < 0 && text.indexOf('\\') < 0)
+			return text;
+		return text.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	@SuppressWarnings("serial")
+	private static class SessionClosed extends RuntimeException
+	{
+		SessionClosed()
+		{
+			super(null, null, false, false);
+		}
+	}
+
+	/**
+	 * Reads the connection through its own buffer so it knows when the next
+	 * read would block, and flushes the pending replies just before that.
+	 */
+	private static class SessionInput extends InputStream
+	{
+		private final SocketChannel channel;
+		private final OutputStream  replies;
+		private final ByteBuffer    buffer = ByteBuffer.allocate(8192).flip();
+
+		SessionInput(SocketChannel channel, OutputStream replies)
+		{
+			this.channel = channel;
+			this.replies = replies;
+		}
+
+		private boolean fill() throws IOException
+		{
+			if (buffer.hasRemaining())
+				return true;
+			replies.flush();
+			buffer.clear();
+			try {
+				int count = channel.read(buffer);
+				buffer.flip();
+				return count > 0;
+			} catch (IOException e) {
+				buffer.flip();
+				return false;
+			}
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			return fill() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException
+		{
+			if (length == 0)
+				return 0;
+			if (!fill())
+				return -1;
+			int count = Math.min(length, buffer.remaining());
+			buffer.get(bytes, offset, count);
+			return count;
+		}
+
+		@Override
+		public int available()
+		{
+			return buffer.remaining();
+		}
+
+		@Override
+		public void close()
+		{
+			// the session closes the connection
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.ochavoya.languages.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.ochavoya.languages.model.Symbol;
+import com.ochavoya.languages.model.Token;
+
+/**
+ * Runs the same programs with every evaluator and checks that they print and
+ * return what the transcript next to each program says, errors included. The
+ * compiled mode has a tier threshold of one, so the bytecode tier runs every
+ * function called twice; the other modes never tier. The library program
+ * loads test.lsp from the directory the tests run in, the project's.
+ */
+class EvaluationModesTest
+{
+	@ParameterizedTest
+	@ValueSource(strings = { "library", "scopes", "numbers", "tail_calls", "redefinitions", "memo", "facts", "vectors",
+	        "vectors_as_data", "tables_as_data", "equal_after_hash", "lazy" })
+	void modesAgree(String program) throws IOException
+	{
+		String expected = transcript(program);
+		assertEquals(expected, run(program, EvaluationMode.TREE, -1), "TREE");
+		assertEquals(expected, run(program, EvaluationMode.COMPILED, 1), "COMPILED");
+		assertEquals(expected, run(program, EvaluationMode.STACK, -1), "STACK");
+	}
+
+	private static String transcript(String program) throws IOException
+	{
+		try (InputStream expected = EvaluationModesTest.class.getResourceAsStream("programs/" + program + ".out")) {
+			return new String(expected.readAllBytes(), StandardCharsets.UTF_8);
+		}
+	}
+
+	/**
+	 * @return a line per expression of the program: what it printed, then
+	 *         <code>= </code> and its value or <code>! </code> and its error
+	 */
+	static String run(String program, EvaluationMode mode, int tierThreshold) throws IOException
+	{
+		ByteArrayOutputStream printed = new ByteArrayOutputStream();
+		StringBuilder transcript = new StringBuilder();
+		try (InputStream source = EvaluationModesTest.class.getResourceAsStream("programs/" + program + ".lsp")) {
+			Interpreter interpreter = new Interpreter(source, new PrintStream(printed, true, StandardCharsets.UTF_8));
+			interpreter.setMode(mode);
+			interpreter.setTierThreshold(tierThreshold);
+			Symbol expression;
+			while ((expression = interpreter.getParser().getExpression()).getType() != Token.END) {
+				String reply;
+				try {
+					reply = "= " + interpreter.evaluate(expression);
+				} catch (RuntimeException e) {
+					reply = "! " + e;
+				} catch (StackOverflowError e) {
+					reply = "! stack overflow";
+				}
+				transcript.append(printed.toString(StandardCharsets.UTF_8)).append(reply).append('\n');
+				printed.reset();
+			}
+		}
+		return transcript.toString();
+	}
+}
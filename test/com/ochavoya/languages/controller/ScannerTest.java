@@ -0,0 +1,32 @@
+package com.ochavoya.languages.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+import org.junit.jupiter.api.Test;
+
+import com.ochavoya.languages.model.Token;
+
+class ScannerTest
+{
+	@Test
+	void readErrorsReachTheCaller()
+	{
+		InputStream broken = new InputStream()
+		{
+			@Override
+			public int read() throws IOException
+			{
+				throw new IOException("broken");
+			}
+		};
+		Parser parser = new Parser(broken);
+		UncheckedIOException error = assertThrows(UncheckedIOException.class, parser::getExpression);
+		assertEquals("broken", error.getCause().getMessage());
+		assertEquals(Token.END, parser.getExpression().getType());
+	}
+}
@@ -0,0 +1,99 @@
+package com.ochavoya.languages.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.ochavoya.languages.model.Symbol;
+import com.ochavoya.languages.model.Token;
+
+/**
+ * The skimmer that cuts a file for LOAD follows the rules of the scanner and
+ * the parser on its own, so these tests check that the pieces it cuts parse
+ * to the same forms as the whole file, cutting as often as it can.
+ */
+class SourceLoaderTest
+{
+	private static final String[] FRAGMENTS = { "(", ")", "'", " ", "\n", "\r\n", "\t", "@", "a", "b1", "-", "-7", "42",
+	        "\"", "\"(\"", "\")\"", "\"a;;b\"", ";", ";;", ";; ( ) \"", ";x", "#(", "#", "#x", "()", "<=", ">", "=",
+	        "+", "*", "/", "%", ".", "?x", "\u00e9", "\u4e2d", "\ud83d\ude00", "\u00a0", "\u2028", "vector" };
+
+	@Test
+	void piecesParseLikeTheWholeFile()
+	{
+		String[] sources = { "(a \"(\" b)\n(c)\n", "(a ;; ) not closed\n b)\n(c)\n", "\"unterminated (\n(a)\n(b)\n",
+		        "(a \"\n(b)\n)\n(c)\n", "; (\n(a)\n;; \"\n(b)\n", "#(1 (2) \")\")\n'(x)\n", "@(a)@\n@(b)\n", ")\n(a)\n)\n(b)\n",
+		        "(a\r\n b)\r\n(c)\r\n", "(\u00e9 \"\u4e2d\")\n(\ud83d\ude00)\n", "-\n(- 1)\n-5\n(a)\n", "()\n( )\n(a ())\n" };
+		for (String source : sources)
+			check(source.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void randomSourcesParseLikeTheWholeFile()
+	{
+		Random random = new Random(42);
+		for (int i = 0; i < 2000; ++i) {
+			StringBuilder source = new StringBuilder();
+			int count = random.nextInt(40);
+			for (int j = 0; j < count; ++j)
+				source.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+			check(source.toString().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	@Test
+	void malformedBytesParseLikeTheWholeFile()
+	{
+		byte[][] sources = { { '(', 'a', (byte) 0xC3, ')', '\n', '(', 'b', ')', '\n' },
+		        { '"', (byte) 0xE4, (byte) 0xB8, '"', '\n', '(', 'c', ')', '\n' },
+		        { (byte) 0xF0, (byte) 0x9F, (byte) 0x98, (byte) 0x80, '\n', '(', 'd', ')', '\n' },
+		        { '(', (byte) 0x80, ' ', (byte) 0xFF, ')', '\n', '(', 'e', ')', '\n' } };
+		for (byte[] source : sources)
+			check(source);
+	}
+
+	/**
+	 * Splits and parses <code>source</code> in the default charset, which the
+	 * scanner decodes with; the build runs the tests in UTF-8.
+	 */
+	private static void check(byte[] source)
+	{
+		Charset charset = Charset.defaultCharset();
+		List<String> whole = forms(ByteBuffer.wrap(source));
+		for (int target : new int[] { 1, 5, 64 }) {
+			List<String> pieces = new ArrayList<String>();
+			Iterator<ByteBuffer> split = SourceLoader.split(ByteBuffer.wrap(source), charset, target);
+			while (split.hasNext())
+				pieces.addAll(forms(split.next()));
+			assertEquals(whole, pieces, "cut every " + target + " bytes: " + new String(source, charset));
+		}
+	}
+
+	/**
+	 * @return every form in <code>source</code>, printed, and the errors
+	 *         parsing it, with the parser going on after each
+	 */
+	private static List<String> forms(ByteBuffer source)
+	{
+		List<String> forms = new ArrayList<String>();
+		Parser parser = new Parser(source);
+		while (true) {
+			try {
+				Symbol form = parser.getExpression();
+				if (form.getType() == Token.END)
+					return forms;
+				forms.add(form.getType() + " " + form);
+			} catch (EvaluationError e) {
+				forms.add("! " + e);
+			}
+		}
+	}
+}
@@ -0,0 +1,15 @@
+(defun same (a b v) (let ((h (hash_set))) ((hash_add h a) (hash_add h b) (vset v 1 9) (equal a b))))
+(setq v #(1 2))
+(setq a (push 0 (push v nil)))
+(setq b (push 0 (push #(1 9) nil)))
+(equal a b)
+(same a b v)
+a
+b
+(defun same2 (a b v) (block (vset v 1 7) (equal a b)))
+(same2 a b v)
+(setq c (push 0 (push #(1 7) nil)))
+(setq h2 (hash_table))
+(hash_put h2 a 'x)
+(hash_put h2 c 'y)
+(equal a c)
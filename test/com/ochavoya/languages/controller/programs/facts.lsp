@@ -0,0 +1,20 @@
+(. (parent tom bob))
+(. (parent ann bob))
+(. (parent bob liz))
+(. (parent tom bob))
+(. (age tom 50))
+(. (edge (a b) c))
+(. hello)
+(query (parent ?x bob))
+(query (parent ?x bob) ?x)
+(query (parent tom ?y) (child ?y of tom))
+(query (parent ?x ?x))
+(query (parent ?x ?y) (?y ?x))
+(query (?r tom ?v) (?r ?v))
+(query (edge (a ?z) ?w) (?z ?w))
+(query (parent nobody ?y))
+(query hello)
+(query ?any)
+(query)
+(. (anc x y) (parent x y))
+(query (anc ?a ?b))
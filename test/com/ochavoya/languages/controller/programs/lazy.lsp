@@ -0,0 +1,43 @@
+(setq r (lazy_range 0))
+(lazy_seqp r)
+(lazy_seqp '(1))
+(car r)
+(car (cdr (cdr r)))
+(take 5 r)
+(count (take 5 r))
+(drop 3 (take 6 r))
+(lazy_range 1 10 3)
+(lazy_range 10 1 -4)
+(lazy_range 0 0)
+(count (lazy_range 0 0))
+(defun sq (x) (* x x))
+(defun evenp (x) (= (% x 2) 0))
+(take 5 (lazy_map (lazy_filter r evenp) sq))
+(for_list (take 4 r) sq)
+(equal (take 3 r) '(0 1 2))
+(equal '(0 1 2) (take 3 r))
+(equal (take 3 r) '(0 1 3))
+(setq h (hash_table))
+(hash_put h (take 2 r) 'yes)
+(hash_get h '(0 1))
+(car (drop 100000 (lazy_map (lazy_range 0) sq)))
+(count (lazy_filter (lazy_range 0 100000) evenp))
+(lazy_map '(1 2 3) sq)
+(lazy_map '(1 2 3) (lambda (x) (+ x 1)))
+(lazy_filter '(a) evenp)
+(take 3 '(a b c d))
+(lazy_map '(x y) sq)
+(take -1 r)
+(take 1 5)
+(lazy_range 1 2 0)
+(lazy_range 'a)
+(drop 2 '(1 2))
+(count (drop 5 '(1 2)))
+(setq big 12345678901234567890)
+(take 2 (lazy_range big))
+(let ((k 10)) ((car (lazy_map r (lambda (x) (+ x k))))))
+(cdr (take 1 r))
+(count 5)
+(pfor_list (lazy_range 1 5) sq)
+(preduce (lazy_range 1 5) (lambda (a b) (+ a b)) 0)
+(equal (pfor_list (take 3 r) sq) (for_list (take 3 r) sq))
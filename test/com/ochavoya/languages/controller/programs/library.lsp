@@ -0,0 +1,24 @@
+(load "test.lsp")
+(factorial 0)
+(factorial 5)
+(factorial 25)
+(factorial -1)
+(gcd 832040 514229)
+(gcd 12 -18)
+(gcd 0 0)
+(range 1 5)
+(range 5 1)
+(perfectsquare 49)
+(perfectsquare 50)
+(power 2 10)
+(power 2 70)
+(power 3 -1)
+(square 12)
+(cube -3)
+(triangular 100)
+(permutations 5 2)
+(permutations 2 5)
+(binomial 10 3)
+(binomial 52 5)
+(for_list (range 1 6) square)
+(for_list (range 0 5) (lambda (n) (binomial 5 n)))
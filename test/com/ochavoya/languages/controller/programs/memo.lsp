@@ -0,0 +1,26 @@
+(defun fib (n) (if (< n 2) n (+ (fib (- n 1)) (fib (- n 2)))))
+(memo_stats fib)
+(memoize fib 100)
+(fib 80)
+(memo_stats fib)
+(fib 80)
+(memo_stats fib)
+(memoize fib 5)
+(fib 30)
+(memo_stats fib)
+(defun fib (n) (if (< n 2) 1 (+ (fib (- n 1)) (fib (- n 2)))))
+(memo_stats fib)
+(fib 60)
+(memo_stats fib)
+(defun h (x) x)
+(memo_stats fib)
+(memoize fib 0)
+(memo_stats fib)
+(memoize nope)
+(memoize fib 'a)
+(defun loop (n acc) (if (= n 0) acc (loop (- n 1) (+ acc 1))))
+(memoize loop)
+(loop 500 0)
+(memo_stats loop)
+(clear)
+(memo_stats fib)
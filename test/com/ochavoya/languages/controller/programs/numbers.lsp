@@ -0,0 +1,18 @@
+(+ 9223372036854775807 1)
+(- -9223372036854775808 1)
+(- -9223372036854775808)
+(* 4294967296 4294967296)
+(* -3037000500 3037000500)
+(/ -9223372036854775808 -1)
+(/ 7 0)
+(% 7 -3)
+(% -7 3)
+(% 100000000000000000000000 7)
+(- (+ 9223372036854775807 1) 1)
+(equal (- (+ 9223372036854775807 1) 1) 9223372036854775807)
+(+ "12" 1)
+(+ "ab" 1)
+(< 99999999999999999999 3)
+(equal 007 7)
+007
+(/ -7 2)
@@ -0,0 +1,11 @@
+(defun h (n) (if (= n 0) 0 (+ 1 (h (- n 1)))))
+(h 10)
+(h 10)
+(h 10)
+(defun h2 (n) (if (= n 0) (block (defun h2 (n) 100) 0) (+ 1 (h2 (- n 1)))))
+(h2 3)
+(h2 3)
+(defun t2 (n) (if (= n 0) (block (defun t2 (n) 100) 0) (t2 (- n 1))))
+(t2 1)
+(t2 1)
+(t2 1)
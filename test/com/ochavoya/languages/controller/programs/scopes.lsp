@@ -0,0 +1,12 @@
+(let ((y 10)) ((defun addy (x) (+ x y))))
+(addy 5)
+((lambda (x) (* x x x)) 4)
+(let ((k 3)) (((lambda (x) (* x k)) 5)))
+(defun outer (a) (inner 1))
+(defun inner (b) (+ b a))
+(outer 7)
+(let ((i 0) (s 0)) ((for ((setq i 0) (< i 5) (setq i (+ i 1))) ((setq s (+ s i)))) s))
+(let ((a 1)) ((let ((a 2) (b a)) ((+ a b)))))
+(defun sq (n) (block (setq n (* n n)) n))
+(sq 9)
+(let ((z 2)) ((+ z 1)))
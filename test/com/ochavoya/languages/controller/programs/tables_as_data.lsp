@@ -0,0 +1,14 @@
+(setq t2 (vector_to_list (vector (hash_set) 5)))
+(hash_add (car t2) 'a)
+(car t2)
+t2
+(setq t3 (push (hash_table) '(1)))
+(hash_put (car t3) 'k 'v)
+(hash_get (car t3) 'k)
+(cdr t3)
+(defun sizes (l) (for_list l (lambda (x) (count (car x)))))
+(sizes (push t2 (push t3 nil)))
+(sizes (push t2 (push t3 nil)))
+(hash_setp (car t2))
+(hash_tablep (car t3))
+set_value
@@ -0,0 +1,9 @@
+(defun countdown (n acc) (cond (((= n 0) acc) (true (countdown (- n 1) (+ acc 1))))))
+(countdown 1000000 0)
+(defun ping (n) (if (= n 0) "done" (pong (- n 1))))
+(defun pong (n) (block (setq x n) (ping n)))
+(ping 100000)
+(defun lp (n) (let ((m (- n 1))) ((if (< m 0) 'end (lp m)))))
+(lp 100000)
+(defun gcd (a b) (if (= b 0) a (gcd b (% a b))))
+(gcd 832040 514229)
@@ -0,0 +1,33 @@
+(setq v #(1 2 (a b) "s" #(x y)))
+v
+(vlength v)
+(count v)
+(vref v 2)
+(vset v 0 'zero)
+v
+(vectorp v)
+(vectorp '(1 2))
+(setq w (make_vector 5 0))
+(vset w 4 (+ 1 2))
+w
+(vector 1 (+ 1 1) 'c)
+(list_to_vector '(p q r))
+(vector_to_list #(1 2 3))
+(equal #(1 2 #(3)) #(1 2 #(3)))
+(equal #(1 2) #(1 3))
+#()
+(vlength #())
+(vref v 9)
+(vref '(1) 0)
+(vref v)
+(make_vector -1)
+(defun vsum (v) (let ((i 0) (s 0)) ((while (< i (vlength v)) ((setq s (+ s (vref v i))) (setq i (+ i 1)))) s)))
+(vsum #(1 2 3 4))
+(defun f (n) (count (make_vector n 1)))
+(f 7)
+(setq v 0)
+v
+w
+(vsum (make_vector 200000 2))
+(defun vector (x) x)
+(vector 1 2)
@@ -0,0 +1,14 @@
+(setq z '(#(1 2) 0))
+(car z)
+z
+(vset (car z) 0 'one)
+z
+(setq w (push (make_vector 2 0) (push (+ 1 2) nil)))
+(car w)
+(cdr w)
+(defun firsts (l) (for_list l (lambda (x) (car x))))
+(firsts (push z (push '(#(3) 4) nil)))
+(firsts (push z (push '(#(3) 4) nil)))
+(vector 1 2)
+#(vector 1)
+vector_value
@@ -0,0 +1,140 @@
+package com.ochavoya.languages.view;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+@Timeout(60)
+class LispServerTest
+{
+	private LispServer server;
+
+	@BeforeEach
+	void setUp() throws IOException
+	{
+		server = LispServer.tcp(0);
+		Thread thread = new Thread(() -> {
+			try {
+				server.serve();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@AfterEach
+	void tearDown() throws IOException
+	{
+		server.close();
+	}
+
+	/**
+	 * A connection, read a line at a time.
+	 */
+	private class Session implements AutoCloseable
+	{
+		private final SocketChannel  channel;
+		private final OutputStream   requests;
+		private final BufferedReader replies;
+
+		Session() throws IOException
+		{
+			channel = SocketChannel.open(server.getAddress());
+			requests = Channels.newOutputStream(channel);
+			replies = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+		}
+
+		/**
+		 * @return the reply to <code>expression</code>, with what it printed
+		 *         before the value or the error
+		 */
+		String send(String expression) throws IOException
+		{
+			requests.write((expression + "\n").getBytes(StandardCharsets.UTF_8));
+			StringBuilder reply = new StringBuilder();
+			String line;
+			do {
+				line = replies.readLine();
+				if (line == null)
+					throw new IOException("the server closed the connection");
+				reply.append(line).append('\n');
+			} while (line.startsWith("> "));
+			return reply.toString();
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			channel.close();
+		}
+	}
+
+	@Test
+	void sessionsDoNotShareDefinitions() throws Exception
+	{
+		CyclicBarrier barrier = new CyclicBarrier(2);
+		ExecutorService clients = Executors.newFixedThreadPool(2);
+		try {
+			Future<?> first = clients.submit(() -> converse(barrier, "first", 1));
+			Future<?> second = clients.submit(() -> converse(barrier, "second", 2));
+			first.get();
+			second.get();
+		} finally {
+			clients.shutdownNow();
+		}
+	}
+
+	/**
+	 * Defines a global, a function and a fact of its own, in step with the
+	 * other session, then checks it still sees its own and none of the
+	 * other's.
+	 */
+	private Void converse(CyclicBarrier barrier, String name, int value) throws Exception
+	{
+		String other = name.equals("first") ? "second" : "first";
+		try (Session session = new Session()) {
+			barrier.await();
+			assertEquals("= " + value + "\n", session.send("(setq x " + value + ")"));
+			assertEquals("= " + name + "\n", session.send("(defun " + name + " () x)"));
+			assertEquals("= f\n", session.send("(defun f (n) (* n " + value + "))"));
+			session.send("(. (owner " + name + "))");
+			barrier.await();
+			for (int i = 0; i < 100; ++i) {
+				assertEquals("= " + value + "\n", session.send("x"));
+				assertEquals("= " + 10 * value + "\n", session.send("(f 10)"));
+				assertEquals("= " + value + "\n", session.send("(" + name + ")"));
+			}
+			barrier.await();
+			assertTrue(session.send("(" + other + ")").startsWith("! "), other + " leaked into " + name);
+			assertEquals("= ((" + name + "))\n", session.send("(query (owner ?who) (?who))"));
+		}
+		return null;
+	}
+
+	@Test
+	void unmatchedParenthesisIsAnError() throws IOException
+	{
+		try (Session session = new Session()) {
+			assertEquals("! Unmatched right parenthesis\n", session.send(")"));
+			assertEquals("= 3\n", session.send("(+ 1 2)"));
+		}
+	}
+}